@@ -193,6 +193,36 @@ class ArrayBinding {
 		this._listeners.push(listener);
 	}
 
+	/**
+	 * Applies a change of the bound java ObservableList and fires the listeners once
+	 * with all sub changes. The changes are encoded in one flat array, so java
+	 * only has to call js once per change: every sub change is an operation
+	 * ("splice" or "update"), the start index, the number of removed (or updated)
+	 * values, the number of new values and the new values.
+	 * @param {array} ops the encoded changes
+	 */
+	_applyJavaChanges(ops) {
+		let oldValue = this._value;
+		let changes = [];
+		let i = 0;
+		while(i < ops.length) {
+			let op = ops[i];
+			let from = ops[i + 1];
+			let removed = ops[i + 2];
+			let added = ops[i + 3];
+			let values = ops.slice(i + 4, i + 4 + added);
+			this._value.splice(from, removed, ...values);
+			if(op == Change.UPDATE_TYPE) {
+				changes.push(new Change(Change.UPDATE_TYPE, from, from + added));
+			} else {
+				if(removed > 0) changes.push(new Change(Change.REMOVE_TYPE, from, from + removed));
+				if(added > 0) changes.push(new Change(Change.ADD_TYPE, from, from + added));
+			}
+			i += 4 + added;
+		}
+		this._fireListeners(oldValue, this._value, changes);
+	}
+
 	/**
 	 * fires all registered listeners 
 	 * @param {array} oldArray the oldArray
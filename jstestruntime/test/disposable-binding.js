@@ -0,0 +1,10 @@
+/**
+ * A test class with a property and a list binding used for unit tests
+ */
+class DisposableBinding {
+    constructor() {
+        _initObj("test.disposable-binding", this)
+    }
+}
+_initClass("test.disposable-binding", DisposableBinding);
+return DisposableBinding;
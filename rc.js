@@ -34,7 +34,16 @@ normalMode.register("C-w", ctx => {
     if(tabIndex < 0) return;
     print("index:", tabIndex)
     tabs.splice(tabIndex, 1);
-    
+    // the disposed tab mustn't be used by the other shortcuts
+    if(root.currentTab.value === currentTab) root.currentTab.value = null;
+
+    // the closed tab isn't used anymore, so the object pool can forget it
+    let editor = currentTab.editor.value;
+    if(editor != null) {
+        if(editor.source.value != null) _disposeObj(editor.source.value);
+        _disposeObj(editor);
+    }
+    _disposeObj(currentTab);
 })
 
 normalMode.register("C-o", ctx => {
@@ -49,7 +58,12 @@ normalMode.register("C-o", ctx => {
     filechooser.openFileChooser(false, "Open File", path => {
         if(path == null) return;
         let source = new FileSource(path);
+        let oldSource = editor.source.value;
         editor.source.value = source;
+        if(oldSource != null) _disposeObj(oldSource);
+        if(path.endsWith(".js")) {
+            editor.syntaxFileProperty.value = "syntax/js.syntax";
+        }
     });
 })
 
@@ -61,3 +75,19 @@ normalMode.register("C-s", ctx => {
     let source = editor.source.value;
     source.save();
 });
+
+normalMode.register("C-z", ctx => {
+    let currentTab = root.currentTab.value;
+    if(currentTab == null) return;
+    let editor = currentTab.editor.value;
+    if(editor == null || editor.source.value == null) return;
+    editor.source.value.undo();
+});
+
+normalMode.register("C-y", ctx => {
+    let currentTab = root.currentTab.value;
+    if(currentTab == null) return;
+    let editor = currentTab.editor.value;
+    if(editor == null || editor.source.value == null) return;
+    editor.source.value.redo();
+});
\ No newline at end of file
@@ -1,5 +1,6 @@
 package ch.sebi.fxedit;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream.GetField;
 
@@ -7,6 +8,8 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import ch.sebi.fxedit.runtime.JsRuntime;
+import ch.sebi.fxedit.runtime.lib.require.ModulePrefetch;
+import ch.sebi.fxedit.runtime.lib.require.RequireLib;
 import ch.sebi.fxedit.runtime.reflection.ObjectPool;
 import ch.sebi.fxedit.ui.controller.window.FXApplication;
 
@@ -15,6 +18,8 @@ public class FXEditStartup {
 
 	public static void main(String[] args) throws IOException {
 		logger.info("Start FXEdit");
+		// reads the modules while the toolkit and the js runtime are starting
+		ModulePrefetch.start(new File(JsRuntime.CLASS_PROPERTIES_FILE), RequireLib.DEFAULT_REQUIRE_PATHS);
 		FXApplication.startup(args);
 		/*
 		 * logger.traceEntry();
@@ -0,0 +1,269 @@
+package ch.sebi.fxedit.model.source;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * An append only char storage. The chars are stored in fixed size chunks, so
+ * appending never copies already stored text and a range which was once
+ * readable stays valid forever. The positions of the line feeds are indexed
+ * while appending.<br>
+ * A single thread may append while other threads read the already appended
+ * text.
+ *
+ * @author sebi
+ *
+ */
+public class AppendBuffer {
+	/**
+	 * the number of bits used for the index inside of a chunk
+	 */
+	private static final int CHUNK_BITS = 16;
+	/**
+	 * the size of a chunk in chars
+	 */
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	/**
+	 * the mask to get the index inside of a chunk
+	 */
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/**
+	 * the chunks. Only the last chunk isn't full
+	 */
+	private char[][] chunks = new char[4][];
+
+	/**
+	 * the number of chars stored. It is written after the chars, so a reader
+	 * which reads the length first always sees the chars
+	 */
+	private volatile int length = 0;
+
+	/**
+	 * the sorted positions of the line feeds ('\n')
+	 */
+	private int[] lineFeeds = new int[16];
+
+	/**
+	 * the number of line feeds. It is written after the positions, so a reader
+	 * which reads the count first always sees the positions
+	 */
+	private volatile int lineFeedCount = 0;
+
+	/**
+	 * Appends the given text
+	 *
+	 * @param text the text to append
+	 * @return the offset at which the text was stored
+	 */
+	public int append(CharSequence text) {
+		int offset = length;
+		int end = offset + text.length();
+		if (end < offset) {
+			throw new IllegalStateException("The buffer cannot hold more than " + Integer.MAX_VALUE + " chars");
+		}
+		int pos = offset;
+		int i = 0;
+		while (pos < end) {
+			char[] chunk = chunkFor(pos);
+			int chunkOffset = pos & CHUNK_MASK;
+			int n = Math.min(CHUNK_SIZE - chunkOffset, end - pos);
+			for (int j = 0; j < n; j++) {
+				chunk[chunkOffset + j] = text.charAt(i++);
+			}
+			pos += n;
+		}
+		indexLineFeeds(offset, end);
+		length = end;
+		return offset;
+	}
+
+	/**
+	 * Appends the chars of the given array
+	 *
+	 * @param src the source array
+	 * @param off the offset in the source array
+	 * @param len the number of chars to append
+	 * @return the offset at which the chars were stored
+	 */
+	public int append(char[] src, int off, int len) {
+		int offset = length;
+		int end = offset + len;
+		if (end < offset) {
+			throw new IllegalStateException("The buffer cannot hold more than " + Integer.MAX_VALUE + " chars");
+		}
+		int pos = offset;
+		while (pos < end) {
+			char[] chunk = chunkFor(pos);
+			int chunkOffset = pos & CHUNK_MASK;
+			int n = Math.min(CHUNK_SIZE - chunkOffset, end - pos);
+			System.arraycopy(src, off, chunk, chunkOffset, n);
+			off += n;
+			pos += n;
+		}
+		indexLineFeeds(offset, end);
+		length = end;
+		return offset;
+	}
+
+	/**
+	 * Adds the line feeds of the given, just written range to the line feed
+	 * index
+	 *
+	 * @param from from where (inclusive)
+	 * @param to   to where (exclusive)
+	 */
+	private void indexLineFeeds(int from, int to) {
+		int[] lineFeeds = this.lineFeeds;
+		int count = lineFeedCount;
+		for (int pos = from; pos < to; pos++) {
+			if (chunks[pos >>> CHUNK_BITS][pos & CHUNK_MASK] == '\n') {
+				if (count == lineFeeds.length) {
+					lineFeeds = Arrays.copyOf(lineFeeds, count * 2);
+					this.lineFeeds = lineFeeds;
+				}
+				lineFeeds[count++] = pos;
+			}
+		}
+		lineFeedCount = count;
+	}
+
+	/**
+	 * Returns the chunk which holds the given position and allocates it if
+	 * necessary
+	 *
+	 * @param pos the position
+	 * @return the chunk
+	 */
+	private char[] chunkFor(int pos) {
+		int index = pos >>> CHUNK_BITS;
+		if (index >= chunks.length) {
+			chunks = Arrays.copyOf(chunks, chunks.length * 2);
+		}
+		char[] chunk = chunks[index];
+		if (chunk == null) {
+			chunk = new char[CHUNK_SIZE];
+			chunks[index] = chunk;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Returns the char at the given position
+	 *
+	 * @param index the position
+	 * @return the char
+	 */
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+		}
+		return chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+	}
+
+	/**
+	 * Copies the chars from the range into the destination array
+	 *
+	 * @param from   from where (inclusive)
+	 * @param to     to where (exclusive)
+	 * @param dst    the destination array
+	 * @param dstOff the offset in the destination array
+	 */
+	public void getChars(int from, int to, char[] dst, int dstOff) {
+		if (from < 0 || to > length || from > to) {
+			throw new IndexOutOfBoundsException("range: [" + from + ", " + to + "), length: " + length);
+		}
+		char[][] chunks = this.chunks;
+		int pos = from;
+		while (pos < to) {
+			int chunkOffset = pos & CHUNK_MASK;
+			int n = Math.min(CHUNK_SIZE - chunkOffset, to - pos);
+			System.arraycopy(chunks[pos >>> CHUNK_BITS], chunkOffset, dst, dstOff, n);
+			dstOff += n;
+			pos += n;
+		}
+	}
+
+	/**
+	 * Returns a view of the chars from the given position up to the end of the
+	 * range or the end of the chunk which holds the position, whichever comes
+	 * first. The view shares the storage of the buffer and must not be modified.
+	 *
+	 * @param from from where (inclusive)
+	 * @param to   to where (exclusive)
+	 * @return the view. Its position is at the first char
+	 */
+	public CharBuffer chunkView(int from, int to) {
+		if (from < 0 || to > length || from >= to) {
+			throw new IndexOutOfBoundsException("range: [" + from + ", " + to + "), length: " + length);
+		}
+		int chunkOffset = from & CHUNK_MASK;
+		int n = Math.min(CHUNK_SIZE - chunkOffset, to - from);
+		return CharBuffer.wrap(chunks[from >>> CHUNK_BITS], chunkOffset, n);
+	}
+
+	/**
+	 * Returns the number of line feeds before the given position
+	 *
+	 * @param pos the position
+	 * @return the number of line feeds
+	 */
+	public int lineFeedsBefore(int pos) {
+		int count = lineFeedCount;
+		int[] lineFeeds = this.lineFeeds;
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (lineFeeds[mid] < pos) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the number of line feeds in the range
+	 *
+	 * @param from from where (inclusive)
+	 * @param to   to where (exclusive)
+	 * @return the number of line feeds
+	 */
+	public int countLineFeeds(int from, int to) {
+		return lineFeedsBefore(to) - lineFeedsBefore(from);
+	}
+
+	/**
+	 * Returns the number of line feeds
+	 *
+	 * @return the number of line feeds
+	 */
+	public int lineFeedCount() {
+		return lineFeedCount;
+	}
+
+	/**
+	 * Returns the position of the line feed with the given index
+	 *
+	 * @param index the index of the line feed (0 is the first line feed)
+	 * @return the position
+	 */
+	public int lineFeedAt(int index) {
+		int count = lineFeedCount;
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("index: " + index + ", line feeds: " + count);
+		}
+		return lineFeeds[index];
+	}
+
+	/**
+	 * Returns the number of stored chars
+	 *
+	 * @return the length
+	 */
+	public int length() {
+		return length;
+	}
+}
@@ -0,0 +1,190 @@
+package ch.sebi.fxedit.model.source;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import ch.sebi.fxedit.model.source.PieceTable.Edit;
+
+/**
+ * The undo and redo history of a {@link PieceTable}. The journal stores the
+ * edits of the table, which only reference the removed pieces, so an undo or a
+ * redo costs O(log pieces) and never copies text.<br>
+ * Consecutive single char inserts (typing) and single char deletes (backspace
+ * and delete) are combined into one edit. A line feed ends such a combined
+ * edit. The memory used by the journal is estimated and the oldest edits are
+ * dropped when it exceeds the budget. The text itself stays in the append only
+ * buffers of the table anyway, so only the edits and the removed pieces are
+ * counted.
+ *
+ * @author sebi
+ *
+ */
+public class EditJournal {
+	/**
+	 * the default budget in bytes
+	 */
+	public static final long DEFAULT_BUDGET = 16L << 20;
+	/**
+	 * the estimated size of an edit in bytes
+	 */
+	private static final int EDIT_BYTES = 64;
+	/**
+	 * the estimated size of a removed piece in bytes
+	 */
+	private static final int PIECE_BYTES = 56;
+
+	/**
+	 * the edits which can be undone. The last one is the most recent edit
+	 */
+	private final Deque<Edit> undoStack = new ArrayDeque<>();
+	/**
+	 * the edits which can be redone. The last one is the most recently undone
+	 * edit
+	 */
+	private final Deque<Edit> redoStack = new ArrayDeque<>();
+	/**
+	 * the estimated memory used by both stacks in bytes
+	 */
+	private long bytes = 0;
+	/**
+	 * the budget in bytes
+	 */
+	private long budget = DEFAULT_BUDGET;
+	/**
+	 * if the next single char edit may be combined with the last edit
+	 */
+	private boolean coalescing = false;
+
+	/**
+	 * Records an edit which was just done on the table. The redo history is
+	 * discarded.
+	 *
+	 * @param table the table
+	 * @param edit  the edit
+	 * @param text  the inserted text
+	 */
+	public void record(PieceTable table, Edit edit, CharSequence text) {
+		if (edit.getInsertedLength() == 0 && edit.getRemovedLength() == 0) {
+			return;
+		}
+		while (!redoStack.isEmpty()) {
+			bytes -= cost(redoStack.pollLast());
+		}
+		boolean singleChar = edit.getInsertedLength() + edit.getRemovedLength() == 1
+				&& !(text.length() == 1 && text.charAt(0) == '\n');
+		if (singleChar && coalescing && !undoStack.isEmpty()) {
+			Edit combined = table.coalesce(undoStack.peekLast(), edit);
+			if (combined != null) {
+				bytes -= cost(undoStack.pollLast());
+				edit = combined;
+			}
+		}
+		push(undoStack, edit);
+		coalescing = singleChar;
+		trim();
+	}
+
+	/**
+	 * Reverts the last edit
+	 *
+	 * @param table the table
+	 * @return the edit which was done to revert it or null if there was nothing
+	 *         to undo
+	 */
+	public Edit undo(PieceTable table) {
+		return move(table, undoStack, redoStack);
+	}
+
+	/**
+	 * Does the last undone edit again
+	 *
+	 * @param table the table
+	 * @return the edit which was done or null if there was nothing to redo
+	 */
+	public Edit redo(PieceTable table) {
+		return move(table, redoStack, undoStack);
+	}
+
+	/**
+	 * Sets the budget. The oldest edits are dropped if the journal is too big.
+	 *
+	 * @param budget the budget in bytes
+	 */
+	public void setBudget(long budget) {
+		this.budget = budget;
+		trim();
+	}
+
+	/**
+	 * Returns the budget
+	 *
+	 * @return the budget in bytes
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns the estimated memory used by the journal
+	 *
+	 * @return the size in bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Restores the last edit of one stack and pushes the reverting edit onto the
+	 * other stack
+	 *
+	 * @param table the table
+	 * @param from  the stack with the edit
+	 * @param to    the stack for the reverting edit
+	 * @return the edit which was done or null if the stack was empty
+	 */
+	private Edit move(PieceTable table, Deque<Edit> from, Deque<Edit> to) {
+		Edit edit = from.pollLast();
+		if (edit == null) {
+			return null;
+		}
+		bytes -= cost(edit);
+		Edit restored = table.restore(edit);
+		push(to, restored);
+		coalescing = false;
+		trim();
+		return restored;
+	}
+
+	/**
+	 * Pushes the edit onto the stack
+	 *
+	 * @param stack the stack
+	 * @param edit  the edit
+	 */
+	private void push(Deque<Edit> stack, Edit edit) {
+		stack.addLast(edit);
+		bytes += cost(edit);
+	}
+
+	/**
+	 * Drops the oldest edits until the journal fits into the budget
+	 */
+	private void trim() {
+		while (bytes > budget && !undoStack.isEmpty()) {
+			bytes -= cost(undoStack.pollFirst());
+		}
+		while (bytes > budget && !redoStack.isEmpty()) {
+			bytes -= cost(redoStack.pollFirst());
+		}
+	}
+
+	/**
+	 * Returns the estimated size of an edit
+	 *
+	 * @param edit the edit
+	 * @return the size in bytes
+	 */
+	private static long cost(Edit edit) {
+		return EDIT_BYTES + (long) edit.getRemovedPieces() * PIECE_BYTES;
+	}
+}
@@ -0,0 +1,301 @@
+package ch.sebi.fxedit.model.source;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Writes the text of a {@link PieceTable} to a file channel. The chars are
+ * encoded straight from the buffers of the piece table. Ranges which are
+ * stored unchanged in the source file (see {@link FileLayout}) are copied from
+ * it with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * instead of being encoded again.<br>
+ * Every "\n" of the text is written as the line ending of the file and the
+ * file starts with the byte order mark of the encoding if it has one.<br>
+ * While writing, the layout of the written file is recorded, so the next save
+ * can copy from the written file.
+ *
+ * @author sebi
+ *
+ */
+public class FileContentWriter {
+	/**
+	 * the maximal number of chars of a span in the recorded layout
+	 */
+	private static final int SPAN_SIZE = 1 << 16;
+
+	/**
+	 * the channel which is written to
+	 */
+	private final FileChannel out;
+	/**
+	 * the encoder
+	 */
+	private final CharsetEncoder encoder;
+	/**
+	 * the byte order mark which is written first
+	 */
+	private final byte[] bom;
+	/**
+	 * the line separator which replaces "\n" or null if "\n" is written as it
+	 * is
+	 */
+	private final CharBuffer lineSeparator;
+	/**
+	 * the file the text was loaded from or last saved to or null
+	 */
+	private final FileChannel source;
+	/**
+	 * the layout of the source file or null
+	 */
+	private final FileLayout sourceLayout;
+	/**
+	 * the layout of the written file
+	 */
+	private final FileLayout layout;
+	/**
+	 * the encoded bytes which are not written yet
+	 */
+	private final ByteBuffer bytes = ByteBuffer.allocateDirect(1 << 16);
+	/**
+	 * a high surrogate which was at the end of the last encoded chars and waits
+	 * for its low surrogate
+	 */
+	private final CharBuffer carry = CharBuffer.allocate(2);
+	/**
+	 * the number of bytes written to the channel
+	 */
+	private long written = 0;
+
+	/**
+	 * constructor
+	 *
+	 * @param out          the channel which is written to
+	 * @param encoding     the encoding of the file
+	 * @param lineEnding   the line ending of the file
+	 * @param source       the file the text was loaded from or last saved to or
+	 *                     null if nothing should be copied
+	 * @param sourceLayout the layout of the source file or null. It is only used
+	 *                     if it has the same line ending
+	 */
+	public FileContentWriter(FileChannel out, TextEncoding encoding, LineEnding lineEnding, FileChannel source,
+			FileLayout sourceLayout) {
+		this.out = out;
+		this.encoder = encoding.getCharset().newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.bom = encoding.getBom();
+		this.lineSeparator = lineEnding == LineEnding.LF ? null : CharBuffer.wrap(lineEnding.getSeparator());
+		this.layout = new FileLayout(lineEnding);
+		if (source != null && sourceLayout != null && sourceLayout.getLineEnding() == lineEnding) {
+			this.source = source;
+			this.sourceLayout = sourceLayout;
+		} else {
+			this.source = null;
+			this.sourceLayout = null;
+		}
+	}
+
+	/**
+	 * Writes the whole text of the piece table
+	 *
+	 * @param table the piece table
+	 * @throws IOException
+	 */
+	public void write(PieceTable table) throws IOException {
+		bytes.put(bom);
+		table.forEachPiece(this::writePiece);
+		finishEncoding();
+		drain();
+	}
+
+	/**
+	 * Returns the layout of the written file
+	 *
+	 * @return the layout
+	 */
+	public FileLayout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Writes a piece. The parts which are stored unchanged in the source file are
+	 * copied, the rest is encoded.
+	 *
+	 * @param buffer the buffer the piece points into
+	 * @param added  if the buffer is the add buffer
+	 * @param start  the start of the piece in the buffer
+	 * @param length the length of the piece
+	 * @throws IOException
+	 */
+	private void writePiece(AppendBuffer buffer, boolean added, int start, int length) throws IOException {
+		int pos = start;
+		int end = start + length;
+		if (sourceLayout != null) {
+			for (FileLayout.Span span : sourceLayout.getSpans(added, start, end)) {
+				encode(buffer, added, pos, span.getCharStart());
+				transfer(added, span);
+				pos = span.getCharEnd();
+			}
+		}
+		encode(buffer, added, pos, end);
+	}
+
+	/**
+	 * Encodes the chars from the range and records them as spans of at most
+	 * {@link #SPAN_SIZE} chars in the layout
+	 *
+	 * @param buffer the buffer
+	 * @param added  if the buffer is the add buffer
+	 * @param from   from where (inclusive)
+	 * @param to     to where (exclusive)
+	 * @throws IOException
+	 */
+	private void encode(AppendBuffer buffer, boolean added, int from, int to) throws IOException {
+		while (from < to) {
+			int spanEnd = Math.min(to, from + SPAN_SIZE);
+			boolean clean = carry.position() == 0;
+			long spanStart = position();
+			for (int pos = from; pos < spanEnd;) {
+				CharBuffer chars = buffer.chunkView(pos, spanEnd);
+				pos += chars.remaining();
+				encode(chars);
+			}
+			// a span can only be copied if it starts and ends on a char boundary
+			if (clean && carry.position() == 0) {
+				layout.add(added, from, spanEnd, spanStart, position());
+			}
+			from = spanEnd;
+		}
+	}
+
+	/**
+	 * Encodes the chars and replaces every "\n" with the line separator
+	 *
+	 * @param chars the chars
+	 * @throws IOException
+	 */
+	private void encode(CharBuffer chars) throws IOException {
+		if (lineSeparator != null) {
+			int limit = chars.limit();
+			for (int i = chars.position(); i < limit; i++) {
+				if (chars.get(i) == '\n') {
+					chars.limit(i);
+					encodeChars(chars);
+					chars.limit(limit);
+					chars.position(i + 1);
+					lineSeparator.rewind();
+					encodeChars(lineSeparator);
+				}
+			}
+		}
+		encodeChars(chars);
+	}
+
+	/**
+	 * Encodes the chars. A high surrogate at the end is kept until the next
+	 * chars are encoded.
+	 *
+	 * @param chars the chars
+	 * @throws IOException
+	 */
+	private void encodeChars(CharBuffer chars) throws IOException {
+		while (carry.position() > 0 && chars.hasRemaining()) {
+			carry.put(chars.get());
+			carry.flip();
+			encodeAvailable(carry);
+			carry.compact();
+		}
+		encodeAvailable(chars);
+		if (chars.hasRemaining()) {
+			carry.put(chars);
+		}
+	}
+
+	/**
+	 * Encodes the chars until the encoder needs more input
+	 *
+	 * @param chars the chars
+	 * @throws IOException
+	 */
+	private void encodeAvailable(CharBuffer chars) throws IOException {
+		while (encoder.encode(chars, bytes, false).isOverflow()) {
+			drain();
+		}
+	}
+
+	/**
+	 * Finishes the encoding. A remaining high surrogate is replaced. The encoder
+	 * is reset afterwards, so it can be used again.
+	 *
+	 * @throws IOException
+	 */
+	private void finishEncoding() throws IOException {
+		carry.flip();
+		while (encoder.encode(carry, bytes, true).isOverflow()) {
+			drain();
+		}
+		carry.clear();
+		CoderResult result;
+		while ((result = encoder.flush(bytes)).isOverflow()) {
+			drain();
+		}
+		if (result.isError()) {
+			result.throwException();
+		}
+		encoder.reset();
+	}
+
+	/**
+	 * Copies the bytes of the span from the source file and records the span in
+	 * the layout
+	 *
+	 * @param added if the span is in the add buffer
+	 * @param span  the span
+	 * @throws IOException
+	 */
+	private void transfer(boolean added, FileLayout.Span span) throws IOException {
+		if (carry.position() > 0) {
+			finishEncoding();
+		}
+		drain();
+		long start = written;
+		long count = span.getByteEnd() - span.getByteStart();
+		long transferred = 0;
+		while (transferred < count) {
+			long n = source.transferTo(span.getByteStart() + transferred, count - transferred, out);
+			if (n <= 0) {
+				throw new IOException("The source file is shorter than expected");
+			}
+			transferred += n;
+		}
+		written += count;
+		layout.add(added, span.getCharStart(), span.getCharEnd(), start, written);
+	}
+
+	/**
+	 * Writes the encoded bytes to the channel
+	 *
+	 * @throws IOException
+	 */
+	private void drain() throws IOException {
+		bytes.flip();
+		while (bytes.hasRemaining()) {
+			written += out.write(bytes);
+		}
+		bytes.clear();
+	}
+
+	/**
+	 * Returns the position in the written file including the bytes which are
+	 * not written yet
+	 *
+	 * @return the position
+	 */
+	private long position() {
+		return written + bytes.position();
+	}
+}
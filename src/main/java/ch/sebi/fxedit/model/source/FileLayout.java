@@ -0,0 +1,174 @@
+package ch.sebi.fxedit.model.source;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Describes where the text of the buffers of a {@link PieceTable} is stored
+ * unchanged in a file. A span maps a char range of a buffer to the byte range
+ * of the file which encodes exactly these chars, so the bytes can be copied
+ * instead of encoding the chars again. The file uses the line ending of the
+ * layout, a "\n" of a span is stored as this line ending in the file.
+ *
+ * @author sebi
+ *
+ */
+public class FileLayout {
+	/**
+	 * the line ending of the file
+	 */
+	private final LineEnding lineEnding;
+	/**
+	 * the spans of the original buffer by their first char
+	 */
+	private final NavigableMap<Integer, Span> originalSpans = new TreeMap<>();
+	/**
+	 * the spans of the add buffer by their first char
+	 */
+	private final NavigableMap<Integer, Span> addedSpans = new TreeMap<>();
+
+	/**
+	 * constructor
+	 *
+	 * @param lineEnding the line ending of the file
+	 */
+	public FileLayout(LineEnding lineEnding) {
+		this.lineEnding = lineEnding;
+	}
+
+	/**
+	 * Returns the line ending of the file
+	 *
+	 * @return the line ending
+	 */
+	public LineEnding getLineEnding() {
+		return lineEnding;
+	}
+
+	/**
+	 * Adds a span. Spans which overlap an already added span are ignored.
+	 *
+	 * @param added     if the span is in the add buffer or in the original buffer
+	 * @param charStart the first char of the span in the buffer
+	 * @param charEnd   the end of the span in the buffer (exclusive)
+	 * @param byteStart the offset of the first byte in the file
+	 * @param byteEnd   the end of the bytes in the file (exclusive)
+	 */
+	public void add(boolean added, int charStart, int charEnd, long byteStart, long byteEnd) {
+		if (charStart >= charEnd) {
+			return;
+		}
+		NavigableMap<Integer, Span> spans = spans(added);
+		Map.Entry<Integer, Span> before = spans.lowerEntry(charEnd);
+		if (before != null && before.getValue().charEnd > charStart) {
+			return;
+		}
+		spans.put(charStart, new Span(charStart, charEnd, byteStart, byteEnd));
+	}
+
+	/**
+	 * Returns the spans which are completely inside of the given char range of a
+	 * buffer, ordered by their position
+	 *
+	 * @param added if the range is in the add buffer or in the original buffer
+	 * @param from  from where (inclusive)
+	 * @param to    to where (exclusive)
+	 * @return the spans
+	 */
+	public Collection<Span> getSpans(boolean added, int from, int to) {
+		NavigableMap<Integer, Span> spans = spans(added).subMap(from, true, to, false);
+		Map.Entry<Integer, Span> last = spans.lastEntry();
+		if (last != null && last.getValue().charEnd > to) {
+			spans = spans.headMap(last.getKey(), false);
+		}
+		return spans.values();
+	}
+
+	/**
+	 * Returns the spans of the given buffer
+	 *
+	 * @param added if the add buffer or the original buffer
+	 * @return the spans by their first char
+	 */
+	private NavigableMap<Integer, Span> spans(boolean added) {
+		return added ? addedSpans : originalSpans;
+	}
+
+	/**
+	 * A char range of a buffer which is stored unchanged in the file
+	 *
+	 * @author sebi
+	 *
+	 */
+	public static final class Span {
+		/**
+		 * the first char in the buffer
+		 */
+		private final int charStart;
+		/**
+		 * the end in the buffer (exclusive)
+		 */
+		private final int charEnd;
+		/**
+		 * the offset of the first byte in the file
+		 */
+		private final long byteStart;
+		/**
+		 * the end in the file (exclusive)
+		 */
+		private final long byteEnd;
+
+		/**
+		 * constructor
+		 *
+		 * @param charStart the first char in the buffer
+		 * @param charEnd   the end in the buffer (exclusive)
+		 * @param byteStart the offset of the first byte in the file
+		 * @param byteEnd   the end in the file (exclusive)
+		 */
+		private Span(int charStart, int charEnd, long byteStart, long byteEnd) {
+			this.charStart = charStart;
+			this.charEnd = charEnd;
+			this.byteStart = byteStart;
+			this.byteEnd = byteEnd;
+		}
+
+		/**
+		 * Returns the first char in the buffer
+		 *
+		 * @return the first char
+		 */
+		public int getCharStart() {
+			return charStart;
+		}
+
+		/**
+		 * Returns the end in the buffer (exclusive)
+		 *
+		 * @return the end
+		 */
+		public int getCharEnd() {
+			return charEnd;
+		}
+
+		/**
+		 * Returns the offset of the first byte in the file
+		 *
+		 * @return the first byte
+		 */
+		public long getByteStart() {
+			return byteStart;
+		}
+
+		/**
+		 * Returns the end in the file (exclusive)
+		 *
+		 * @return the end
+		 */
+		public long getByteEnd() {
+			return byteEnd;
+		}
+	}
+}
@@ -1,10 +1,22 @@
 package ch.sebi.fxedit.model.source;
 
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -12,13 +24,16 @@ import org.apache.logging.log4j.Logger;
 import ch.sebi.fxedit.exception.FactoryNotFoundException;
 import ch.sebi.fxedit.exception.FailedObjectCreationException;
 import ch.sebi.fxedit.runtime.JsRuntime;
+import ch.sebi.fxedit.runtime.reflection.annotation.JsBinding;
 import ch.sebi.fxedit.runtime.reflection.annotation.JsConstructor;
 import ch.sebi.fxedit.runtime.reflection.annotation.JsId;
 import ch.sebi.fxedit.runtime.reflection.annotation.JsObject;
 import ch.sebi.fxedit.runtime.reflection.annotation.JsVar;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
 
 @JsObject
-public class FileTextBufferSource implements TextBufferSource {
+public class FileTextBufferSource extends PieceTableBufferSource implements Closeable {
 	private Logger logger = LogManager.getLogger();
 
 	
@@ -29,65 +44,534 @@ public class FileTextBufferSource implements TextBufferSource {
 	private String path;
 
 	/**
-	 * the content
+	 * the encoding of the file. It is detected when the source is created
 	 */
-	private String content = null;
+	private TextEncoding encoding = TextEncoding.DEFAULT;
+
+	/**
+	 * the name of the encoding of the file, for example "UTF-8" or "UTF-16LE BOM"
+	 */
+	@JsVar
+	private String charset;
+
+	/**
+	 * the line ending of the file when it was opened. The text of the source
+	 * always uses "\n"
+	 */
+	private LineEnding fileLineEnding = LineEnding.platform();
+
+	/**
+	 * the line ending which is used when the file is saved ("LF", "CRLF" or
+	 * "CR"). It is initialized with the line ending of the file
+	 */
+	@JsBinding(type = String.class)
+	private StringProperty lineEnding = new SimpleStringProperty();
+
+	/**
+	 * if the file is too big to be loaded onto the heap. Such a file is mapped
+	 * into memory and opened read-only
+	 */
+	private boolean largeFile;
+
+	/**
+	 * the mapped content of a large file or null if it isn't mapped yet
+	 */
+	private MappedFileContent mappedContent = null;
+
+	/**
+	 * if the user was already warned that the large file is truncated
+	 */
+	private boolean truncationReported = false;
+
+	/**
+	 * where the text of the buffers is stored unchanged in the file or null. It
+	 * is set by the loader and after each save
+	 */
+	private FileLayout layout = null;
+
+	/**
+	 * the attributes of the file when {@link #layout} was recorded. The layout is
+	 * only used if the file still has the same size and modification time
+	 */
+	private BasicFileAttributes layoutAttributes = null;
+
+	/**
+	 * the number of bytes which are read at once while loading
+	 */
+	private static final int LOAD_CHUNK_SIZE = 1 << 16;
+
+	/**
+	 * the journal of the unsaved edits or null if there wasn't an edit yet
+	 */
+	private SwapJournal swapJournal = null;
 
 	@JsConstructor
 	private FileTextBufferSource(String path) {
 		this.path = path;
+		this.largeFile = new File(path).length() > getLargeFileThreshold();
+		detectEncoding();
+		this.charset = encoding.toString();
+		this.lineEnding.set(fileLineEnding.name());
+		addTextChangeListener(this::recordChange);
 	}
 
-	private void loadContent() throws IOException {
+	/**
+	 * Detects the encoding and the line ending of the file from its first bytes
+	 */
+	private void detectEncoding() {
+		File file = new File(path);
+		if (!file.exists()) {
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer sample = ByteBuffer.allocate(TextEncoding.SAMPLE_SIZE);
+			while (sample.hasRemaining() && channel.read(sample) != -1) {
+			}
+			sample.flip();
+			encoding = TextEncoding.detect(sample, channel.size() <= TextEncoding.SAMPLE_SIZE);
+			sample.position(Math.min(encoding.getBomLength(), sample.limit()));
+			LineEnding detected = LineEnding.detect(encoding.getCharset().decode(sample));
+			if (detected != null) {
+				fileLineEnding = detected;
+			}
+			logger.debug("Detected " + encoding + " with " + fileLineEnding + " line endings in \"" + path + "\"");
+		} catch (IOException e) {
+			logger.warn("Couldn't detect the encoding of \"" + path + "\", " + encoding + " is used", e);
+		}
+	}
+
+	/**
+	 * Returns the encoding of the file
+	 * 
+	 * @return the encoding
+	 */
+	public TextEncoding getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * Returns the line ending which is used when the file is saved
+	 * 
+	 * @return the line ending
+	 */
+	public LineEnding getLineEnding() {
+		LineEnding value = LineEnding.forName(lineEnding.get());
+		return value == null ? fileLineEnding : value;
+	}
+
+	/**
+	 * Sets the line ending which is used when the file is saved
+	 * 
+	 * @param lineEnding the line ending
+	 */
+	public void setLineEnding(LineEnding lineEnding) {
+		this.lineEnding.set(lineEnding.name());
+	}
+
+	/**
+	 * Returns the line ending property. It contains the name of a
+	 * {@link LineEnding}
+	 * 
+	 * @return the line ending property
+	 */
+	public StringProperty lineEndingProperty() {
+		return lineEnding;
+	}
+
+	/**
+	 * Records a change in the swap journal, so it can be recovered after a crash
+	 * 
+	 * @param source        the source
+	 * @param from          the position of the change
+	 * @param removedLength the number of removed chars
+	 * @param insertedText  the inserted text
+	 */
+	private void recordChange(TextBufferSource source, int from, int removedLength, String insertedText) {
+		if (swapJournal == null) {
+			swapJournal = new SwapJournal(new File(path).toPath(), layoutAttributes);
+		}
+		swapJournal.recordEdit(from, removedLength, insertedText);
+		try {
+			if (swapJournal.needsCompaction(length())) {
+				swapJournal.compact(snapshot());
+			}
+		} catch (Exception e) {
+			logger.error("Couldn't compact the swap journal of \"" + path + "\"", e);
+		}
+	}
+
+	/**
+	 * Returns the size in bytes above which a file is opened in the read-only
+	 * large file mode. A loaded file needs about two bytes per byte on the heap
+	 * (plus the edits), so files which would take more than half of the heap are
+	 * mapped instead.
+	 * 
+	 * @return the threshold in bytes
+	 */
+	private static long getLargeFileThreshold() {
+		return Runtime.getRuntime().maxMemory() / 4;
+	}
+
+	/**
+	 * Returns the mapped content of the large file and maps it if necessary
+	 * 
+	 * @return the mapped content
+	 * @throws IOException
+	 */
+	private synchronized MappedFileContent getMappedContent() throws IOException {
+		if (mappedContent == null) {
+			logger.info("Map large file \"" + path + "\" read-only");
+			mappedContent = new MappedFileContent(new File(path).toPath(), encoding);
+		}
+		return mappedContent;
+	}
+
+	@Override
+	protected void loadContent(AppendBuffer original) throws IOException {
 		File file = new File(path);
 		if(!file.exists()) file.createNewFile();
-		BufferedReader reader = new BufferedReader(new FileReader(file));
-		content = "";
+		Path filePath = file.toPath();
+		BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+		LineEnding lineEnding = fileLineEnding;
+		FileLayout layout = new FileLayout(lineEnding);
+		CharsetDecoder decoder = encoding.getCharset().newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		ByteBuffer in = ByteBuffer.allocate(LOAD_CHUNK_SIZE);
+		CharBuffer out = CharBuffer.allocate(LOAD_CHUNK_SIZE);
+		boolean lastWasCarriageReturn = false;
+		long bytePos = Math.min(encoding.getBomLength(), attributes.size());
+		try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+			channel.position(bytePos);
+			boolean endOfInput = false;
+			while (!endOfInput) {
+				endOfInput = channel.read(in) == -1;
+				in.flip();
+				CoderResult result;
+				do {
+					int inStart = in.position();
+					// a block is stored unchanged in the file if it didn't need any replacements
+					// and all its line endings are the line ending of the file
+					boolean unchanged = !lastWasCarriageReturn;
+					result = decoder.decode(in, out, endOfInput);
+					if (result.isError() && out.hasRemaining()) {
+						// replaces the malformed input like CodingErrorAction.REPLACE
+						out.put(decoder.replacement());
+						in.position(in.position() + result.length());
+						unchanged = false;
+					}
+					if (endOfInput && result.isUnderflow()) {
+						decoder.flush(out);
+					}
+					// normalizes "\r\n" and "\r" to "\n"
+					char[] buf = out.array();
+					int length = 0;
+					for (int i = 0; i < out.position(); i++) {
+						char c = buf[i];
+						if (lastWasCarriageReturn) {
+							lastWasCarriageReturn = false;
+							if (c == '\n') {
+								unchanged &= lineEnding == LineEnding.CRLF;
+								continue;
+							}
+							unchanged &= lineEnding == LineEnding.CR;
+						}
+						if (c == '\r') {
+							lastWasCarriageReturn = true;
+							c = '\n';
+						} else if (c == '\n') {
+							unchanged &= lineEnding == LineEnding.LF;
+						}
+						buf[length++] = c;
+					}
+					// the kind of a "\r" at the end is only known with the next block
+					unchanged &= !lastWasCarriageReturn;
+					int charStart = original.append(buf, 0, length);
+					long byteEnd = bytePos + in.position() - inStart;
+					if (unchanged) {
+						layout.add(false, charStart, charStart + length, bytePos, byteEnd);
+					}
+					bytePos = byteEnd;
+					out.clear();
+				} while (!result.isUnderflow());
+				in.compact();
+			}
+		}
+		this.layout = layout;
+		this.layoutAttributes = attributes;
+		logger.info("Loaded " + original.length() + " chars from file \"" + path + "\"");
+	}
+
+	/**
+	 * Returns if the file is still the one described by {@link #layout}
+	 * 
+	 * @param file the file
+	 * @return if the file wasn't changed by someone else
+	 */
+	private boolean isLayoutValid(Path file) {
+		if (layout == null || layoutAttributes == null) {
+			return false;
+		}
 		try {
-			String input;
-			while ((input = reader.readLine()) != null) {
-				content += input + "\n";
+			BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			return attributes.size() == layoutAttributes.size()
+					&& attributes.lastModifiedTime().equals(layoutAttributes.lastModifiedTime());
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean doneLoading() {
+		if (largeFile) {
+			try {
+				return getMappedContent().isIndexed();
+			} catch (IOException e) {
+				logger.error("Couldn't map the large file \"" + path + "\"", e);
+				return true;
 			}
-		} finally {
-			reader.close();
 		}
+		return super.doneLoading();
 	}
 
 	@Override
 	public String getText(int from, int to) throws Exception {
-		if (content == null)
-			loadContent();
-		return content.substring(from, to);
+		if (largeFile) {
+			return getMappedContent().getText(from, to);
+		}
+		return super.getText(from, to);
+	}
+
+	@Override
+	public String getText() throws Exception {
+		if (largeFile) {
+			MappedFileContent content = getMappedContent();
+			return content.getText(0, content.awaitIndexed());
+		}
+		return super.getText();
 	}
 
 	@Override
 	public int length() throws Exception {
-		if (content == null)
-			loadContent();
-		return content.length();
+		if (largeFile) {
+			MappedFileContent content = getMappedContent();
+			int length = content.length();
+			if (content.isTruncated() && !truncationReported) {
+				truncationReported = true;
+				logger.warn("The file \"" + path + "\" is too big, only the first " + length + " chars are available");
+			}
+			return length;
+		}
+		return super.length();
+	}
+
+	@Override
+	public TextSnapshot snapshot() throws Exception {
+		if (largeFile) {
+			return getMappedContent();
+		}
+		return super.snapshot();
+	}
+
+	@Override
+	public int lineCount() throws Exception {
+		if (largeFile) {
+			return getMappedContent().lineCount();
+		}
+		return super.lineCount();
+	}
+
+	@Override
+	public int lineStart(int line) throws Exception {
+		if (largeFile) {
+			return getMappedContent().lineStart(line);
+		}
+		return super.lineStart(line);
+	}
+
+	@Override
+	public int lineOf(int offset) throws Exception {
+		if (largeFile) {
+			return getMappedContent().lineOf(offset);
+		}
+		return super.lineOf(offset);
 	}
 
 	@Override
 	public void setText(int from, int to, String text) throws Exception {
-		String startStr = content.substring(0, from);
-		String endStr = content.substring(to, length());
-		content = startStr + text + endStr;
+		if (largeFile) {
+			throw new UnsupportedOperationException("The large file \"" + path + "\" is opened read-only");
+		}
+		super.setText(from, to, text);
+	}
+
+	@Override
+	public void setText(String text) throws Exception {
+		if (largeFile) {
+			throw new UnsupportedOperationException("The large file \"" + path + "\" is opened read-only");
+		}
+		super.setText(text);
+	}
+
+	@Override
+	public boolean undo() throws Exception {
+		if (largeFile) {
+			return false;
+		}
+		return super.undo();
+	}
+
+	@Override
+	public boolean redo() throws Exception {
+		if (largeFile) {
+			return false;
+		}
+		return super.redo();
+	}
+
+	@Override
+	public boolean isReadonly() {
+		return largeFile;
 	}
 
 	@Override
 	public void save() throws Exception {
+		if (largeFile) {
+			throw new UnsupportedOperationException("The large file \"" + path + "\" is opened read-only");
+		}
+		PieceTable content = getContent().snapshot();
+		Path file = new File(path).toPath().toAbsolutePath();
+		if (Files.exists(file)) {
+			// a link is followed, so the file it points to is replaced and not the link
+			file = file.toRealPath();
+		}
+		Path temp = Files.createTempFile(file.getParent(), "." + file.getFileName(), ".tmp");
+		FileLayout newLayout;
+		try {
+			copyAttributes(file, temp);
+			boolean copy = isLayoutValid(file);
+			try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE);
+					FileChannel source = copy ? FileChannel.open(file, StandardOpenOption.READ) : null) {
+				FileContentWriter writer = new FileContentWriter(out, encoding, getLineEnding(), source,
+						copy ? layout : null);
+				writer.write(content);
+				out.force(true);
+				newLayout = writer.getLayout();
+			}
+			if (hasHardLinks(file)) {
+				// replacing the file would separate it from its other names
+				copyInPlace(temp, file);
+				Files.delete(temp);
+			} else {
+				try {
+					Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				} catch (AtomicMoveNotSupportedException e) {
+					logger.warn("The file system doesn't support atomic moves, \"" + path
+							+ "\" is replaced non-atomically");
+					Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		forceDirectory(file.getParent());
+		layout = newLayout;
+		layoutAttributes = Files.readAttributes(file, BasicFileAttributes.class);
+		if (swapJournal != null) {
+			swapJournal.discard(layoutAttributes);
+		}
 		logger.info("Saved content to file \"" + path + "\"");
-		File file = new File(path);
-		if (!file.exists()) {
-			file.createNewFile();
+	}
+
+	/**
+	 * Stops indexing a large file and closes the swap journal. The source is
+	 * closed when it is removed from the object pool. Edits which weren't saved
+	 * stay in the journal on purpose, so they are offered to be recovered the
+	 * next time FXEdit starts. A saved source has no journal file.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (mappedContent != null) {
+			mappedContent.close();
+		}
+		if (swapJournal != null) {
+			swapJournal.close();
+			swapJournal = null;
+		}
+	}
+
+	/**
+	 * Copies the posix permissions, the owner and the group of the file to the
+	 * temp file which replaces it. Nothing happens if the file doesn't exist or
+	 * the file system doesn't know posix attributes. Changing the owner usually
+	 * needs more rights, so it is only tried if the owner is someone else.
+	 * 
+	 * @param file the file
+	 * @param temp the temp file
+	 */
+	private void copyAttributes(Path file, Path temp) {
+		try {
+			PosixFileAttributes attributes = Files.readAttributes(file, PosixFileAttributes.class);
+			PosixFileAttributeView view = Files.getFileAttributeView(temp, PosixFileAttributeView.class);
+			if (!attributes.group().equals(Files.readAttributes(temp, PosixFileAttributes.class).group())) {
+				view.setGroup(attributes.group());
+			}
+			if (!attributes.owner().equals(Files.getOwner(temp))) {
+				view.setOwner(attributes.owner());
+			}
+			view.setPermissions(attributes.permissions());
+		} catch (IOException | UnsupportedOperationException e) {
+			logger.debug("Couldn't copy the attributes of \"" + file + "\"", e);
 		}
+	}
 
-		PrintWriter writter = new PrintWriter(file);
+	/**
+	 * Returns if the file has more than one name (hard link)
+	 * 
+	 * @param file the file
+	 * @return if the file has other names
+	 */
+	private static boolean hasHardLinks(Path file) {
 		try {
-			writter.println(content);
-			writter.flush();
-		} finally {
-			writter.close();
+			return ((Number) Files.getAttribute(file, "unix:nlink")).intValue() > 1;
+		} catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Overwrites the content of the file with the content of the temp file. The
+	 * file itself (and all its names and attributes) is kept, but unlike a move
+	 * it isn't atomic.
+	 * 
+	 * @param temp the temp file
+	 * @param file the file
+	 * @throws IOException
+	 */
+	private static void copyInPlace(Path temp, Path file) throws IOException {
+		try (FileChannel in = FileChannel.open(temp, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			long size = in.size();
+			long pos = 0;
+			while (pos < size) {
+				pos += in.transferTo(pos, size - pos, out);
+			}
+			out.force(true);
+		}
+	}
+
+	/**
+	 * Forces the directory entries to the disk, so a move survives a crash. This
+	 * isn't supported on every platform, errors are ignored.
+	 * 
+	 * @param dir the directory
+	 */
+	private void forceDirectory(Path dir) {
+		try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			logger.debug("Couldn't force the directory \"" + dir + "\"", e);
 		}
 	}
 
@@ -0,0 +1,113 @@
+package ch.sebi.fxedit.model.source;
+
+/**
+ * The line ending style of a file. The text of a source always uses "\n", the
+ * line ending of the file is only used when it is loaded and saved.
+ *
+ * @author sebi
+ *
+ */
+public enum LineEnding {
+	/**
+	 * "\n" (unix)
+	 */
+	LF("\n"),
+	/**
+	 * "\r\n" (windows)
+	 */
+	CRLF("\r\n"),
+	/**
+	 * "\r" (classic mac os)
+	 */
+	CR("\r");
+
+	/**
+	 * the line separator
+	 */
+	private final String separator;
+
+	/**
+	 * constructor
+	 *
+	 * @param separator the line separator
+	 */
+	private LineEnding(String separator) {
+		this.separator = separator;
+	}
+
+	/**
+	 * Returns the line separator
+	 *
+	 * @return the separator
+	 */
+	public String getSeparator() {
+		return separator;
+	}
+
+	/**
+	 * Returns the line ending of the platform
+	 *
+	 * @return the line ending
+	 */
+	public static LineEnding platform() {
+		for (LineEnding lineEnding : values()) {
+			if (lineEnding.separator.equals(System.lineSeparator())) {
+				return lineEnding;
+			}
+		}
+		return LF;
+	}
+
+	/**
+	 * Returns the line ending which is used most often in the text. A "\r" at the
+	 * end of the text is ignored, because it may be followed by a "\n" which
+	 * isn't part of the text.
+	 *
+	 * @param text the text, for example the start of a file
+	 * @return the line ending or null if the text doesn't contain a line ending
+	 */
+	public static LineEnding detect(CharSequence text) {
+		int lf = 0;
+		int crlf = 0;
+		int cr = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\n') {
+				lf++;
+			} else if (c == '\r' && i + 1 < text.length()) {
+				if (text.charAt(i + 1) == '\n') {
+					crlf++;
+					i++;
+				} else {
+					cr++;
+				}
+			}
+		}
+		if (lf == 0 && crlf == 0 && cr == 0) {
+			return null;
+		}
+		if (lf >= crlf && lf >= cr) {
+			return LF;
+		}
+		return crlf >= cr ? CRLF : CR;
+	}
+
+	/**
+	 * Returns the line ending with the given name. The name is not case
+	 * sensitive.
+	 *
+	 * @param name the name ("LF", "CRLF" or "CR")
+	 * @return the line ending or null if there is no line ending with the name
+	 */
+	public static LineEnding forName(String name) {
+		if (name == null) {
+			return null;
+		}
+		for (LineEnding lineEnding : values()) {
+			if (lineEnding.name().equalsIgnoreCase(name)) {
+				return lineEnding;
+			}
+		}
+		return null;
+	}
+}
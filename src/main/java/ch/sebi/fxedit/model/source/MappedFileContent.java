@@ -0,0 +1,616 @@
+package ch.sebi.fxedit.model.source;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The read-only content of a file which is mapped into memory. Nothing is read
+ * when the file is opened: text is decoded on demand and the char offsets and
+ * line feeds are indexed in blocks on a background thread, so the file can be
+ * bigger than the heap. Until the whole file is indexed, {@link #length()} and
+ * {@link #lineCount()} return the indexed part and grow like the text of a
+ * loading source. A range after the indexed part is indexed when it is
+ * read.<br>
+ * The line endings "\r\n" and "\r" are normalized to "\n" like when a file is
+ * loaded, so the offsets and lines are the same in both modes.<br>
+ * The content never changes once it is indexed, so it is its own snapshot.
+ *
+ * @author sebi
+ *
+ */
+public class MappedFileContent implements TextSnapshot {
+	/**
+	 * the size of a mapped segment (a single mapping can't be bigger than 2GB)
+	 */
+	private static final long SEGMENT_SIZE = 1L << 30;
+	/**
+	 * the number of bytes a segment overlaps the next one. This allows the
+	 * decoder to finish a char which starts at the end of a segment
+	 */
+	private static final int SEGMENT_OVERLAP = 64;
+	/**
+	 * the number of bytes between two checkpoints of the index
+	 */
+	private static final int CHECKPOINT_INTERVAL = 1 << 16;
+
+	/**
+	 * logger
+	 */
+	private Logger logger = LogManager.getLogger();
+
+	/**
+	 * the mapped segments
+	 */
+	private final MappedByteBuffer[] segments;
+	/**
+	 * the size of the file in bytes
+	 */
+	private final long size;
+	/**
+	 * the charset of the file
+	 */
+	private final Charset charset;
+
+	/**
+	 * the byte offsets of the checkpoints. Every checkpoint is on a char boundary
+	 */
+	private long[] checkpointBytes = new long[64];
+	/**
+	 * the char offsets of the checkpoints
+	 */
+	private int[] checkpointChars = new int[64];
+	/**
+	 * the number of line feeds before the checkpoints
+	 */
+	private int[] checkpointLines = new int[64];
+	/**
+	 * if the char before the checkpoints is a "\r". A "\n" directly after such a
+	 * checkpoint belongs to the line ending before it and is skipped
+	 */
+	private boolean[] checkpointCarriageReturns = new boolean[64];
+	/**
+	 * the number of checkpoints
+	 */
+	private int checkpoints = 1;
+	/**
+	 * the buffer the decoded chars are written to while a reader indexes
+	 */
+	private final CharBuffer indexBuffer = CharBuffer.allocate(8192);
+	/**
+	 * if the whole file is indexed
+	 */
+	private volatile boolean indexed = false;
+	/**
+	 * if the indexer should stop
+	 */
+	private volatile boolean closed = false;
+	/**
+	 * if the file has more chars than an int can address and only the first
+	 * part is available
+	 */
+	private boolean truncated = false;
+
+	/**
+	 * Maps the given file
+	 *
+	 * @param path     the path of the file
+	 * @param encoding the encoding of the file. It has to be a stateless charset
+	 *                 like UTF-8. A byte order mark is skipped
+	 * @throws IOException
+	 */
+	public MappedFileContent(Path path, TextEncoding encoding) throws IOException {
+		this.charset = encoding.getCharset();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			size = channel.size();
+			int count = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+			segments = new MappedByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				long start = i * SEGMENT_SIZE;
+				long length = Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, size - start);
+				segments[i] = channel.map(MapMode.READ_ONLY, start, length);
+			}
+		}
+		checkpointBytes[0] = Math.min(encoding.getBomLength(), size);
+		if (checkpointBytes[0] == size) {
+			indexed = true;
+			return;
+		}
+		Thread indexer = new Thread(this::indexAll, "fxedit-indexer");
+		indexer.setDaemon(true);
+		indexer.start();
+	}
+
+	/**
+	 * Returns the number of chars which are indexed so far. It is the length of
+	 * the file once {@link #isIndexed()} returns true.
+	 *
+	 * @return the length
+	 */
+	@Override
+	public synchronized int length() {
+		return checkpointChars[checkpoints - 1];
+	}
+
+	/**
+	 * Returns the number of lines which are indexed so far. It is the number of
+	 * lines of the file once {@link #isIndexed()} returns true.
+	 *
+	 * @return the number of lines
+	 */
+	@Override
+	public synchronized int lineCount() {
+		return checkpointLines[checkpoints - 1] + 1;
+	}
+
+	/**
+	 * Returns if the whole file is indexed
+	 *
+	 * @return if the length and the line count are final
+	 */
+	public boolean isIndexed() {
+		return indexed;
+	}
+
+	/**
+	 * Indexes the rest of the file on the calling thread
+	 *
+	 * @return the length of the file
+	 */
+	public synchronized int awaitIndexed() {
+		while (indexNext()) {
+		}
+		return length();
+	}
+
+	/**
+	 * Stops the background indexing. The content can still be read, the rest
+	 * of the file is indexed on demand.
+	 */
+	public void close() {
+		closed = true;
+	}
+
+	/**
+	 * Returns the offset at which the given line starts. Only the file up to the
+	 * line is indexed.
+	 *
+	 * @param line the line (0 is the first line)
+	 * @return the offset
+	 */
+	@Override
+	public int lineStart(int line) {
+		if (line == 0) {
+			return 0;
+		}
+		int blockStart;
+		int blockEnd;
+		int remaining;
+		synchronized (this) {
+			while (checkpointLines[checkpoints - 1] < line && indexNext()) {
+			}
+			if (line < 0 || checkpointLines[checkpoints - 1] < line) {
+				throw new IndexOutOfBoundsException("line: " + line + ", line count: " + lineCount());
+			}
+			// the first checkpoint after the line feed which ends the previous line
+			int checkpoint = Arrays.binarySearch(checkpointLines, 0, checkpoints, line);
+			if (checkpoint < 0) {
+				checkpoint = -checkpoint - 1;
+			} else {
+				while (checkpoint > 0 && checkpointLines[checkpoint - 1] == line) {
+					checkpoint--;
+				}
+			}
+			// the line feed is in the block before the checkpoint
+			blockStart = checkpointChars[checkpoint - 1];
+			blockEnd = checkpointChars[checkpoint];
+			remaining = line - checkpointLines[checkpoint - 1];
+		}
+		String block = getText(blockStart, blockEnd);
+		for (int i = 0; i < block.length(); i++) {
+			if (block.charAt(i) == '\n' && --remaining == 0) {
+				return blockStart + i + 1;
+			}
+		}
+		throw new IllegalStateException("Line index is inconsistent");
+	}
+
+	/**
+	 * Returns the line which contains the given offset. Only the file up to the
+	 * offset is indexed.
+	 *
+	 * @param offset the offset (the length of the text is allowed too)
+	 * @return the line (0 is the first line)
+	 */
+	@Override
+	public int lineOf(int offset) {
+		int blockStart;
+		int line;
+		synchronized (this) {
+			while (checkpointChars[checkpoints - 1] < offset && indexNext()) {
+			}
+			int checkpoint = findCheckpoint(offset);
+			blockStart = checkpointChars[checkpoint];
+			line = checkpointLines[checkpoint];
+		}
+		String text = getText(blockStart, offset);
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == '\n') {
+				line++;
+			}
+		}
+		return line;
+	}
+
+	@Override
+	public long getVersion() {
+		return 0;
+	}
+
+	/**
+	 * Returns if the file has more chars than can be addressed. In this case only
+	 * the first {@link #length()} chars are available
+	 *
+	 * @return if the content is truncated
+	 */
+	public synchronized boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * Returns the text portion from the range. Only the blocks which contain the
+	 * range are decoded.
+	 *
+	 * @param from from where (inclusive)
+	 * @param to   to where (exclusive)
+	 * @return the text
+	 */
+	@Override
+	public String getText(int from, int to) {
+		long bytePos;
+		int charPos;
+		boolean carriageReturn;
+		synchronized (this) {
+			while (checkpointChars[checkpoints - 1] < to && indexNext()) {
+			}
+			int length = checkpointChars[checkpoints - 1];
+			if (from < 0 || to > length || from > to) {
+				throw new IndexOutOfBoundsException("range: [" + from + ", " + to + "), length: " + length);
+			}
+			int checkpoint = findCheckpoint(from);
+			bytePos = checkpointBytes[checkpoint];
+			charPos = checkpointChars[checkpoint];
+			carriageReturn = checkpointCarriageReturns[checkpoint];
+		}
+		char[] dst = new char[to - from];
+		decode(bytePos, charPos, carriageReturn, from, to, dst);
+		return new String(dst);
+	}
+
+	/**
+	 * Returns the index of the last checkpoint which is at or before the given
+	 * char offset
+	 *
+	 * @param charOffset the char offset
+	 * @return the index of the checkpoint
+	 */
+	private int findCheckpoint(int charOffset) {
+		int index = Arrays.binarySearch(checkpointChars, 0, checkpoints, charOffset);
+		if (index < 0) {
+			return -index - 2;
+		}
+		// there may be multiple checkpoints with the same offset, take the last one
+		while (index + 1 < checkpoints && checkpointChars[index + 1] == charOffset) {
+			index++;
+		}
+		return index;
+	}
+
+	/**
+	 * Indexes the file block by block on the background thread. A block is
+	 * decoded without holding the lock, so the file can be read in the
+	 * meantime.
+	 */
+	private void indexAll() {
+		CharBuffer buffer = CharBuffer.allocate(8192);
+		try {
+			while (!closed) {
+				Checkpoint next;
+				int count;
+				synchronized (this) {
+					if (indexed) {
+						return;
+					}
+					count = checkpoints;
+					next = lastCheckpoint();
+				}
+				scanBlock(next, buffer);
+				synchronized (this) {
+					// otherwise a reader indexed the block in the meantime
+					if (checkpoints == count) {
+						addCheckpoint(next);
+					}
+				}
+			}
+		} catch (RuntimeException | InternalError e) {
+			// for example if the file was shortened by someone else. Only the indexed
+			// part is available
+			logger.error("Couldn't index the mapped file", e);
+			synchronized (this) {
+				truncated = true;
+				indexed = true;
+			}
+		}
+	}
+
+	/**
+	 * Indexes the next block of the file. The lock has to be held.
+	 *
+	 * @return false if the whole file is already indexed
+	 */
+	private boolean indexNext() {
+		if (indexed) {
+			return false;
+		}
+		Checkpoint next = lastCheckpoint();
+		scanBlock(next, indexBuffer);
+		return addCheckpoint(next);
+	}
+
+	/**
+	 * Returns a copy of the last checkpoint. The lock has to be held.
+	 *
+	 * @return the checkpoint
+	 */
+	private Checkpoint lastCheckpoint() {
+		int last = checkpoints - 1;
+		return new Checkpoint(checkpointBytes[last], checkpointChars[last], checkpointLines[last],
+				checkpointCarriageReturns[last]);
+	}
+
+	/**
+	 * Moves the checkpoint over the next block of the file
+	 *
+	 * @param checkpoint the checkpoint which is moved
+	 * @param buffer     the buffer the decoded chars are written to
+	 */
+	private void scanBlock(Checkpoint checkpoint, CharBuffer buffer) {
+		long pos = checkpoint.bytes;
+		long limit = Math.min(Math.min(pos + CHECKPOINT_INTERVAL, segmentEnd(pos)), size);
+		boolean endOfInput = limit == size;
+
+		CharsetDecoder decoder = newDecoder();
+		ByteBuffer in = slice(pos, limit);
+		long chars = checkpoint.chars;
+		int lines = checkpoint.lines;
+		boolean carriageReturn = checkpoint.carriageReturn;
+		CoderResult result;
+		do {
+			result = decoder.decode(in, buffer, endOfInput);
+			if (endOfInput && result.isUnderflow()) {
+				decoder.flush(buffer);
+			}
+			char[] decoded = buffer.array();
+			int decodedLength = buffer.position();
+			boolean endsWithCarriageReturn = decodedLength > 0 ? decoded[decodedLength - 1] == '\r' : carriageReturn;
+			int length = normalizeLineEndings(decoded, decodedLength, carriageReturn);
+			carriageReturn = endsWithCarriageReturn;
+			for (int i = 0; i < length; i++) {
+				if (decoded[i] == '\n') {
+					lines++;
+				}
+			}
+			chars += length;
+			buffer.clear();
+		} while (result.isOverflow());
+		checkpoint.bytes = pos + in.position();
+		checkpoint.chars = chars;
+		checkpoint.lines = lines;
+		checkpoint.carriageReturn = carriageReturn;
+		checkpoint.endOfInput = endOfInput;
+	}
+
+	/**
+	 * Adds a checkpoint to the index. The lock has to be held.
+	 *
+	 * @param checkpoint the checkpoint after the next block
+	 * @return false if the checkpoint is after the last char which can be
+	 *         addressed
+	 */
+	private boolean addCheckpoint(Checkpoint checkpoint) {
+		if (checkpoint.chars > Integer.MAX_VALUE) {
+			truncated = true;
+			indexed = true;
+			return false;
+		}
+		addCheckpoint(checkpoint.bytes, (int) checkpoint.chars, checkpoint.lines, checkpoint.carriageReturn);
+		indexed = checkpoint.endOfInput;
+		return true;
+	}
+
+	/**
+	 * Adds a checkpoint to the index
+	 *
+	 * @param bytes the byte offset
+	 * @param chars the char offset
+	 * @param lines the number of line feeds before the checkpoint
+	 * @param carriageReturn if the char before the checkpoint is a "\r"
+	 */
+	private void addCheckpoint(long bytes, int chars, int lines, boolean carriageReturn) {
+		if (checkpoints == checkpointBytes.length) {
+			checkpointBytes = Arrays.copyOf(checkpointBytes, checkpoints * 2);
+			checkpointChars = Arrays.copyOf(checkpointChars, checkpoints * 2);
+			checkpointLines = Arrays.copyOf(checkpointLines, checkpoints * 2);
+			checkpointCarriageReturns = Arrays.copyOf(checkpointCarriageReturns, checkpoints * 2);
+		}
+		checkpointBytes[checkpoints] = bytes;
+		checkpointChars[checkpoints] = chars;
+		checkpointLines[checkpoints] = lines;
+		checkpointCarriageReturns[checkpoints] = carriageReturn;
+		checkpoints++;
+	}
+
+	/**
+	 * Normalizes "\r\n" and "\r" to "\n" in place
+	 *
+	 * @param buf            the decoded chars
+	 * @param length         the number of decoded chars
+	 * @param carriageReturn if the char before the first one is a "\r"
+	 * @return the number of chars after the normalization
+	 */
+	private static int normalizeLineEndings(char[] buf, int length, boolean carriageReturn) {
+		int normalized = 0;
+		for (int i = 0; i < length; i++) {
+			char c = buf[i];
+			if (carriageReturn) {
+				carriageReturn = false;
+				if (c == '\n') {
+					continue;
+				}
+			}
+			if (c == '\r') {
+				carriageReturn = true;
+				c = '\n';
+			}
+			buf[normalized++] = c;
+		}
+		return normalized;
+	}
+
+	/**
+	 * Decodes the file from the byte offset and copies the chars from the range
+	 * [from, to) into the destination
+	 *
+	 * @param bytePos        the byte offset to start decoding. It has to be on a
+	 *                       char boundary
+	 * @param charPos        the char offset of the byte offset
+	 * @param carriageReturn if the char before the byte offset is a "\r"
+	 * @param from           from where (inclusive)
+	 * @param to             to where (exclusive)
+	 * @param dst            the destination. Index 0 is the char offset from
+	 */
+	private void decode(long bytePos, int charPos, boolean carriageReturn, int from, int to, char[] dst) {
+		CharsetDecoder decoder = newDecoder();
+		CharBuffer out = CharBuffer.allocate(8192);
+		while (charPos < to && bytePos < size) {
+			long limit = Math.min(segmentEnd(bytePos), size);
+			boolean endOfInput = limit == size;
+			ByteBuffer in = slice(bytePos, limit);
+			CoderResult result;
+			do {
+				result = decoder.decode(in, out, endOfInput);
+				if (endOfInput && result.isUnderflow()) {
+					decoder.flush(out);
+				}
+				char[] decoded = out.array();
+				int decodedLength = out.position();
+				boolean endsWithCarriageReturn = decodedLength > 0 ? decoded[decodedLength - 1] == '\r' : carriageReturn;
+				int n = normalizeLineEndings(decoded, decodedLength, carriageReturn);
+				carriageReturn = endsWithCarriageReturn;
+				int start = Math.max(from, charPos);
+				int end = Math.min(to, charPos + n);
+				if (start < end) {
+					System.arraycopy(decoded, start - charPos, dst, start - from, end - start);
+				}
+				charPos += n;
+				out.clear();
+			} while (result.isOverflow() && charPos < to);
+			bytePos += in.position();
+		}
+	}
+
+	/**
+	 * Returns the end (including the overlap) of the segment which contains the
+	 * given byte offset
+	 *
+	 * @param pos the byte offset
+	 * @return the end of the segment
+	 */
+	private static long segmentEnd(long pos) {
+		return (pos / SEGMENT_SIZE + 1) * SEGMENT_SIZE + SEGMENT_OVERLAP;
+	}
+
+	/**
+	 * Returns a buffer with the bytes from the range of the file. The range has
+	 * to be inside of a single segment including its overlap.
+	 *
+	 * @param from from where (inclusive)
+	 * @param to   to where (exclusive)
+	 * @return the buffer
+	 */
+	private ByteBuffer slice(long from, long to) {
+		int segment = (int) (from / SEGMENT_SIZE);
+		ByteBuffer buffer = segments[segment].duplicate();
+		long segmentStart = segment * SEGMENT_SIZE;
+		buffer.limit((int) (to - segmentStart));
+		buffer.position((int) (from - segmentStart));
+		return buffer.slice();
+	}
+
+	/**
+	 * Creates a new decoder which replaces malformed input
+	 *
+	 * @return the decoder
+	 */
+	private CharsetDecoder newDecoder() {
+		return charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * A position in the file at which the index can start decoding
+	 *
+	 * @author sebi
+	 *
+	 */
+	private static final class Checkpoint {
+		/**
+		 * the byte offset
+		 */
+		private long bytes;
+		/**
+		 * the char offset
+		 */
+		private long chars;
+		/**
+		 * the number of line feeds before the checkpoint
+		 */
+		private int lines;
+		/**
+		 * if the char before the checkpoint is a "\r"
+		 */
+		private boolean carriageReturn;
+		/**
+		 * if the checkpoint is at the end of the file
+		 */
+		private boolean endOfInput = false;
+
+		/**
+		 * constructor
+		 *
+		 * @param bytes          the byte offset
+		 * @param chars          the char offset
+		 * @param lines          the number of line feeds before the checkpoint
+		 * @param carriageReturn if the char before the checkpoint is a "\r"
+		 */
+		private Checkpoint(long bytes, long chars, int lines, boolean carriageReturn) {
+			this.bytes = bytes;
+			this.chars = chars;
+			this.lines = lines;
+			this.carriageReturn = carriageReturn;
+		}
+	}
+}
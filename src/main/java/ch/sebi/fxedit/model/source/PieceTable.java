@@ -0,0 +1,694 @@
+package ch.sebi.fxedit.model.source;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A piece table. The text is never copied on an edit: the original text stays
+ * in the original buffer, inserted text is appended to the add buffer and the
+ * document is described by a list of pieces which point into these two
+ * buffers.<br>
+ * The pieces are stored in a treap (a randomized balanced binary tree) where
+ * every node knows the length and the number of line feeds of its subtree, so
+ * finding, splitting and joining pieces at a text position and converting
+ * between lines and offsets costs O(log pieces).<br>
+ * Lines are separated by '\n'. The text has one line more than it has line
+ * feeds.<br>
+ * Nodes are never modified, so a {@link #snapshot()} only has to remember the
+ * root.
+ *
+ * @author sebi
+ *
+ */
+public class PieceTable implements TextSnapshot {
+	/**
+	 * the buffer with the text the table was created with
+	 */
+	private final AppendBuffer original;
+
+	/**
+	 * the buffer to which inserted text is appended
+	 */
+	private final AppendBuffer added;
+
+	/**
+	 * the root of the piece tree or null if the text is empty
+	 */
+	private Node root;
+
+	/**
+	 * the version of the text. It is increased by every edit
+	 */
+	private long version;
+
+	/**
+	 * if this is a snapshot which can't be edited
+	 */
+	private final boolean snapshot;
+
+	/**
+	 * the state of the random generator for the node priorities
+	 */
+	private int seed = 0x2545F491;
+
+	/**
+	 * constructor
+	 *
+	 * @param original the buffer with the original text. It can be filled
+	 *                 before or while the table is used. The version starts at
+	 *                 its current length, so tables which are created while the
+	 *                 buffer grows have increasing versions.
+	 */
+	public PieceTable(AppendBuffer original) {
+		this.original = original;
+		this.added = new AppendBuffer();
+		this.snapshot = false;
+		int length = original.length();
+		this.version = length;
+		if (length > 0) {
+			root = new Node(false, 0, length, original.countLineFeeds(0, length), nextPriority(), null, null);
+		}
+	}
+
+	/**
+	 * constructor for an empty text
+	 */
+	public PieceTable() {
+		this(new AppendBuffer());
+	}
+
+	/**
+	 * constructor for a snapshot
+	 *
+	 * @param table the table of which a snapshot is taken
+	 */
+	private PieceTable(PieceTable table) {
+		this.original = table.original;
+		this.added = table.added;
+		this.root = table.root;
+		this.version = table.version;
+		this.snapshot = true;
+	}
+
+	/**
+	 * Returns an immutable snapshot of the current text in O(1). The snapshot
+	 * shares the pieces and the buffers with this table and can be read by any
+	 * thread while this table is edited.<br>
+	 * The table itself has to be edited and read by one thread at a time.
+	 *
+	 * @return the snapshot
+	 */
+	public PieceTable snapshot() {
+		return snapshot ? this : new PieceTable(this);
+	}
+
+	@Override
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the length of the text
+	 *
+	 * @return the length
+	 */
+	@Override
+	public int length() {
+		return size(root);
+	}
+
+	/**
+	 * Returns the number of lines
+	 *
+	 * @return the number of lines
+	 */
+	@Override
+	public int lineCount() {
+		return lineFeeds(root) + 1;
+	}
+
+	/**
+	 * Returns the offset at which the given line starts
+	 *
+	 * @param line the line (0 is the first line)
+	 * @return the offset
+	 */
+	@Override
+	public int lineStart(int line) {
+		if (line < 0 || line >= lineCount()) {
+			throw new IndexOutOfBoundsException("line: " + line + ", line count: " + lineCount());
+		}
+		if (line == 0) {
+			return 0;
+		}
+		// searches the position after the line-th line feed
+		Node node = root;
+		int nodeStart = 0;
+		int remaining = line;
+		while (true) {
+			int leftLineFeeds = lineFeeds(node.left);
+			if (remaining <= leftLineFeeds) {
+				node = node.left;
+				continue;
+			}
+			remaining -= leftLineFeeds;
+			int pieceStart = nodeStart + size(node.left);
+			if (remaining <= node.pieceLineFeeds) {
+				AppendBuffer buffer = buffer(node);
+				int lineFeed = buffer.lineFeedAt(buffer.lineFeedsBefore(node.start) + remaining - 1);
+				return pieceStart + lineFeed - node.start + 1;
+			}
+			remaining -= node.pieceLineFeeds;
+			nodeStart = pieceStart + node.length;
+			node = node.right;
+		}
+	}
+
+	/**
+	 * Returns the line which contains the given offset
+	 *
+	 * @param offset the offset (the length of the text is allowed too)
+	 * @return the line (0 is the first line)
+	 */
+	@Override
+	public int lineOf(int offset) {
+		if (offset < 0 || offset > length()) {
+			throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length());
+		}
+		// counts the line feeds before the offset
+		Node node = root;
+		int nodeStart = 0;
+		int line = 0;
+		while (node != null) {
+			int pieceStart = nodeStart + size(node.left);
+			if (offset < pieceStart) {
+				node = node.left;
+				continue;
+			}
+			line += lineFeeds(node.left);
+			int pieceEnd = pieceStart + node.length;
+			if (offset < pieceEnd) {
+				return line + buffer(node).countLineFeeds(node.start, node.start + offset - pieceStart);
+			}
+			line += node.pieceLineFeeds;
+			nodeStart = pieceEnd;
+			node = node.right;
+		}
+		return line;
+	}
+
+	/**
+	 * Returns the number of pieces the text consists of
+	 *
+	 * @return the number of pieces
+	 */
+	public int getPieceCount() {
+		return root == null ? 0 : root.pieces;
+	}
+
+	/**
+	 * Returns the text portion from the range.
+	 *
+	 * @param from from where (inclusive)
+	 * @param to   to where (exclusive)
+	 * @return the text
+	 */
+	@Override
+	public String getText(int from, int to) {
+		checkRange(from, to);
+		char[] dst = new char[to - from];
+		copy(root, 0, from, to, dst);
+		return new String(dst);
+	}
+
+	/**
+	 * Replaces the text in the range with the given text. Only the given text is
+	 * copied (into the add buffer), the rest of the text is untouched.
+	 *
+	 * @param from from where (inclusive)
+	 * @param to   to where (exclusive)
+	 * @param text the text to insert
+	 * @return the edit. It holds the removed pieces, so it can be reverted with
+	 *         {@link #restore(Edit)}
+	 */
+	public Edit replace(int from, int to, CharSequence text) {
+		checkEditable();
+		checkRange(from, to);
+		Node[] parts = split(root, from);
+		Node left = parts[0];
+		Node[] rest = split(parts[1], to - from);
+		Node right = rest[1];
+		if (text.length() > 0) {
+			int start = added.append(text);
+			Node last = last(left);
+			if (last != null && last.added && last.start + last.length == start) {
+				// typing continues the last inserted text, so the piece can just grow
+				left = extendLast(left, text.length());
+			} else {
+				int lineFeeds = added.countLineFeeds(start, start + text.length());
+				left = merge(left, new Node(true, start, text.length(), lineFeeds, nextPriority(), null, null));
+			}
+		}
+		root = merge(left, right);
+		version++;
+		return new Edit(from, rest[0], text.length());
+	}
+
+	/**
+	 * Reverts an edit: the text the edit inserted is replaced by the pieces it
+	 * removed. Nothing is copied, so this costs O(log pieces) independent of the
+	 * size of the edit.
+	 *
+	 * @param edit the edit. It has to be the last edit which wasn't reverted yet
+	 * @return the edit which reverts this call (a redo for an undo and the other
+	 *         way around)
+	 */
+	public Edit restore(Edit edit) {
+		checkEditable();
+		int from = edit.offset;
+		int to = from + edit.insertedLength;
+		checkRange(from, to);
+		Node[] parts = split(root, from);
+		Node[] rest = split(parts[1], to - from);
+		root = merge(merge(parts[0], edit.removed), rest[1]);
+		version++;
+		return new Edit(from, rest[0], size(edit.removed));
+	}
+
+	/**
+	 * Combines two consecutive edits into one. This works if the second edit
+	 * continues inserting at the end of the text the first edit inserted or if
+	 * both only delete text and the second deletes directly before (backspace) or
+	 * at (delete) the position of the first.
+	 *
+	 * @param first  the first edit
+	 * @param second the edit which was done directly after the first
+	 * @return the combined edit or null if the edits can't be combined
+	 */
+	public Edit coalesce(Edit first, Edit second) {
+		if (first.removed == null && second.removed == null
+				&& second.offset == first.offset + first.insertedLength) {
+			return new Edit(first.offset, null, first.insertedLength + second.insertedLength);
+		}
+		if (first.insertedLength == 0 && second.insertedLength == 0) {
+			if (second.offset + second.getRemovedLength() == first.offset) {
+				return new Edit(second.offset, merge(second.removed, first.removed), 0);
+			}
+			if (second.offset == first.offset) {
+				return new Edit(first.offset, merge(first.removed, second.removed), 0);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Throws an {@link UnsupportedOperationException} if this is a snapshot
+	 */
+	private void checkEditable() {
+		if (snapshot) {
+			throw new UnsupportedOperationException("A snapshot cannot be edited");
+		}
+	}
+
+	/**
+	 * Writes the whole text piece by piece to the writer
+	 *
+	 * @param writer the writer
+	 * @throws IOException
+	 */
+	public void writeTo(Writer writer) throws IOException {
+		char[] buf = new char[8192];
+		forEachPiece((buffer, added, start, length) -> {
+			int end = start + length;
+			for (int pos = start; pos < end; pos += buf.length) {
+				int n = Math.min(buf.length, end - pos);
+				buffer.getChars(pos, pos + n, buf, 0);
+				writer.write(buf, 0, n);
+			}
+		});
+	}
+
+	/**
+	 * Calls the consumer for every piece in the order of the text. This allows
+	 * to process the text without copying it.
+	 *
+	 * @param consumer the consumer
+	 * @throws IOException
+	 */
+	public void forEachPiece(PieceConsumer consumer) throws IOException {
+		forEachPiece(root, consumer);
+	}
+
+	/**
+	 * Throws an {@link IndexOutOfBoundsException} if the range isn't inside of
+	 * the text
+	 *
+	 * @param from from where (inclusive)
+	 * @param to   to where (exclusive)
+	 */
+	private void checkRange(int from, int to) {
+		int length = length();
+		if (from < 0 || to > length || from > to) {
+			throw new IndexOutOfBoundsException("range: [" + from + ", " + to + "), length: " + length);
+		}
+	}
+
+	/**
+	 * Returns the buffer of the given piece
+	 *
+	 * @param node the piece
+	 * @return the buffer the piece points into
+	 */
+	private AppendBuffer buffer(Node node) {
+		return node.added ? added : original;
+	}
+
+	/**
+	 * Copies the text of the range [from, to) of the given subtree into the
+	 * destination array
+	 *
+	 * @param node      the subtree
+	 * @param nodeStart the text position at which the subtree starts
+	 * @param from      from where (inclusive)
+	 * @param to        to where (exclusive)
+	 * @param dst       the destination. Index 0 is the position from
+	 */
+	private void copy(Node node, int nodeStart, int from, int to, char[] dst) {
+		while (node != null) {
+			int pieceStart = nodeStart + size(node.left);
+			int pieceEnd = pieceStart + node.length;
+			if (from < pieceStart) {
+				copy(node.left, nodeStart, from, to, dst);
+			}
+			int start = Math.max(from, pieceStart);
+			int end = Math.min(to, pieceEnd);
+			if (start < end) {
+				buffer(node).getChars(node.start + start - pieceStart, node.start + end - pieceStart, dst, start - from);
+			}
+			if (to <= pieceEnd) {
+				return;
+			}
+			node = node.right;
+			nodeStart = pieceEnd;
+		}
+	}
+
+	/**
+	 * Calls the consumer for every piece of the given subtree in order
+	 *
+	 * @param node     the subtree
+	 * @param consumer the consumer
+	 * @throws IOException
+	 */
+	private void forEachPiece(Node node, PieceConsumer consumer) throws IOException {
+		while (node != null) {
+			forEachPiece(node.left, consumer);
+			consumer.accept(buffer(node), node.added, node.start, node.length);
+			node = node.right;
+		}
+	}
+
+	/**
+	 * Splits the given tree at the text position. The nodes of the tree are not
+	 * modified.
+	 *
+	 * @param node the tree
+	 * @param pos  the position
+	 * @return an array with the tree before the position and the tree after it
+	 */
+	private Node[] split(Node node, int pos) {
+		if (node == null) {
+			return new Node[2];
+		}
+		int leftSize = size(node.left);
+		if (pos <= leftSize) {
+			Node[] parts = split(node.left, pos);
+			parts[1] = node.with(parts[1], node.right);
+			return parts;
+		}
+		int pieceEnd = leftSize + node.length;
+		if (pos >= pieceEnd) {
+			Node[] parts = split(node.right, pos - pieceEnd);
+			parts[0] = node.with(node.left, parts[0]);
+			return parts;
+		}
+		// the position is inside of the piece. Both halves keep the priority, so the
+		// heap order stays intact
+		int k = pos - leftSize;
+		int lineFeedsBefore = buffer(node).countLineFeeds(node.start, node.start + k);
+		Node before = new Node(node.added, node.start, k, lineFeedsBefore, node.priority, node.left, null);
+		Node after = new Node(node.added, node.start + k, node.length - k, node.pieceLineFeeds - lineFeedsBefore,
+				node.priority, null, node.right);
+		return new Node[] { before, after };
+	}
+
+	/**
+	 * Joins two trees. Every position of the left tree has to be before the
+	 * positions of the right tree.
+	 *
+	 * @param left  the left tree
+	 * @param right the right tree
+	 * @return the joined tree
+	 */
+	private Node merge(Node left, Node right) {
+		if (left == null)
+			return right;
+		if (right == null)
+			return left;
+		if (left.priority >= right.priority) {
+			return left.with(left.left, merge(left.right, right));
+		}
+		return right.with(merge(left, right.left), right.right);
+	}
+
+	/**
+	 * Returns the last piece of the tree
+	 *
+	 * @param node the tree
+	 * @return the last piece or null if the tree is empty
+	 */
+	private Node last(Node node) {
+		if (node == null)
+			return null;
+		while (node.right != null) {
+			node = node.right;
+		}
+		return node;
+	}
+
+	/**
+	 * Returns a copy of the tree in which the last piece is longer by the given
+	 * amount of chars
+	 *
+	 * @param node   the tree
+	 * @param amount the amount of chars
+	 * @return the new tree
+	 */
+	private Node extendLast(Node node, int amount) {
+		if (node.right == null) {
+			int end = node.start + node.length;
+			int lineFeeds = node.pieceLineFeeds + buffer(node).countLineFeeds(end, end + amount);
+			return new Node(node.added, node.start, node.length + amount, lineFeeds, node.priority, node.left, null);
+		}
+		return node.with(node.left, extendLast(node.right, amount));
+	}
+
+	/**
+	 * Returns the next random priority (xorshift)
+	 *
+	 * @return the priority
+	 */
+	private int nextPriority() {
+		int x = seed;
+		x ^= x << 13;
+		x ^= x >>> 17;
+		x ^= x << 5;
+		seed = x;
+		return x;
+	}
+
+	/**
+	 * Returns the text length of the subtree
+	 *
+	 * @param node the subtree or null
+	 * @return the length
+	 */
+	private static int size(Node node) {
+		return node == null ? 0 : node.size;
+	}
+
+	/**
+	 * Returns the number of line feeds in the subtree
+	 *
+	 * @param node the subtree or null
+	 * @return the number of line feeds
+	 */
+	private static int lineFeeds(Node node) {
+		return node == null ? 0 : node.lineFeeds;
+	}
+
+	/**
+	 * An edit of a piece table. It remembers the removed pieces instead of the
+	 * removed text, so keeping an edit costs memory per piece and not per char.
+	 *
+	 * @author sebi
+	 *
+	 */
+	public static final class Edit {
+		/**
+		 * the position of the edit
+		 */
+		private final int offset;
+		/**
+		 * the pieces which were removed or null
+		 */
+		private final Node removed;
+		/**
+		 * the number of inserted chars
+		 */
+		private final int insertedLength;
+
+		/**
+		 * constructor
+		 *
+		 * @param offset         the position of the edit
+		 * @param removed        the pieces which were removed or null
+		 * @param insertedLength the number of inserted chars
+		 */
+		private Edit(int offset, Node removed, int insertedLength) {
+			this.offset = offset;
+			this.removed = removed;
+			this.insertedLength = insertedLength;
+		}
+
+		/**
+		 * Returns the position of the edit
+		 *
+		 * @return the position
+		 */
+		public int getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Returns the number of removed chars
+		 *
+		 * @return the number of removed chars
+		 */
+		public int getRemovedLength() {
+			return size(removed);
+		}
+
+		/**
+		 * Returns the number of removed pieces
+		 *
+		 * @return the number of removed pieces
+		 */
+		public int getRemovedPieces() {
+			return removed == null ? 0 : removed.pieces;
+		}
+
+		/**
+		 * Returns the number of inserted chars
+		 *
+		 * @return the number of inserted chars
+		 */
+		public int getInsertedLength() {
+			return insertedLength;
+		}
+	}
+
+	/**
+	 * Receives the pieces of a piece table
+	 *
+	 * @author sebi
+	 *
+	 */
+	@FunctionalInterface
+	public interface PieceConsumer {
+		/**
+		 * Receives a piece
+		 *
+		 * @param buffer the buffer the piece points into
+		 * @param added  if the buffer is the add buffer or the original buffer
+		 * @param start  the start of the piece in the buffer
+		 * @param length the length of the piece
+		 * @throws IOException
+		 */
+		void accept(AppendBuffer buffer, boolean added, int start, int length) throws IOException;
+	}
+
+	/**
+	 * A piece of the text. Nodes are immutable, every change creates new nodes
+	 * on the path to the root.
+	 *
+	 * @author sebi
+	 *
+	 */
+	private static final class Node {
+		/**
+		 * if the piece points into the add buffer or into the original buffer
+		 */
+		final boolean added;
+		/**
+		 * the start of the piece in the buffer
+		 */
+		final int start;
+		/**
+		 * the length of the piece
+		 */
+		final int length;
+		/**
+		 * the number of line feeds in the piece
+		 */
+		final int pieceLineFeeds;
+		/**
+		 * the heap priority of the treap
+		 */
+		final int priority;
+		/**
+		 * the pieces before this piece
+		 */
+		final Node left;
+		/**
+		 * the pieces after this piece
+		 */
+		final Node right;
+		/**
+		 * the text length of the whole subtree
+		 */
+		final int size;
+		/**
+		 * the number of line feeds in the subtree
+		 */
+		final int lineFeeds;
+		/**
+		 * the number of pieces in the subtree
+		 */
+		final int pieces;
+
+		Node(boolean added, int start, int length, int pieceLineFeeds, int priority, Node left, Node right) {
+			this.added = added;
+			this.start = start;
+			this.length = length;
+			this.pieceLineFeeds = pieceLineFeeds;
+			this.priority = priority;
+			this.left = left;
+			this.right = right;
+			this.size = size(left) + length + size(right);
+			this.lineFeeds = lineFeeds(left) + pieceLineFeeds + lineFeeds(right);
+			this.pieces = (left == null ? 0 : left.pieces) + 1 + (right == null ? 0 : right.pieces);
+		}
+
+		/**
+		 * Returns a node for the same piece with the given children
+		 *
+		 * @param left  the new left child
+		 * @param right the new right child
+		 * @return the node
+		 */
+		Node with(Node left, Node right) {
+			return new Node(added, start, length, pieceLineFeeds, priority, left, right);
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package ch.sebi.fxedit.model.source;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A {@link TextBufferSource} which keeps its text in a {@link PieceTable}.
+ * Edits only copy the inserted text. Subclasses provide the original text with
+ * {@link #loadContent(AppendBuffer)}.<br>
+ * The content is loaded on a background thread on the first access. While it
+ * loads, the already loaded text can be read and {@link #length()} grows. Edits
+ * wait until the whole text is loaded.
+ *
+ * @author sebi
+ *
+ */
+public abstract class PieceTableBufferSource implements TextBufferSource {
+	/**
+	 * logger
+	 */
+	private Logger logger = LogManager.getLogger();
+
+	/**
+	 * the buffer the original text is loaded into
+	 */
+	private final AppendBuffer original = new AppendBuffer();
+
+	/**
+	 * the content or null if it isn't loaded yet
+	 */
+	private volatile PieceTable content = null;
+
+	/**
+	 * if the loading is finished (successfully or not)
+	 */
+	private volatile boolean done = false;
+
+	/**
+	 * the error which stopped the loading or null
+	 */
+	private volatile Exception loadError = null;
+
+	/**
+	 * the thread which loads the content or null if the loading wasn't started
+	 * yet
+	 */
+	private Thread loader = null;
+
+	/**
+	 * the latch which is released when the loading is finished
+	 */
+	private final CountDownLatch loaded = new CountDownLatch(1);
+
+	/**
+	 * the undo and redo history
+	 */
+	private final EditJournal journal = new EditJournal();
+
+	/**
+	 * the listeners which are notified about changes
+	 */
+	private final List<TextChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Loads the original text by appending it to the given buffer. It is called
+	 * once on a background thread. The appended text can be read while this
+	 * method is still running.
+	 *
+	 * @param original the buffer to which the text is appended
+	 * @throws Exception
+	 */
+	protected abstract void loadContent(AppendBuffer original) throws Exception;
+
+	/**
+	 * Starts loading the content if it isn't loading yet
+	 */
+	protected synchronized void startLoading() {
+		if (loader != null) {
+			return;
+		}
+		loader = new Thread(() -> {
+			try {
+				loadContent(original);
+				content = new PieceTable(original);
+			} catch (Exception e) {
+				logger.error("Couldn't load the content of \"" + getClass().getName() + "\"", e);
+				loadError = e;
+			} finally {
+				done = true;
+				loaded.countDown();
+			}
+		}, "fxedit-loader");
+		loader.setDaemon(true);
+		loader.start();
+	}
+
+	/**
+	 * Returns the piece table and waits until the content is loaded if
+	 * necessary
+	 *
+	 * @return the piece table
+	 * @throws Exception
+	 */
+	protected PieceTable getContent() throws Exception {
+		startLoading();
+		loaded.await();
+		if (loadError != null) {
+			throw new IllegalStateException("The content couldn't be loaded", loadError);
+		}
+		return content;
+	}
+
+	@Override
+	public boolean doneLoading() {
+		startLoading();
+		return done;
+	}
+
+	@Override
+	public String getText(int from, int to) throws Exception {
+		startLoading();
+		PieceTable content = this.content;
+		if (content != null) {
+			return content.getText(from, to);
+		}
+		int length = original.length();
+		if (from < 0 || to > length || from > to) {
+			throw new IndexOutOfBoundsException("range: [" + from + ", " + to + "), length: " + length);
+		}
+		char[] dst = new char[to - from];
+		original.getChars(from, to, dst, 0);
+		return new String(dst);
+	}
+
+	@Override
+	public String getText() throws Exception {
+		PieceTable content = getContent();
+		return content.getText(0, content.length());
+	}
+
+	@Override
+	public int length() throws Exception {
+		startLoading();
+		PieceTable content = this.content;
+		return content != null ? content.length() : original.length();
+	}
+
+	@Override
+	public TextSnapshot snapshot() throws Exception {
+		startLoading();
+		PieceTable content = this.content;
+		if (content != null) {
+			return content.snapshot();
+		}
+		// the part which is already loaded
+		return new PieceTable(original).snapshot();
+	}
+
+	@Override
+	public void setText(int from, int to, String text) throws Exception {
+		PieceTable content = getContent();
+		journal.record(content, content.replace(from, to, text), text);
+		fireTextChanged(from, to - from, text);
+	}
+
+	@Override
+	public void setText(String text) throws Exception {
+		// waits for the whole content, so length() doesn't return the loaded part
+		setText(0, getContent().length(), text);
+	}
+
+	@Override
+	public boolean undo() throws Exception {
+		PieceTable content = getContent();
+		return fireTextChanged(content, journal.undo(content));
+	}
+
+	@Override
+	public boolean redo() throws Exception {
+		PieceTable content = getContent();
+		return fireTextChanged(content, journal.redo(content));
+	}
+
+	/**
+	 * Notifies the listeners about an edit which was done by the journal
+	 *
+	 * @param content the piece table
+	 * @param edit    the edit or null
+	 * @return false if the edit is null
+	 */
+	private boolean fireTextChanged(PieceTable content, PieceTable.Edit edit) {
+		if (edit == null) {
+			return false;
+		}
+		int from = edit.getOffset();
+		fireTextChanged(from, edit.getRemovedLength(), content.getText(from, from + edit.getInsertedLength()));
+		return true;
+	}
+
+	/**
+	 * Notifies the listeners about a change
+	 *
+	 * @param from          the position of the change
+	 * @param removedLength the number of removed chars
+	 * @param insertedText  the inserted text
+	 */
+	protected void fireTextChanged(int from, int removedLength, String insertedText) {
+		for (TextChangeListener listener : listeners) {
+			listener.textChanged(this, from, removedLength, insertedText);
+		}
+	}
+
+	@Override
+	public void addTextChangeListener(TextChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeTextChangeListener(TextChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void setUndoBudget(int bytes) {
+		journal.setBudget(bytes);
+	}
+
+	@Override
+	public int lineCount() throws Exception {
+		startLoading();
+		PieceTable content = this.content;
+		return content != null ? content.lineCount() : original.lineFeedCount() + 1;
+	}
+
+	@Override
+	public int lineStart(int line) throws Exception {
+		startLoading();
+		PieceTable content = this.content;
+		if (content != null) {
+			return content.lineStart(line);
+		}
+		if (line == 0) {
+			return 0;
+		}
+		return original.lineFeedAt(line - 1) + 1;
+	}
+
+	@Override
+	public int lineOf(int offset) throws Exception {
+		startLoading();
+		PieceTable content = this.content;
+		if (content != null) {
+			return content.lineOf(offset);
+		}
+		int length = original.length();
+		if (offset < 0 || offset > length) {
+			throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length);
+		}
+		return original.lineFeedsBefore(offset);
+	}
+}
@@ -0,0 +1,691 @@
+package ch.sebi.fxedit.model.source;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An append only journal of the unsaved edits of a file, which allows to
+ * recover them after a crash. The journal is stored in
+ * <code>~/.fxedit/swap</code>.<br>
+ * Recording an edit only adds it to a queue. A single background thread
+ * writes the queued edits of all journals in batches (group commit) and
+ * forces each batch to the disk. When the journal gets too big, it is
+ * compacted by replacing it with a snapshot of the text.<br>
+ * A journal starts with a header containing the path of the file and the size
+ * and modification time the file had when the journal was started. It is
+ * followed by records which consist of their length, a type, the payload and a
+ * CRC32 checksum, so a record which was only partially written during a crash
+ * is detected.<br>
+ * Every journal gets a file of its own, which is created with a new name. So
+ * neither a journal which was left behind nor the journal of another source of
+ * the same file is ever overwritten.
+ *
+ * @author sebi
+ *
+ */
+public class SwapJournal {
+	/**
+	 * logger
+	 */
+	private static Logger logger = LogManager.getLogger();
+
+	/**
+	 * the magic number at the start of a journal
+	 */
+	private static final int MAGIC = 0x46585357;
+	/**
+	 * the version of the format
+	 */
+	private static final int FORMAT_VERSION = 1;
+	/**
+	 * the type of an edit record
+	 */
+	private static final byte EDIT_RECORD = 1;
+	/**
+	 * the removed length of an edit record which replaces the whole text
+	 */
+	private static final int WHOLE_TEXT = -1;
+	/**
+	 * the time the writer waits for more edits before it writes a batch
+	 */
+	private static final long COMMIT_DELAY_MS = 200;
+	/**
+	 * the size in bytes above which the journal is compacted, if it is also
+	 * twice as big as a snapshot would be
+	 */
+	private static final long COMPACTION_THRESHOLD = 4L << 20;
+	/**
+	 * the maximal number of chars of a single record of a snapshot
+	 */
+	private static final int SNAPSHOT_CHUNK = 1 << 15;
+	/**
+	 * the file extension of journals
+	 */
+	private static final String EXTENSION = ".swp";
+
+	/**
+	 * the number which is used to name the next journal file
+	 */
+	private static final AtomicLong nextSwapId = new AtomicLong(System.currentTimeMillis());
+	/**
+	 * the thread which writes the journals
+	 */
+	private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "fxedit-swap");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * the path of the file the journal belongs to
+	 */
+	private final Path file;
+	/**
+	 * the journal file or null if it isn't created yet. Only used by the writer
+	 */
+	private Path swapFile = null;
+	/**
+	 * the commands which weren't processed by the writer yet
+	 */
+	private final Queue<Command> queue = new ConcurrentLinkedQueue<>();
+	/**
+	 * if a flush is scheduled
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	/**
+	 * the estimated size of the journal in bytes. It is only used by the thread
+	 * which records the edits
+	 */
+	private long size = 0;
+
+	/**
+	 * the attributes of the file the edits are based on. Only used by the writer
+	 */
+	private BasicFileAttributes base;
+	/**
+	 * the open journal file or null. Only used by the writer
+	 */
+	private FileChannel channel = null;
+	/**
+	 * the buffer for a batch. Only used by the writer
+	 */
+	private ByteBuffer batch = ByteBuffer.allocate(1 << 16);
+
+	/**
+	 * constructor. The journal file is created with the first edit.
+	 *
+	 * @param file the file the journal belongs to
+	 * @param base the attributes of the file the edits are based on
+	 */
+	public SwapJournal(Path file, BasicFileAttributes base) {
+		this.file = file.toAbsolutePath();
+		this.base = base;
+	}
+
+	/**
+	 * Returns the directory which contains the journals
+	 *
+	 * @return the directory
+	 */
+	public static Path getSwapDirectory() {
+		return Paths.get(System.getProperty("user.home"), ".fxedit", "swap");
+	}
+
+	/**
+	 * Creates an empty journal file with a name which isn't used by any other
+	 * journal. The name starts with the name of the file and the hash of its
+	 * path.
+	 *
+	 * @return the journal file
+	 * @throws IOException
+	 */
+	private Path createSwapFile() throws IOException {
+		Path dir = getSwapDirectory();
+		Files.createDirectories(dir);
+		String prefix = file.getFileName() + "-" + Integer.toHexString(file.toString().hashCode()) + "-";
+		while (true) {
+			Path candidate = dir.resolve(prefix + Long.toHexString(nextSwapId.getAndIncrement()) + EXTENSION);
+			try {
+				return Files.createFile(candidate);
+			} catch (FileAlreadyExistsException e) {
+				// the name belongs to another journal
+			}
+		}
+	}
+
+	/**
+	 * Records an edit. It doesn't block.
+	 *
+	 * @param from          the position of the edit
+	 * @param removedLength the number of removed chars
+	 * @param text          the inserted text
+	 */
+	public void recordEdit(int from, int removedLength, String text) {
+		size += 17 + 2L * text.length();
+		enqueue(new RecordedEdit(from, removedLength, text));
+	}
+
+	/**
+	 * Returns if the journal should be compacted
+	 *
+	 * @param length the length of the text
+	 * @return if {@link #compact(TextSnapshot)} should be called
+	 */
+	public boolean needsCompaction(int length) {
+		return size > COMPACTION_THRESHOLD && size > 4L * length;
+	}
+
+	/**
+	 * Replaces the journal with a snapshot of the text. It doesn't block, the
+	 * snapshot is written by the background thread.
+	 *
+	 * @param snapshot the snapshot
+	 */
+	public void compact(TextSnapshot snapshot) {
+		size = 2L * snapshot.length();
+		enqueue(new SnapshotCommand(snapshot));
+	}
+
+	/**
+	 * Deletes the journal, because all edits were saved. The next edit starts a
+	 * new journal.
+	 *
+	 * @param base the attributes of the saved file
+	 */
+	public void discard(BasicFileAttributes base) {
+		size = 0;
+		enqueue(new DiscardCommand(base));
+	}
+
+	/**
+	 * Writes the recorded edits and closes the journal file. The journal file is
+	 * kept, so the unsaved edits are offered to be recovered the next time. It
+	 * doesn't block. The journal must not be used anymore afterwards.
+	 */
+	public void close() {
+		enqueue(new CloseCommand());
+	}
+
+	/**
+	 * Adds a command to the queue and schedules a flush
+	 *
+	 * @param command the command
+	 */
+	private void enqueue(Command command) {
+		queue.add(command);
+		if (scheduled.compareAndSet(false, true)) {
+			writer.schedule(this::flush, COMMIT_DELAY_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Processes all queued commands and forces the written records to the disk.
+	 * It runs on the writer thread.
+	 */
+	private void flush() {
+		scheduled.set(false);
+		try {
+			Command command;
+			while ((command = queue.poll()) != null) {
+				command.execute(this);
+			}
+			writeBatch();
+		} catch (IOException | RuntimeException e) {
+			logger.error("Couldn't write the swap journal of \"" + file + "\"", e);
+			batch.clear();
+			closeChannel();
+		}
+	}
+
+	/**
+	 * Writes the batch into the journal file and forces it to the disk. The
+	 * journal file is opened if necessary.
+	 *
+	 * @throws IOException
+	 */
+	private void writeBatch() throws IOException {
+		if (batch.position() == 0) {
+			return;
+		}
+		if (channel == null) {
+			open();
+		}
+		batch.flip();
+		while (batch.hasRemaining()) {
+			channel.write(batch);
+		}
+		batch.clear();
+		channel.force(false);
+	}
+
+	/**
+	 * Creates the journal file if necessary and writes the header
+	 *
+	 * @throws IOException
+	 */
+	private void open() throws IOException {
+		if (swapFile == null) {
+			swapFile = createSwapFile();
+		}
+		channel = FileChannel.open(swapFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		writeFully(channel, header());
+	}
+
+	/**
+	 * Closes the journal file and ignores errors
+	 */
+	private void closeChannel() {
+		if (channel == null) {
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.warn("Couldn't close the swap journal \"" + swapFile + "\"", e);
+		}
+		channel = null;
+	}
+
+	/**
+	 * Returns the header of the journal
+	 *
+	 * @return the header, ready to be read
+	 */
+	private ByteBuffer header() {
+		byte[] path = file.toString().getBytes(StandardCharsets.UTF_8);
+		ByteBuffer header = ByteBuffer.allocate(28 + path.length);
+		header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(path.length).put(path);
+		header.putLong(base == null ? -1 : base.size());
+		header.putLong(base == null ? -1 : base.lastModifiedTime().toMillis());
+		header.flip();
+		return header;
+	}
+
+	/**
+	 * Writes the whole buffer to the channel
+	 *
+	 * @param channel the channel
+	 * @param buffer  the buffer
+	 * @throws IOException
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Adds an edit record to the given buffer
+	 *
+	 * @param buffer        the buffer
+	 * @param from          the position of the edit
+	 * @param removedLength the number of removed chars or {@link #WHOLE_TEXT}
+	 * @param text          the inserted text
+	 * @return the buffer. It is a new buffer if the given buffer was too small
+	 */
+	private static ByteBuffer putEdit(ByteBuffer buffer, int from, int removedLength, CharSequence text) {
+		int length = 13 + 2 * text.length();
+		if (buffer.remaining() < length + 8) {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length + 8));
+			buffer.flip();
+			bigger.put(buffer);
+			buffer = bigger;
+		}
+		buffer.putInt(length);
+		int start = buffer.position();
+		buffer.put(EDIT_RECORD).putInt(from).putInt(removedLength).putInt(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			buffer.putChar(text.charAt(i));
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), buffer.arrayOffset() + start, length);
+		buffer.putInt((int) crc.getValue());
+		return buffer;
+	}
+
+	/**
+	 * A command for the writer
+	 */
+	private interface Command {
+		/**
+		 * Executes the command on the writer thread
+		 *
+		 * @param journal the journal
+		 * @throws IOException
+		 */
+		void execute(SwapJournal journal) throws IOException;
+	}
+
+	/**
+	 * A recorded edit. Executing it adds it to the batch
+	 */
+	private static final class RecordedEdit implements Command {
+		/**
+		 * the position of the edit
+		 */
+		private final int from;
+		/**
+		 * the number of removed chars or {@link SwapJournal#WHOLE_TEXT}
+		 */
+		private final int removedLength;
+		/**
+		 * the inserted text
+		 */
+		private final String text;
+
+		/**
+		 * constructor
+		 *
+		 * @param from          the position of the edit
+		 * @param removedLength the number of removed chars
+		 * @param text          the inserted text
+		 */
+		private RecordedEdit(int from, int removedLength, String text) {
+			this.from = from;
+			this.removedLength = removedLength;
+			this.text = text;
+		}
+
+		@Override
+		public void execute(SwapJournal journal) {
+			journal.batch = putEdit(journal.batch, from, removedLength, text);
+		}
+	}
+
+	/**
+	 * Replaces the journal with a snapshot
+	 */
+	private static final class SnapshotCommand implements Command {
+		/**
+		 * the snapshot
+		 */
+		private final TextSnapshot snapshot;
+
+		/**
+		 * constructor
+		 *
+		 * @param snapshot the snapshot
+		 */
+		private SnapshotCommand(TextSnapshot snapshot) {
+			this.snapshot = snapshot;
+		}
+
+		@Override
+		public void execute(SwapJournal journal) throws IOException {
+			// the edits before the snapshot are contained in it
+			journal.batch.clear();
+			journal.closeChannel();
+			if (journal.swapFile == null) {
+				journal.swapFile = journal.createSwapFile();
+			}
+			Path swapFile = journal.swapFile;
+			Path temp = swapFile.resolveSibling(swapFile.getFileName() + ".tmp");
+			try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				writeFully(out, journal.header());
+				ByteBuffer buffer = ByteBuffer.allocate(13 + 2 * SNAPSHOT_CHUNK + 8);
+				int length = snapshot.length();
+				for (int pos = 0; pos < length || pos == 0; pos += SNAPSHOT_CHUNK) {
+					int end = Math.min(length, pos + SNAPSHOT_CHUNK);
+					buffer.clear();
+					buffer = putEdit(buffer, pos, pos == 0 ? WHOLE_TEXT : 0, snapshot.getText(pos, end));
+					buffer.flip();
+					writeFully(out, buffer);
+				}
+				out.force(false);
+			}
+			try {
+				Files.move(temp, swapFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, swapFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+			journal.channel = FileChannel.open(swapFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+	}
+
+	/**
+	 * Deletes the journal
+	 */
+	private static final class DiscardCommand implements Command {
+		/**
+		 * the attributes of the saved file
+		 */
+		private final BasicFileAttributes newBase;
+
+		/**
+		 * constructor
+		 *
+		 * @param newBase the attributes of the saved file
+		 */
+		private DiscardCommand(BasicFileAttributes newBase) {
+			this.newBase = newBase;
+		}
+
+		@Override
+		public void execute(SwapJournal journal) throws IOException {
+			journal.batch.clear();
+			journal.closeChannel();
+			if (journal.swapFile != null) {
+				Files.deleteIfExists(journal.swapFile);
+				journal.swapFile = null;
+			}
+			journal.base = newBase;
+		}
+	}
+
+	/**
+	 * Writes the batch and closes the journal file
+	 */
+	private static final class CloseCommand implements Command {
+		@Override
+		public void execute(SwapJournal journal) throws IOException {
+			journal.writeBatch();
+			journal.closeChannel();
+		}
+	}
+
+	/**
+	 * Returns the journals which were left behind
+	 *
+	 * @return the journal files
+	 */
+	public static List<Path> findJournals() {
+		List<Path> journals = new ArrayList<>();
+		Path dir = getSwapDirectory();
+		if (!Files.isDirectory(dir)) {
+			return journals;
+		}
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + EXTENSION)) {
+			stream.forEach(journals::add);
+		} catch (IOException e) {
+			logger.error("Couldn't list the swap journals in \"" + dir + "\"", e);
+		}
+		return journals;
+	}
+
+	/**
+	 * Reads a journal. Records after a damaged record are ignored.
+	 *
+	 * @param swapFile the journal file
+	 * @return the recovery or null if the file isn't a journal
+	 * @throws IOException
+	 */
+	public static Recovery read(Path swapFile) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(swapFile)))) {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+				return null;
+			}
+			byte[] path = new byte[in.readInt()];
+			in.readFully(path);
+			Recovery recovery = new Recovery(swapFile, Paths.get(new String(path, StandardCharsets.UTF_8)),
+					in.readLong(), in.readLong());
+			CRC32 crc = new CRC32();
+			while (true) {
+				int length;
+				byte[] record;
+				try {
+					length = in.readInt();
+					if (length < 13) {
+						break;
+					}
+					record = new byte[length];
+					in.readFully(record);
+					crc.reset();
+					crc.update(record);
+					if (in.readInt() != (int) crc.getValue()) {
+						logger.warn("Damaged record in the swap journal \"" + swapFile + "\"");
+						break;
+					}
+				} catch (EOFException e) {
+					break;
+				}
+				ByteBuffer buffer = ByteBuffer.wrap(record);
+				if (buffer.get() != EDIT_RECORD) {
+					break;
+				}
+				int from = buffer.getInt();
+				int removedLength = buffer.getInt();
+				char[] text = new char[buffer.getInt()];
+				buffer.asCharBuffer().get(text);
+				recovery.edits.add(new RecordedEdit(from, removedLength, new String(text)));
+			}
+			return recovery;
+		}
+	}
+
+	/**
+	 * The content of a journal which was left behind
+	 *
+	 * @author sebi
+	 *
+	 */
+	public static final class Recovery {
+		/**
+		 * the journal file
+		 */
+		private final Path swapFile;
+		/**
+		 * the file the journal belongs to
+		 */
+		private final Path file;
+		/**
+		 * the size the file had when the journal was started
+		 */
+		private final long baseSize;
+		/**
+		 * the modification time the file had when the journal was started
+		 */
+		private final long baseModified;
+		/**
+		 * the recorded edits
+		 */
+		private final List<RecordedEdit> edits = new ArrayList<>();
+
+		/**
+		 * constructor
+		 *
+		 * @param swapFile     the journal file
+		 * @param file         the file the journal belongs to
+		 * @param baseSize     the size the file had when the journal was started
+		 * @param baseModified the modification time the file had when the journal
+		 *                     was started
+		 */
+		private Recovery(Path swapFile, Path file, long baseSize, long baseModified) {
+			this.swapFile = swapFile;
+			this.file = file;
+			this.baseSize = baseSize;
+			this.baseModified = baseModified;
+		}
+
+		/**
+		 * Returns the file the journal belongs to
+		 *
+		 * @return the path of the file
+		 */
+		public Path getFile() {
+			return file;
+		}
+
+		/**
+		 * Returns if the journal contains any edits
+		 *
+		 * @return if there is something to recover
+		 */
+		public boolean hasEdits() {
+			return !edits.isEmpty();
+		}
+
+		/**
+		 * Returns if the edits can be applied to the file. This is the case if the
+		 * journal starts with a snapshot or if the file wasn't changed since the
+		 * journal was started.
+		 *
+		 * @return if the edits can be replayed
+		 */
+		public boolean isReplayable() {
+			if (!edits.isEmpty() && edits.get(0).removedLength == WHOLE_TEXT) {
+				return true;
+			}
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+				return attributes.size() == baseSize && attributes.lastModifiedTime().toMillis() == baseModified;
+			} catch (IOException e) {
+				// a file which didn't exist yet is empty
+				return baseSize <= 0;
+			}
+		}
+
+		/**
+		 * Applies the recorded edits to the source, which has to contain the text
+		 * of the file
+		 *
+		 * @param source the source
+		 * @throws Exception
+		 */
+		public void replay(TextBufferSource source) throws Exception {
+			for (RecordedEdit edit : edits) {
+				if (edit.removedLength == WHOLE_TEXT) {
+					source.setText(edit.text);
+				} else {
+					source.setText(edit.from, edit.from + edit.removedLength, edit.text);
+				}
+			}
+		}
+
+		/**
+		 * Deletes the journal file
+		 *
+		 * @throws IOException
+		 */
+		public void delete() throws IOException {
+			Files.deleteIfExists(swapFile);
+		}
+	}
+}
@@ -38,6 +38,98 @@ public interface TextBufferSource extends BufferSource {
 	@JsFunction
 	int length() throws Exception;
 	
+	/**
+	 * Returns the number of lines. A text with n line feeds has n + 1 lines.
+	 * @return the number of lines
+	 * @throws Exception
+	 */
+	@JsFunction
+	int lineCount() throws Exception;
+
+	/**
+	 * Returns the offset at which the given line starts.
+	 * @param line the line (0 is the first line)
+	 * @return the offset of the first char of the line
+	 * @throws Exception
+	 */
+	@JsFunction
+	int lineStart(int line) throws Exception;
+
+	/**
+	 * Returns the line which contains the given offset.
+	 * @param offset the offset (the length of the text is allowed too)
+	 * @return the line (0 is the first line)
+	 * @throws Exception
+	 */
+	@JsFunction
+	int lineOf(int offset) throws Exception;
+
+	/**
+	 * Reverts the last edit. By default there is no history and it returns false.
+	 * @return false if there was nothing to undo
+	 * @throws Exception
+	 */
+	@JsFunction
+	default boolean undo() throws Exception {
+		return false;
+	}
+
+	/**
+	 * Does the last undone edit again. By default there is no history and it
+	 * returns false.
+	 * @return false if there was nothing to redo
+	 * @throws Exception
+	 */
+	@JsFunction
+	default boolean redo() throws Exception {
+		return false;
+	}
+
+	/**
+	 * Sets how much memory the undo history may use. The oldest edits are
+	 * forgotten if the history gets bigger. By default it does nothing.
+	 * @param bytes the budget in bytes
+	 */
+	@JsFunction
+	default void setUndoBudget(int bytes) {
+	}
+
+	/**
+	 * Adds a listener which is notified after every change of the text,
+	 * including undo and redo.
+	 * @param listener the listener
+	 */
+	void addTextChangeListener(TextChangeListener listener);
+
+	/**
+	 * Removes a listener which was added with
+	 * {@link #addTextChangeListener(TextChangeListener)}
+	 * @param listener the listener
+	 */
+	void removeTextChangeListener(TextChangeListener listener);
+
+	/**
+	 * Returns an immutable snapshot of the current text. Taking a snapshot costs
+	 * O(1), so background work like highlighting or searching can take one
+	 * instead of locking the source.
+	 * @return the snapshot
+	 * @throws Exception
+	 */
+	TextSnapshot snapshot() throws Exception;
+
+	/**
+	 * Returns the text of the given line without the line feed.
+	 * @param line the line (0 is the first line)
+	 * @return the text of the line
+	 * @throws Exception
+	 */
+	@JsFunction
+	default String getLine(int line) throws Exception {
+		int from = lineStart(line);
+		int to = line + 1 < lineCount() ? lineStart(line + 1) - 1 : length();
+		return getText(from, to);
+	}
+	
 	/**
 	 * Returns true if the source is done loading. By default it returns true. 
 	 * @return if the file is done loading
@@ -67,12 +159,14 @@ public interface TextBufferSource extends BufferSource {
 	default String getText() throws Exception {
 		StringBuffer buffer = new StringBuffer();
 		int from = 0;
-		int to = length();
+		boolean done;
 		do {
+			// checks before reading the length, so the text appended in between isn't lost
+			done = doneLoading();
+			int to = length();
 			buffer.append(getText(from, to));
 			from = to;
-			to = length();
-		} while(!doneLoading());
+		} while(!done);
 		return buffer.toString();
 	}
 	
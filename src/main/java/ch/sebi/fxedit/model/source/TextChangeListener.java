@@ -0,0 +1,21 @@
+package ch.sebi.fxedit.model.source;
+
+/**
+ * A listener which is notified after the text of a {@link TextBufferSource}
+ * changed. It is called on the thread which changed the text.
+ *
+ * @author sebi
+ *
+ */
+@FunctionalInterface
+public interface TextChangeListener {
+	/**
+	 * Called after the text changed
+	 * 
+	 * @param source        the source
+	 * @param from          the position of the change
+	 * @param removedLength the number of chars which were removed at the position
+	 * @param insertedText  the text which was inserted at the position
+	 */
+	void textChanged(TextBufferSource source, int from, int removedLength, String insertedText);
+}
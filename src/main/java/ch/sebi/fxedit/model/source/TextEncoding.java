@@ -0,0 +1,243 @@
+package ch.sebi.fxedit.model.source;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The charset of a file and if the file starts with a byte order mark. The
+ * encoding is detected from the start of the file: a byte order mark decides
+ * it directly, otherwise the sample is checked if it is valid UTF-8 or looks
+ * like UTF-16 without a byte order mark. If nothing matches, the platform
+ * charset is used, or ISO-8859-1 if the platform charset is UTF-8, because
+ * ISO-8859-1 can decode and encode every byte without losing it.
+ *
+ * @author sebi
+ *
+ */
+public final class TextEncoding {
+	/**
+	 * the number of bytes at the start of a file which are used to detect the
+	 * encoding
+	 */
+	public static final int SAMPLE_SIZE = 1 << 16;
+	/**
+	 * the encoding of new files
+	 */
+	public static final TextEncoding DEFAULT = new TextEncoding(StandardCharsets.UTF_8, false);
+
+	/**
+	 * the byte order mark of UTF-8
+	 */
+	private static final byte[] UTF_8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+	/**
+	 * the byte order mark of UTF-16 big endian
+	 */
+	private static final byte[] UTF_16BE_BOM = { (byte) 0xFE, (byte) 0xFF };
+	/**
+	 * the byte order mark of UTF-16 little endian
+	 */
+	private static final byte[] UTF_16LE_BOM = { (byte) 0xFF, (byte) 0xFE };
+
+	/**
+	 * the charset
+	 */
+	private final Charset charset;
+	/**
+	 * if the file starts with a byte order mark
+	 */
+	private final boolean bom;
+
+	/**
+	 * constructor
+	 *
+	 * @param charset the charset
+	 * @param bom     if the file starts with a byte order mark
+	 */
+	private TextEncoding(Charset charset, boolean bom) {
+		this.charset = charset;
+		this.bom = bom;
+	}
+
+	/**
+	 * Returns the charset
+	 *
+	 * @return the charset
+	 */
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Returns if the file starts with a byte order mark
+	 *
+	 * @return if there is a byte order mark
+	 */
+	public boolean hasBom() {
+		return bom;
+	}
+
+	/**
+	 * Returns the byte order mark which is written at the start of the file
+	 *
+	 * @return the byte order mark or an empty array
+	 */
+	public byte[] getBom() {
+		if (!bom) {
+			return new byte[0];
+		}
+		if (charset.equals(StandardCharsets.UTF_16BE)) {
+			return UTF_16BE_BOM.clone();
+		}
+		if (charset.equals(StandardCharsets.UTF_16LE)) {
+			return UTF_16LE_BOM.clone();
+		}
+		return UTF_8_BOM.clone();
+	}
+
+	/**
+	 * Returns the number of bytes of the byte order mark
+	 *
+	 * @return the length of the byte order mark
+	 */
+	public int getBomLength() {
+		return getBom().length;
+	}
+
+	/**
+	 * Returns the name of the encoding, for example "UTF-8" or "UTF-8 BOM"
+	 *
+	 * @return the name
+	 */
+	@Override
+	public String toString() {
+		return bom ? charset.name() + " BOM" : charset.name();
+	}
+
+	/**
+	 * Detects the encoding from the start of a file
+	 *
+	 * @param sample   the first bytes of the file. The position of the buffer
+	 *                 isn't changed
+	 * @param complete if the sample contains the whole file
+	 * @return the encoding
+	 */
+	public static TextEncoding detect(ByteBuffer sample, boolean complete) {
+		if (!sample.hasRemaining()) {
+			return DEFAULT;
+		}
+		if (startsWith(sample, UTF_8_BOM)) {
+			return new TextEncoding(StandardCharsets.UTF_8, true);
+		}
+		if (startsWith(sample, UTF_16BE_BOM)) {
+			return new TextEncoding(StandardCharsets.UTF_16BE, true);
+		}
+		if (startsWith(sample, UTF_16LE_BOM)) {
+			return new TextEncoding(StandardCharsets.UTF_16LE, true);
+		}
+		if (isUtf8(sample, complete)) {
+			return new TextEncoding(StandardCharsets.UTF_8, false);
+		}
+		Charset utf16 = guessUtf16(sample);
+		if (utf16 != null) {
+			return new TextEncoding(utf16, false);
+		}
+		Charset platform = Charset.defaultCharset();
+		if (platform.equals(StandardCharsets.UTF_8) || platform.equals(StandardCharsets.US_ASCII)) {
+			return new TextEncoding(StandardCharsets.ISO_8859_1, false);
+		}
+		return new TextEncoding(platform, false);
+	}
+
+	/**
+	 * Returns if the sample starts with the given bytes
+	 *
+	 * @param sample the sample
+	 * @param prefix the bytes
+	 * @return if the sample starts with the bytes
+	 */
+	private static boolean startsWith(ByteBuffer sample, byte[] prefix) {
+		if (sample.remaining() < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (sample.get(sample.position() + i) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns if the sample is valid UTF-8. A char which is cut off at the end of
+	 * an incomplete sample is allowed. A sample with null bytes is rejected, text
+	 * files don't contain them but UTF-16 files do.
+	 *
+	 * @param sample   the sample
+	 * @param complete if the sample contains the whole file
+	 * @return if it is valid UTF-8
+	 */
+	private static boolean isUtf8(ByteBuffer sample, boolean complete) {
+		for (int i = sample.position(); i < sample.limit(); i++) {
+			if (sample.get(i) == 0) {
+				return false;
+			}
+		}
+		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		ByteBuffer in = sample.duplicate();
+		CharBuffer out = CharBuffer.allocate(8192);
+		try {
+			while (true) {
+				CoderResult result = decoder.decode(in, out, complete);
+				if (result.isError()) {
+					result.throwException();
+				}
+				if (result.isUnderflow()) {
+					return !complete || decoder.flush(out).isUnderflow();
+				}
+				out.clear();
+			}
+		} catch (CharacterCodingException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Guesses if the sample is UTF-16 without a byte order mark. Mostly latin
+	 * text in UTF-16 has a null byte in every char, either at the even or at the
+	 * odd positions.
+	 *
+	 * @param sample the sample
+	 * @return the UTF-16 charset or null if the sample doesn't look like UTF-16
+	 */
+	private static Charset guessUtf16(ByteBuffer sample) {
+		int pairs = sample.remaining() / 2;
+		if (pairs == 0) {
+			return null;
+		}
+		int evenZeros = 0;
+		int oddZeros = 0;
+		for (int i = 0; i < pairs; i++) {
+			int pos = sample.position() + 2 * i;
+			if (sample.get(pos) == 0) {
+				evenZeros++;
+			}
+			if (sample.get(pos + 1) == 0) {
+				oddZeros++;
+			}
+		}
+		if (evenZeros > pairs * 0.4 && oddZeros < pairs * 0.05) {
+			return StandardCharsets.UTF_16BE;
+		}
+		if (oddZeros > pairs * 0.4 && evenZeros < pairs * 0.05) {
+			return StandardCharsets.UTF_16LE;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,79 @@
+package ch.sebi.fxedit.model.source;
+
+/**
+ * An immutable view of the text of a {@link TextBufferSource} at one point in
+ * time. A snapshot can be read by any thread without locking, while the source
+ * is edited.
+ *
+ * @author sebi
+ *
+ */
+public interface TextSnapshot {
+	/**
+	 * Returns the version of the text. Two snapshots of the same source with the
+	 * same version have the same text, a later edit results in a higher version.
+	 * 
+	 * @return the version
+	 */
+	long getVersion();
+
+	/**
+	 * Returns the length of the text
+	 * 
+	 * @return the length
+	 */
+	int length();
+
+	/**
+	 * Returns the text portion from the range.
+	 * 
+	 * @param from from where (inclusive)
+	 * @param to   to where (exclusive)
+	 * @return the text
+	 */
+	String getText(int from, int to);
+
+	/**
+	 * Returns the number of lines. A text with n line feeds has n + 1 lines.
+	 * 
+	 * @return the number of lines
+	 */
+	int lineCount();
+
+	/**
+	 * Returns the offset at which the given line starts.
+	 * 
+	 * @param line the line (0 is the first line)
+	 * @return the offset of the first char of the line
+	 */
+	int lineStart(int line);
+
+	/**
+	 * Returns the line which contains the given offset.
+	 * 
+	 * @param offset the offset (the length of the text is allowed too)
+	 * @return the line (0 is the first line)
+	 */
+	int lineOf(int offset);
+
+	/**
+	 * Returns the whole text
+	 * 
+	 * @return the text
+	 */
+	default String getText() {
+		return getText(0, length());
+	}
+
+	/**
+	 * Returns the text of the given line without the line feed.
+	 * 
+	 * @param line the line (0 is the first line)
+	 * @return the text of the line
+	 */
+	default String getLine(int line) {
+		int from = lineStart(line);
+		int to = line + 1 < lineCount() ? lineStart(line + 1) - 1 : length();
+		return getText(from, to);
+	}
+}
@@ -0,0 +1,603 @@
+package ch.sebi.fxedit.model.syntax;
+
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import ch.sebi.fxedit.model.source.TextBufferSource;
+import ch.sebi.fxedit.model.source.TextChangeListener;
+import ch.sebi.fxedit.model.source.TextSnapshot;
+import ch.sebi.fxedit.model.syntax.IncrementalHighlighter.LineSource;
+
+/**
+ * Highlights a {@link TextBufferSource} on a background thread. Every edit of
+ * the source takes a snapshot of the text and schedules a job, which tokenizes
+ * the changed lines of the snapshot with an {@link IncrementalHighlighter}.
+ * Edits which arrive while a job is scheduled are combined into one job, so
+ * fast typing doesn't queue up jobs.<br>
+ * Only the lines around the viewport reported by
+ * {@link #setViewport(int, int)} are tokenized right away. The states of the
+ * rest of the text are computed in small portions while there is nothing else
+ * to do, so the tokens are correct once the viewport is moved there. Tokens of
+ * lines far away from the viewport are evicted when they use more than
+ * {@link #setMemoryCap(long) the memory cap}.<br>
+ * A job publishes the tokens of the lines around the viewport which changed
+ * since the consumer applied them, tagged with the version of the snapshot.
+ * The consumer has to drop results which are older than the text it shows and
+ * report the results it applied with {@link #applied(HighlightResult)}.
+ *
+ * @author sebi
+ *
+ */
+public class BackgroundHighlighter {
+	/**
+	 * the number of milliseconds after which a job checks again if the source
+	 * is loaded
+	 */
+	private static final long LOAD_POLL_MILLIS = 50;
+	/**
+	 * the number of lines before and after the viewport which are tokenized and
+	 * published with it
+	 */
+	private static final int MARGIN_LINES = 200;
+	/**
+	 * the number of lines after the changed lines of an edit which are
+	 * tokenized again by the job of the edit. The rest is done while idle
+	 */
+	private static final int EDIT_LINES = 2000;
+	/**
+	 * the number of lines whose states are computed per idle job
+	 */
+	private static final int IDLE_LINES = 5000;
+	/**
+	 * the maximal number of lines whose states are computed before the
+	 * viewport is tokenized, if the viewport is behind the correct states.
+	 * Further away the viewport is tokenized with the guessed states first
+	 */
+	private static final int CATCH_UP_LINES = 50000;
+	/**
+	 * the default memory cap of the tokens in bytes
+	 */
+	public static final long DEFAULT_MEMORY_CAP = 32L << 20;
+
+	/**
+	 * the thread which runs the jobs of all highlighters
+	 */
+	private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "fxedit-highlighter");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * logger
+	 */
+	private Logger logger = LogManager.getLogger();
+
+	/**
+	 * the source
+	 */
+	private final TextBufferSource source;
+	/**
+	 * receives the results on the highlighter thread
+	 */
+	private final Consumer<HighlightResult> consumer;
+	/**
+	 * the listener which collects the edits of the source
+	 */
+	private final TextChangeListener sourceListener = this::sourceChanged;
+	/**
+	 * if a job is scheduled
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	/**
+	 * if the highlighter was disposed
+	 */
+	private volatile boolean disposed = false;
+	/**
+	 * the memory the tokens may use in bytes
+	 */
+	private volatile long memoryCap = DEFAULT_MEMORY_CAP;
+
+	// the state below is guarded by this and collects the edits for the next job
+
+	/**
+	 * the snapshot after the last collected edit or null
+	 */
+	private TextSnapshot nextSnapshot = null;
+	/**
+	 * the start of the collected edits or -1 if there are none
+	 */
+	private int editStart = -1;
+	/**
+	 * the end of the collected edits in the text of the last job
+	 */
+	private int editOldEnd;
+	/**
+	 * the end of the collected edits in the text of {@link #nextSnapshot}
+	 */
+	private int editNewEnd;
+	/**
+	 * the number of collected edits
+	 */
+	private int editCount = 0;
+	/**
+	 * the lexer of the new syntax or null
+	 */
+	private Lexer nextLexer = null;
+	/**
+	 * if the syntax was changed since the last job
+	 */
+	private boolean syntaxChanged = false;
+	/**
+	 * if the consumer asked for the tokens around the viewport again
+	 */
+	private boolean refreshRequested = false;
+	/**
+	 * the first visible line
+	 */
+	private int viewFrom = 0;
+	/**
+	 * the end of the visible lines (exclusive)
+	 */
+	private int viewTo = 1;
+
+	// the state below is only used by the highlighter thread
+
+	/**
+	 * the highlighter or null if there is no syntax
+	 */
+	private IncrementalHighlighter highlighter = null;
+	/**
+	 * the snapshot the tokens of {@link #highlighter} belong to or null
+	 */
+	private TextSnapshot base = null;
+	/**
+	 * the version of the last published result or -1
+	 */
+	private long publishedVersion = -1;
+	/**
+	 * the modification count of the highlighter when the last result was
+	 * published
+	 */
+	private long publishedModCount = -1;
+	/**
+	 * the first line of the last published result
+	 */
+	private int publishedFrom = 0;
+	/**
+	 * the end of the lines of the last published result (exclusive)
+	 */
+	private int publishedTo = 0;
+
+	/**
+	 * constructor
+	 *
+	 * @param source   the source
+	 * @param consumer receives the results on the highlighter thread
+	 */
+	public BackgroundHighlighter(TextBufferSource source, Consumer<HighlightResult> consumer) {
+		this.source = source;
+		this.consumer = consumer;
+		source.addTextChangeListener(sourceListener);
+	}
+
+	/**
+	 * Changes the syntax. The whole text is tokenized again.
+	 *
+	 * @param lexer the lexer of the syntax or null to stop highlighting
+	 */
+	public void setLexer(Lexer lexer) {
+		synchronized (this) {
+			nextLexer = lexer;
+			syntaxChanged = true;
+		}
+		schedule();
+	}
+
+	/**
+	 * Sets the visible lines. They are tokenized and published before the rest
+	 * of the text.
+	 *
+	 * @param from the first visible line
+	 * @param to   the end of the visible lines (exclusive)
+	 */
+	public void setViewport(int from, int to) {
+		synchronized (this) {
+			if (viewFrom == from && viewTo == to) {
+				return;
+			}
+			viewFrom = from;
+			viewTo = to;
+		}
+		schedule();
+	}
+
+	/**
+	 * Publishes the tokens around the viewport again, including the lines which
+	 * were already applied. It is used when the consumer replaced the text it
+	 * shows.
+	 */
+	public void refresh() {
+		synchronized (this) {
+			refreshRequested = true;
+		}
+		schedule();
+	}
+
+	/**
+	 * Sets the memory the tokens may use. The tokens of the lines furthest away
+	 * from the viewport are evicted if they use more.
+	 *
+	 * @param bytes the memory cap in bytes
+	 */
+	public void setMemoryCap(long bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("The memory cap must not be negative: " + bytes);
+		}
+		memoryCap = bytes;
+		schedule();
+	}
+
+	/**
+	 * Returns the memory the tokens may use
+	 *
+	 * @return the memory cap in bytes
+	 */
+	public long getMemoryCap() {
+		return memoryCap;
+	}
+
+	/**
+	 * Reports that the consumer applied a result
+	 *
+	 * @param result the result
+	 */
+	public void applied(HighlightResult result) {
+		executor.execute(() -> {
+			if (highlighter == null || base == null || base.getVersion() != result.getVersion()) {
+				return;
+			}
+			for (int i = 0; i < result.size(); i++) {
+				int line = result.getLine(i);
+				// the line is only clean if its tokens didn't change since the result was published
+				if (highlighter.getTokens(line) == result.getTokens(i)) {
+					highlighter.clearDirty(line);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops highlighting the source
+	 */
+	public void dispose() {
+		disposed = true;
+		source.removeTextChangeListener(sourceListener);
+	}
+
+	/**
+	 * Collects an edit of the source and schedules a job
+	 *
+	 * @param source        the source
+	 * @param from          the position of the edit
+	 * @param removedLength the number of removed chars
+	 * @param insertedText  the inserted text
+	 */
+	private void sourceChanged(TextBufferSource source, int from, int removedLength, String insertedText) {
+		try {
+			TextSnapshot snapshot = source.snapshot();
+			synchronized (this) {
+				int removedEnd = from + removedLength;
+				if (editStart < 0) {
+					editStart = from;
+					editOldEnd = removedEnd;
+					editNewEnd = from + insertedText.length();
+				} else {
+					// combines the edit with the collected ones
+					editOldEnd += Math.max(0, removedEnd - editNewEnd);
+					editNewEnd = Math.max(editNewEnd, removedEnd) - removedLength + insertedText.length();
+					editStart = Math.min(editStart, from);
+				}
+				editCount++;
+				nextSnapshot = snapshot;
+			}
+		} catch (Exception e) {
+			logger.error("Couldn't take a snapshot of the source \"" + source.getClass().getName() + "\"", e);
+		}
+		schedule();
+	}
+
+	/**
+	 * Schedules a job if none is scheduled
+	 */
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			executor.execute(this::run);
+		}
+	}
+
+	/**
+	 * Tokenizes the collected edits and the viewport, publishes the result and
+	 * computes the next portion of the states
+	 */
+	private void run() {
+		scheduled.set(false);
+		if (disposed) {
+			return;
+		}
+		try {
+			if (!source.doneLoading()) {
+				if (scheduled.compareAndSet(false, true)) {
+					executor.schedule(this::run, LOAD_POLL_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				return;
+			}
+			TextSnapshot snapshot;
+			int start;
+			int oldEnd;
+			int newEnd;
+			int edits;
+			int from;
+			int to;
+			boolean refresh;
+			synchronized (this) {
+				if (syntaxChanged) {
+					highlighter = nextLexer == null ? null : new IncrementalHighlighter(nextLexer);
+					base = null;
+					syntaxChanged = false;
+				}
+				snapshot = base == null ? source.snapshot() : nextSnapshot;
+				start = editStart;
+				oldEnd = editOldEnd;
+				newEnd = editNewEnd;
+				edits = editCount;
+				from = viewFrom;
+				to = viewTo;
+				refresh = refreshRequested;
+				refreshRequested = false;
+				nextSnapshot = null;
+				editStart = -1;
+				editCount = 0;
+			}
+			if (highlighter == null) {
+				base = null;
+				return;
+			}
+			if (base != null && start < 0) {
+				snapshot = base;
+			} else if (base == null || snapshot.getVersion() != base.getVersion() + edits) {
+				// the edits don't describe the difference between the snapshots
+				highlighter.reset(snapshot.lineCount());
+			} else {
+				int line = base.lineOf(start);
+				int removedLines = base.lineOf(oldEnd) - line;
+				int insertedLines = snapshot.lineOf(newEnd) - line;
+				highlighter.edit(lines(snapshot), line, removedLines, insertedLines, EDIT_LINES);
+			}
+			base = snapshot;
+			LineSource lines = lines(snapshot);
+			if (refresh) {
+				highlighter.markDirty();
+				publishedModCount = -1;
+			}
+
+			int lineCount = highlighter.getLineCount();
+			int keepFrom = Math.max(0, Math.min(from, lineCount - 1) - MARGIN_LINES);
+			int keepTo = Math.min(lineCount, Math.max(to, keepFrom) + MARGIN_LINES);
+			int missing = keepFrom - highlighter.getValidStates();
+			if (missing > 0 && missing <= CATCH_UP_LINES) {
+				// close enough to compute the correct states of the viewport right away
+				highlighter.advance(lines, missing);
+			}
+			highlighter.tokenize(lines, keepFrom, keepTo);
+			long cap = memoryCap;
+			if (highlighter.getTokenBytes() > cap) {
+				// evicts a bit more, so the next lines don't evict again
+				highlighter.evict(keepFrom, keepTo, cap - cap / 4);
+			}
+			publish(snapshot, keepFrom, keepTo);
+
+			if (highlighter.advance(lines, IDLE_LINES)) {
+				schedule();
+			} else if (highlighter.getModCount() != publishedModCount) {
+				// the last portion fixed tokens around the viewport
+				publish(snapshot, keepFrom, keepTo);
+			}
+		} catch (Exception e) {
+			logger.error("Couldn't highlight the source \"" + source.getClass().getName() + "\"", e);
+		}
+	}
+
+	/**
+	 * Publishes the tokens of the lines in the given range which weren't applied
+	 * yet. Nothing is published if nothing changed since the last result.
+	 *
+	 * @param snapshot the snapshot the tokens belong to
+	 * @param from     the first line
+	 * @param to       the end of the lines (exclusive)
+	 */
+	private void publish(TextSnapshot snapshot, int from, int to) {
+		if (publishedVersion == snapshot.getVersion() && publishedModCount == highlighter.getModCount()
+				&& publishedFrom == from && publishedTo == to) {
+			return;
+		}
+		BitSet dirty = highlighter.getDirty();
+		int count = 0;
+		for (int line = dirty.nextSetBit(from); line >= 0 && line < to; line = dirty.nextSetBit(line + 1)) {
+			if (highlighter.getTokens(line) != null) {
+				count++;
+			}
+		}
+		int[] resultLines = new int[count];
+		int[][] tokens = new int[count][];
+		int[] lengths = new int[count];
+		int lineCount = highlighter.getLineCount();
+		int i = 0;
+		for (int line = dirty.nextSetBit(from); line >= 0 && line < to; line = dirty.nextSetBit(line + 1)) {
+			int[] lineTokens = highlighter.getTokens(line);
+			if (lineTokens == null) {
+				continue;
+			}
+			int end = line + 1 < lineCount ? snapshot.lineStart(line + 1) - 1 : snapshot.length();
+			resultLines[i] = line;
+			tokens[i] = lineTokens;
+			lengths[i] = end - snapshot.lineStart(line);
+			i++;
+		}
+		publishedVersion = snapshot.getVersion();
+		publishedModCount = highlighter.getModCount();
+		publishedFrom = from;
+		publishedTo = to;
+		if (count > 0) {
+			consumer.accept(new HighlightResult(highlighter.getLexer().getSyntax(), snapshot.getVersion(), lineCount,
+					resultLines, tokens, lengths));
+		}
+	}
+
+	/**
+	 * Returns the lines of a snapshot
+	 *
+	 * @param snapshot the snapshot
+	 * @return the lines
+	 */
+	private static LineSource lines(TextSnapshot snapshot) {
+		return new LineSource() {
+			@Override
+			public int lineCount() {
+				return snapshot.lineCount();
+			}
+
+			@Override
+			public CharSequence getLine(int line) {
+				return snapshot.getLine(line);
+			}
+		};
+	}
+
+	/**
+	 * The tokens of some lines of a version of the text
+	 *
+	 * @author sebi
+	 *
+	 */
+	public static final class HighlightResult {
+		/**
+		 * the syntax whose rules the tokens refer to
+		 */
+		private final SyntaxModel syntax;
+		/**
+		 * the version of the text
+		 */
+		private final long version;
+		/**
+		 * the number of lines of the text
+		 */
+		private final int lineCount;
+		/**
+		 * the lines in ascending order
+		 */
+		private final int[] lines;
+		/**
+		 * the tokens of the lines (see {@link IncrementalHighlighter#getTokens(int)})
+		 */
+		private final int[][] tokens;
+		/**
+		 * the lengths of the lines without the line feed
+		 */
+		private final int[] lineLengths;
+
+		/**
+		 * constructor
+		 *
+		 * @param syntax      the syntax whose rules the tokens refer to
+		 * @param version     the version of the text
+		 * @param lineCount   the number of lines of the text
+		 * @param lines       the lines in ascending order
+		 * @param tokens      the tokens of the lines
+		 * @param lineLengths the lengths of the lines without the line feed
+		 */
+		private HighlightResult(SyntaxModel syntax, long version, int lineCount, int[] lines, int[][] tokens,
+				int[] lineLengths) {
+			this.syntax = syntax;
+			this.version = version;
+			this.lineCount = lineCount;
+			this.lines = lines;
+			this.tokens = tokens;
+			this.lineLengths = lineLengths;
+		}
+
+		/**
+		 * Returns the syntax whose rules the tokens refer to
+		 *
+		 * @return the syntax
+		 */
+		public SyntaxModel getSyntax() {
+			return syntax;
+		}
+
+		/**
+		 * Returns the version of the text
+		 *
+		 * @return the version
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * Returns the number of lines of the text
+		 *
+		 * @return the number of lines
+		 */
+		public int getLineCount() {
+			return lineCount;
+		}
+
+		/**
+		 * Returns the number of lines in the result
+		 *
+		 * @return the number of lines
+		 */
+		public int size() {
+			return lines.length;
+		}
+
+		/**
+		 * Returns a line of the result
+		 *
+		 * @param index the index in the result
+		 * @return the line
+		 */
+		public int getLine(int index) {
+			return lines[index];
+		}
+
+		/**
+		 * Returns the tokens of a line of the result (see
+		 * {@link IncrementalHighlighter#getTokens(int)})
+		 *
+		 * @param index the index in the result
+		 * @return the tokens
+		 */
+		public int[] getTokens(int index) {
+			return tokens[index];
+		}
+
+		/**
+		 * Returns the length of a line of the result without the line feed
+		 *
+		 * @param index the index in the result
+		 * @return the length
+		 */
+		public int getLineLength(int index) {
+			return lineLengths[index];
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package ch.sebi.fxedit.model.syntax;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.sebi.fxedit.model.syntax.SyntaxModel.Rule;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+
+/**
+ * Reads and writes the binary form of a syntax. A compiled grammar is loaded
+ * by mapping the file and reading the tables, nothing has to be parsed.<br>
+ * The file starts with the magic number and the version of the format,
+ * followed by the string table (the count and every string as its length and
+ * its UTF-8 bytes), the color table (the count and every color as RGBA) and
+ * the rule table (the count and every rule as the index of its scope, regex
+ * and end regex in the string table and the index of its color). Missing
+ * scopes and end regexes are stored as -1. Strings and colors which are used
+ * by multiple rules are stored once.<br>
+ * The {@link #main(String[])} method compiles a syntax or grammar file:
+ *
+ * <pre>
+ * CompiledGrammar &lt;input file&gt; [&lt;output file&gt;]
+ * </pre>
+ *
+ * @author sebi
+ *
+ */
+public final class CompiledGrammar {
+	/**
+	 * the file extension of compiled grammars
+	 */
+	public static final String EXTENSION = ".grammarc";
+	/**
+	 * the magic number at the start of the file ("FXSG")
+	 */
+	private static final int MAGIC = 0x46585347;
+	/**
+	 * the version of the format
+	 */
+	private static final int VERSION = 1;
+
+	private CompiledGrammar() {
+	}
+
+	/**
+	 * Compiles a syntax or grammar file. The output file defaults to the input
+	 * file with the extension {@value #EXTENSION}
+	 *
+	 * @param args the input file and optionally the output file
+	 * @throws IOException if a file couldn't be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("usage: CompiledGrammar <input file> [<output file>]");
+			System.exit(1);
+		}
+		File in = new File(args[0]);
+		Path out;
+		if (args.length == 2) {
+			out = Paths.get(args[1]);
+		} else {
+			String name = in.getName();
+			int dot = name.lastIndexOf('.');
+			out = in.toPath().resolveSibling((dot < 0 ? name : name.substring(0, dot)) + EXTENSION);
+		}
+		SyntaxModel model = SyntaxModel.load(in);
+		write(model, out);
+		System.out.println("Compiled " + model.getRules().size() + " rules into \"" + out + "\"");
+	}
+
+	/**
+	 * Writes the binary form of a syntax
+	 *
+	 * @param model the syntax. All colors have to be a {@link Color}
+	 * @param out   the file
+	 * @throws IOException if the file couldn't be written
+	 */
+	public static void write(SyntaxModel model, Path out) throws IOException {
+		List<Rule> rules = model.getRules();
+		List<String> strings = new ArrayList<>();
+		Map<String, Integer> indices = new HashMap<>();
+		List<Integer> colors = new ArrayList<>();
+		Map<Integer, Integer> colorIndices = new HashMap<>();
+		int[] table = new int[rules.size() * 4];
+		for (int i = 0; i < rules.size(); i++) {
+			Rule rule = rules.get(i);
+			Paint paint = rule.getPaint();
+			if (!(paint instanceof Color)) {
+				throw new IllegalArgumentException("Only colors can be compiled, the rule \"" + rule.getRegex()
+						+ "\" uses " + paint);
+			}
+			table[i * 4] = intern(rule.getScope(), strings, indices);
+			table[i * 4 + 1] = intern(rule.getRegex(), strings, indices);
+			table[i * 4 + 2] = intern(rule.getEndRegex(), strings, indices);
+			table[i * 4 + 3] = colorIndices.computeIfAbsent(toRgba((Color) paint), rgba -> {
+				colors.add(rgba);
+				return colors.size() - 1;
+			});
+		}
+		List<byte[]> encoded = new ArrayList<>(strings.size());
+		int size = 5 * 4 + colors.size() * 4 + table.length * 4;
+		for (String string : strings) {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			encoded.add(bytes);
+			size += 4 + bytes.length;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(encoded.size());
+		for (byte[] bytes : encoded) {
+			buffer.putInt(bytes.length);
+			buffer.put(bytes);
+		}
+		buffer.putInt(colors.size());
+		for (int rgba : colors) {
+			buffer.putInt(rgba);
+		}
+		buffer.putInt(rules.size());
+		for (int value : table) {
+			buffer.putInt(value);
+		}
+		buffer.flip();
+		Path tmp = out.resolveSibling(out.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		// the file is replaced at once, so the syntax cache never reads half a file
+		try {
+			Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Loads a compiled grammar
+	 *
+	 * @param in the file
+	 * @return the syntax model
+	 * @throws IOException if the file couldn't be read or isn't a compiled
+	 *                     grammar
+	 */
+	public static SyntaxModel load(Path in) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(in, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("\"" + in + "\" isn't a compiled grammar");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException("The compiled grammar \"" + in + "\" has the unsupported version " + version);
+			}
+			String[] strings = new String[buffer.getInt()];
+			for (int i = 0; i < strings.length; i++) {
+				int length = buffer.getInt();
+				ByteBuffer bytes = buffer.slice();
+				bytes.limit(length);
+				strings[i] = StandardCharsets.UTF_8.decode(bytes).toString();
+				buffer.position(buffer.position() + length);
+			}
+			Color[] colors = new Color[buffer.getInt()];
+			for (int i = 0; i < colors.length; i++) {
+				colors[i] = fromRgba(buffer.getInt());
+			}
+			SyntaxModel model = new SyntaxModel();
+			int ruleCount = buffer.getInt();
+			for (int i = 0; i < ruleCount; i++) {
+				String scope = string(strings, buffer.getInt());
+				String regex = string(strings, buffer.getInt());
+				String endRegex = string(strings, buffer.getInt());
+				Color color = colors[buffer.getInt()];
+				if (regex == null) {
+					throw new IOException("The rule " + i + " of the compiled grammar \"" + in + "\" has no regex");
+				}
+				if (endRegex == null) {
+					model.addRule(scope, regex, color);
+				} else {
+					model.addRegion(scope, regex, endRegex, color);
+				}
+			}
+			return model;
+		} catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+			throw new IOException("The compiled grammar \"" + in + "\" is corrupted", e);
+		}
+	}
+
+	/**
+	 * Returns the index of a string in the string table and adds it if it isn't
+	 * in the table yet
+	 *
+	 * @param string  the string or null
+	 * @param strings the string table
+	 * @param indices the indices of the strings in the table
+	 * @return the index or -1 for null
+	 */
+	private static int intern(String string, List<String> strings, Map<String, Integer> indices) {
+		if (string == null) {
+			return -1;
+		}
+		Integer index = indices.get(string);
+		if (index == null) {
+			index = strings.size();
+			strings.add(string);
+			indices.put(string, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns a string of the string table
+	 *
+	 * @param strings the string table
+	 * @param index   the index or -1
+	 * @return the string or null for -1
+	 */
+	private static String string(String[] strings, int index) {
+		return index == -1 ? null : strings[index];
+	}
+
+	/**
+	 * Packs a color into an int
+	 *
+	 * @param color the color
+	 * @return the color as RGBA with 8 bits per channel
+	 */
+	private static int toRgba(Color color) {
+		return (int) Math.round(color.getRed() * 255) << 24 | (int) Math.round(color.getGreen() * 255) << 16
+				| (int) Math.round(color.getBlue() * 255) << 8 | (int) Math.round(color.getOpacity() * 255);
+	}
+
+	/**
+	 * Unpacks a color
+	 *
+	 * @param rgba the color as RGBA with 8 bits per channel
+	 * @return the color
+	 */
+	private static Color fromRgba(int rgba) {
+		return Color.rgb(rgba >>> 24, rgba >>> 16 & 0xFF, rgba >>> 8 & 0xFF, (rgba & 0xFF) / 255.0);
+	}
+}
@@ -0,0 +1,166 @@
+package ch.sebi.fxedit.model.syntax;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Loads grammar files. A grammar file declares the colors of scopes and rules
+ * which belong to a scope. Every line is one declaration, empty lines and lines
+ * starting with "#" are ignored:
+ *
+ * <pre>
+ * scope &lt;scope&gt; &lt;color&gt;
+ * match &lt;scope&gt; &lt;regex&gt;
+ * region &lt;scope&gt; &lt;begin regex&gt;
+ * end &lt;end regex&gt;
+ * </pre>
+ *
+ * A regex is the rest of the line, so it may contain spaces. A region is
+ * always followed by its end. Scopes are dotted names like "comment.block". A
+ * rule gets the color of its scope or of the longest declared prefix of its
+ * scope ("comment" for "comment.block"). Colors are css colors (see
+ * {@link SyntaxModel#getColor(String)}). The rules are kept in the order they
+ * are declared.
+ *
+ * @author sebi
+ *
+ */
+public final class GrammarFile {
+	/**
+	 * the file extension of grammar files
+	 */
+	public static final String EXTENSION = ".grammar";
+
+	private GrammarFile() {
+	}
+
+	/**
+	 * Loads a grammar file
+	 *
+	 * @param f the file
+	 * @return the syntax model
+	 * @throws IOException if the file couldn't be read
+	 */
+	public static SyntaxModel load(File f) throws IOException {
+		Map<String, Color> colors = new HashMap<>();
+		SyntaxModel model = new SyntaxModel();
+		try (BufferedReader reader = Files.newBufferedReader(f.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			int number = 0;
+			String regionScope = null;
+			String regionBegin = null;
+			while ((line = reader.readLine()) != null) {
+				number++;
+				String trimmed = line.trim();
+				if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+					continue;
+				}
+				String[] parts = trimmed.split("\\s+", 3);
+				String keyword = parts[0];
+				if (regionBegin != null && !keyword.equals("end")) {
+					throw error(f, number, "the region \"" + regionScope + "\" needs an end");
+				}
+				switch (keyword) {
+				case "scope":
+					if (parts.length < 3) {
+						throw error(f, number, "expected \"scope <scope> <color>\"");
+					}
+					try {
+						colors.put(parts[1], SyntaxModel.getColor(parts[2]));
+					} catch (IllegalArgumentException e) {
+						throw error(f, number, e.getMessage());
+					}
+					break;
+				case "match":
+					if (parts.length < 3) {
+						throw error(f, number, "expected \"match <scope> <regex>\"");
+					}
+					model.addRule(parts[1], parts[2], resolve(colors, parts[1], f, number));
+					break;
+				case "region":
+					if (parts.length < 3) {
+						throw error(f, number, "expected \"region <scope> <begin regex>\"");
+					}
+					resolve(colors, parts[1], f, number);
+					regionScope = parts[1];
+					regionBegin = parts[2];
+					break;
+				case "end":
+					if (regionBegin == null) {
+						throw error(f, number, "\"end\" without a region");
+					}
+					// the end regex is the rest of the line after the keyword
+					String end = trimmed.substring(keyword.length()).trim();
+					if (end.isEmpty()) {
+						throw error(f, number, "expected \"end <end regex>\"");
+					}
+					model.addRegion(regionScope, regionBegin, end, colors.get(scopeOf(colors, regionScope)));
+					regionScope = null;
+					regionBegin = null;
+					break;
+				default:
+					throw error(f, number, "unknown declaration \"" + keyword + "\"");
+				}
+			}
+			if (regionBegin != null) {
+				throw error(f, number, "the region \"" + regionScope + "\" needs an end");
+			}
+		}
+		return model;
+	}
+
+	/**
+	 * Returns the color of a scope
+	 *
+	 * @param colors the colors of the declared scopes
+	 * @param scope  the scope
+	 * @param f      the file, for the error message
+	 * @param line   the line, for the error message
+	 * @return the color
+	 */
+	private static Color resolve(Map<String, Color> colors, String scope, File f, int line) {
+		String declared = scopeOf(colors, scope);
+		if (declared == null) {
+			throw error(f, line, "the scope \"" + scope + "\" has no color");
+		}
+		return colors.get(declared);
+	}
+
+	/**
+	 * Returns the declared scope whose color is used for a scope
+	 *
+	 * @param colors the colors of the declared scopes
+	 * @param scope  the scope
+	 * @return the scope itself or its longest declared prefix or null
+	 */
+	private static String scopeOf(Map<String, Color> colors, String scope) {
+		String current = scope;
+		while (!colors.containsKey(current)) {
+			int dot = current.lastIndexOf('.');
+			if (dot < 0) {
+				return null;
+			}
+			current = current.substring(0, dot);
+		}
+		return current;
+	}
+
+	/**
+	 * Creates the exception for an invalid declaration
+	 *
+	 * @param f       the file
+	 * @param line    the line of the declaration
+	 * @param message the message
+	 * @return the exception
+	 */
+	private static IllegalArgumentException error(File f, int line, String message) {
+		return new IllegalArgumentException("Invalid grammar file \"" + f + "\" at line " + line + ": " + message);
+	}
+}
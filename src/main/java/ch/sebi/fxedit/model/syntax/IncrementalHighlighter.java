@@ -0,0 +1,460 @@
+package ch.sebi.fxedit.model.syntax;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Keeps the lexer state at the start of every line of a document and the
+ * tokens of some of the lines. Tokens are only created for the lines which are
+ * asked for (usually the visible ones) and can be evicted again, the states
+ * are cheap and kept for all lines.<br>
+ * The states are computed lazily from the start of the document: the states
+ * of the first {@link #getValidStates()} lines are known to be correct, the
+ * others are guesses from before an edit. {@link #advance(LineSource, int)}
+ * extends the correct states in portions and fixes the tokens of the lines on
+ * the way. Tokens of a line behind the correct states are computed with the
+ * guessed state, so a line can be shown at once and is corrected later.<br>
+ * After an edit only the changed lines are tokenized again, followed by the
+ * lines whose start state changed until the state is the same as before (for
+ * example until the end of a block comment which was opened by the edit).<br>
+ * Every line whose tokens changed is marked as dirty until
+ * {@link #clearDirty(int)} is called.
+ *
+ * @author sebi
+ *
+ */
+public class IncrementalHighlighter {
+	/**
+	 * the tokens of a line without tokens
+	 */
+	private static final int[] NO_TOKENS = new int[0];
+	/**
+	 * the estimated size of the tokens of a line without its tokens in bytes
+	 */
+	private static final int LINE_BYTES = 24;
+	/**
+	 * the size of a token in bytes
+	 */
+	private static final int TOKEN_BYTES = 12;
+
+	/**
+	 * the lexer
+	 */
+	private final Lexer lexer;
+	/**
+	 * the lexer state at the start of every line. There is one more state than
+	 * lines, the last one is the state at the end of the document
+	 */
+	private int[] states = new int[17];
+	/**
+	 * the tokens of every line or null if the line isn't tokenized. A token is
+	 * stored as three ints: start, end (exclusive) and the index of the rule
+	 */
+	private int[][] tokens = new int[16][];
+	/**
+	 * the number of lines
+	 */
+	private int lineCount = 1;
+	/**
+	 * the number of states from the start which are correct. The first state is
+	 * always correct
+	 */
+	private int validStates = 1;
+	/**
+	 * the lines whose tokens changed since they were last cleared
+	 */
+	private BitSet dirty = new BitSet();
+	/**
+	 * the estimated size of all tokens in bytes
+	 */
+	private long tokenBytes = 0;
+	/**
+	 * the number of times the tokens of a line were stored
+	 */
+	private long modCount = 0;
+	/**
+	 * the tokens of the line which is tokenized right now
+	 */
+	private int[] lineTokens = new int[48];
+	/**
+	 * the number of ints in {@link #lineTokens}
+	 */
+	private int lineTokenCount = 0;
+
+	/**
+	 * Creates a highlighter for an empty document
+	 *
+	 * @param lexer the lexer
+	 */
+	public IncrementalHighlighter(Lexer lexer) {
+		this.lexer = lexer;
+	}
+
+	/**
+	 * Returns the lexer
+	 *
+	 * @return the lexer
+	 */
+	public Lexer getLexer() {
+		return lexer;
+	}
+
+	/**
+	 * Returns the number of lines
+	 *
+	 * @return the number of lines
+	 */
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * Returns the number of lines from the start whose start state is known to
+	 * be correct
+	 *
+	 * @return the number of lines with a correct state
+	 */
+	public int getValidStates() {
+		return Math.min(validStates, lineCount);
+	}
+
+	/**
+	 * Returns if all states are correct
+	 *
+	 * @return if all states are correct
+	 */
+	public boolean isComplete() {
+		return validStates > lineCount;
+	}
+
+	/**
+	 * Returns the tokens of a line. A token is stored as three ints: start, end
+	 * (exclusive) and the index of the rule. The array must not be changed.
+	 *
+	 * @param line the line
+	 * @return the tokens or null if the line isn't tokenized
+	 */
+	public int[] getTokens(int line) {
+		if (line < 0 || line >= lineCount) {
+			throw new IndexOutOfBoundsException("line: " + line + ", line count: " + lineCount);
+		}
+		return tokens[line];
+	}
+
+	/**
+	 * Returns the estimated memory used by the tokens
+	 *
+	 * @return the size in bytes
+	 */
+	public long getTokenBytes() {
+		return tokenBytes;
+	}
+
+	/**
+	 * Returns the number of times the tokens of a line were stored. It can be
+	 * used to check if any tokens changed.
+	 *
+	 * @return the modification count
+	 */
+	public long getModCount() {
+		return modCount;
+	}
+
+	/**
+	 * Returns the lines whose tokens changed since they were last cleared
+	 *
+	 * @return the dirty lines. The set must not be changed
+	 */
+	public BitSet getDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Clears the dirty mark of a line
+	 *
+	 * @param line the line
+	 */
+	public void clearDirty(int line) {
+		dirty.clear(line);
+	}
+
+	/**
+	 * Marks all lines dirty, so the tokens which are kept are published again
+	 */
+	public void markDirty() {
+		dirty.set(0, lineCount);
+	}
+
+	/**
+	 * Forgets all tokens and states, for example after the whole text was
+	 * replaced. Nothing is tokenized.
+	 *
+	 * @param lineCount the number of lines of the new text
+	 */
+	public void reset(int lineCount) {
+		this.lineCount = lineCount;
+		states = new int[lineCount + 1];
+		tokens = new int[lineCount][];
+		validStates = 1;
+		dirty.clear();
+		tokenBytes = 0;
+	}
+
+	/**
+	 * Updates the tokens after an edit, which replaced the lines [line, line +
+	 * removedLines] with the lines [line, line + insertedLines]. The lines are
+	 * read from the source, which already contains the edit. The changed lines
+	 * are tokenized, afterwards the following lines until their state didn't
+	 * change or maxLines lines were tokenized. The rest is done by
+	 * {@link #advance(LineSource, int)}.
+	 *
+	 * @param source        the lines of the document
+	 * @param line          the first changed line
+	 * @param removedLines  the number of removed line feeds
+	 * @param insertedLines the number of inserted line feeds
+	 * @param maxLines      the maximal number of lines which are tokenized after
+	 *                      the changed lines
+	 */
+	public void edit(LineSource source, int line, int removedLines, int insertedLines, int maxLines) {
+		if (line < 0 || line + removedLines >= lineCount) {
+			throw new IndexOutOfBoundsException(
+					"lines: [" + line + ", " + (line + removedLines) + "], line count: " + lineCount);
+		}
+		int delta = insertedLines - removedLines;
+		int tail = line + removedLines + 1;
+		for (int i = line; i < tail; i++) {
+			forget(i);
+		}
+		ensureCapacity(lineCount + delta);
+		System.arraycopy(states, tail, states, tail + delta, lineCount + 1 - tail);
+		System.arraycopy(tokens, tail, tokens, tail + delta, lineCount - tail);
+		if (delta > 0) {
+			Arrays.fill(tokens, tail, tail + delta, null);
+		} else if (delta < 0) {
+			Arrays.fill(tokens, lineCount + delta, lineCount, null);
+		}
+		shiftDirty(tail, delta);
+		lineCount += delta;
+		int changedEnd = line + insertedLines + 1;
+		// the states behind the changed lines stay correct if the state after the
+		// changed lines is the same as before
+		int oldValid = validStates > tail ? validStates + delta : 0;
+		validStates = Math.min(validStates, line + 1);
+		// the states of the changed lines are only guesses
+		for (int i = line + 1; i < changedEnd; i++) {
+			states[i] = states[line];
+		}
+		if (line >= validStates) {
+			// behind the correct states, the changed lines are tokenized with a guess
+			tokenize(source, line, changedEnd);
+			return;
+		}
+		// the changed lines start with a correct state
+		int current = line;
+		int limit = changedEnd + maxLines;
+		while (current < lineCount) {
+			boolean keepTokens = current < changedEnd || tokens[current] != null;
+			int state = lex(source, current, keepTokens);
+			current++;
+			boolean same = states[current] == state;
+			states[current] = state;
+			validStates = current + 1;
+			if (current >= changedEnd && same && current < oldValid) {
+				// the rest is unchanged
+				validStates = oldValid;
+				break;
+			}
+			if (current >= limit) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Tokenizes the lines of the range which aren't tokenized yet. Lines behind
+	 * the correct states are tokenized with the guessed state.
+	 *
+	 * @param source the lines of the document
+	 * @param from   the first line
+	 * @param to     the end of the lines (exclusive)
+	 */
+	public void tokenize(LineSource source, int from, int to) {
+		from = Math.max(0, from);
+		to = Math.min(to, lineCount);
+		for (int line = from; line < to; line++) {
+			if (tokens[line] != null) {
+				continue;
+			}
+			int state = lex(source, line, true);
+			if (line + 1 >= validStates) {
+				// the state after the line is at least as good as the guess
+				states[line + 1] = state;
+				if (line + 1 == validStates) {
+					validStates++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Extends the correct states by up to maxLines lines. The lines which are
+	 * tokenized get their tokens fixed.
+	 *
+	 * @param source   the lines of the document
+	 * @param maxLines the maximal number of lines
+	 * @return if there are still states which aren't known to be correct
+	 */
+	public boolean advance(LineSource source, int maxLines) {
+		for (int i = 0; i < maxLines && validStates <= lineCount; i++) {
+			int line = validStates - 1;
+			states[line + 1] = lex(source, line, tokens[line] != null);
+			validStates++;
+		}
+		return !isComplete();
+	}
+
+	/**
+	 * Evicts the tokens of the lines which are furthest away from the given
+	 * range until the tokens use at most the given memory
+	 *
+	 * @param keepFrom the first line whose tokens are kept
+	 * @param keepTo   the end of the lines whose tokens are kept (exclusive)
+	 * @param maxBytes the memory the tokens may use
+	 */
+	public void evict(int keepFrom, int keepTo, long maxBytes) {
+		int low = 0;
+		int high = lineCount - 1;
+		while (tokenBytes > maxBytes && (low < keepFrom || high >= keepTo)) {
+			if (low < keepFrom && (high < keepTo || keepFrom - low >= high - keepTo)) {
+				forget(low++);
+			} else {
+				forget(high--);
+			}
+		}
+	}
+
+	/**
+	 * Tokenizes a line with its stored start state
+	 *
+	 * @param source     the lines of the document
+	 * @param line       the line
+	 * @param keepTokens if the tokens are stored
+	 * @return the state at the end of the line
+	 */
+	private int lex(LineSource source, int line, boolean keepTokens) {
+		lineTokenCount = 0;
+		int state = lexer.tokenize(source.getLine(line), states[line], this::addToken);
+		if (keepTokens) {
+			if (!sameTokens(tokens[line])) {
+				forget(line);
+				int[] lineResult = lineTokenCount == 0 ? NO_TOKENS : Arrays.copyOf(lineTokens, lineTokenCount);
+				tokens[line] = lineResult;
+				tokenBytes += LINE_BYTES + (long) lineResult.length / 3 * TOKEN_BYTES;
+				modCount++;
+				dirty.set(line);
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Returns if the tokens of the current line are the same as the given ones
+	 *
+	 * @param old the tokens or null
+	 * @return if they are the same
+	 */
+	private boolean sameTokens(int[] old) {
+		if (old == null || old.length != lineTokenCount) {
+			return false;
+		}
+		for (int i = 0; i < lineTokenCount; i++) {
+			if (old[i] != lineTokens[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the tokens of a line
+	 *
+	 * @param line the line
+	 */
+	private void forget(int line) {
+		int[] old = tokens[line];
+		if (old != null) {
+			tokenBytes -= LINE_BYTES + (long) old.length / 3 * TOKEN_BYTES;
+			tokens[line] = null;
+		}
+		dirty.clear(line);
+	}
+
+	/**
+	 * Adds a token of the current line
+	 *
+	 * @param start the start of the token
+	 * @param end   the end of the token (exclusive)
+	 * @param rule  the index of the rule
+	 */
+	private void addToken(int start, int end, int rule) {
+		if (lineTokenCount + 3 > lineTokens.length) {
+			lineTokens = Arrays.copyOf(lineTokens, lineTokens.length * 2);
+		}
+		lineTokens[lineTokenCount++] = start;
+		lineTokens[lineTokenCount++] = end;
+		lineTokens[lineTokenCount++] = rule;
+	}
+
+	/**
+	 * Moves the dirty marks from the given line on
+	 *
+	 * @param from  the first line which is moved
+	 * @param delta the number of lines they are moved
+	 */
+	private void shiftDirty(int from, int delta) {
+		if (delta == 0 || dirty.nextSetBit(from) < 0) {
+			return;
+		}
+		BitSet moved = dirty.get(from, Math.max(from, dirty.length()));
+		dirty.clear(Math.max(0, from + Math.min(0, delta)), dirty.length());
+		for (int i = moved.nextSetBit(0); i >= 0; i = moved.nextSetBit(i + 1)) {
+			dirty.set(from + delta + i);
+		}
+	}
+
+	/**
+	 * Grows the arrays, so they can hold the given number of lines
+	 *
+	 * @param capacity the number of lines
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > tokens.length) {
+			int newCapacity = Math.max(capacity, tokens.length + (tokens.length >> 1));
+			states = Arrays.copyOf(states, newCapacity + 1);
+			tokens = Arrays.copyOf(tokens, newCapacity);
+		}
+	}
+
+	/**
+	 * The lines of a document
+	 *
+	 * @author sebi
+	 *
+	 */
+	public interface LineSource {
+		/**
+		 * Returns the number of lines
+		 *
+		 * @return the number of lines
+		 */
+		int lineCount();
+
+		/**
+		 * Returns a line without its line feed
+		 *
+		 * @param line the line
+		 * @return the text of the line
+		 */
+		CharSequence getLine(int line);
+	}
+}
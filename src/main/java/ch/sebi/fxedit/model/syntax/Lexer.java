@@ -0,0 +1,171 @@
+package ch.sebi.fxedit.model.syntax;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ch.sebi.fxedit.model.syntax.SyntaxModel.Rule;
+
+/**
+ * Tokenizes lines with the rules of a {@link SyntaxModel}. All rules are
+ * compiled into one pattern with a named group per rule, so a line is scanned
+ * once instead of once per rule.<br>
+ * A line is tokenized with the state at its start and returns the state at its
+ * end. The state is {@link #DEFAULT_STATE} or the index of an unfinished
+ * region plus one.
+ *
+ * @author sebi
+ *
+ */
+public class Lexer {
+	/**
+	 * the state outside of a region
+	 */
+	public static final int DEFAULT_STATE = 0;
+
+	/**
+	 * the syntax
+	 */
+	private final SyntaxModel syntax;
+
+	/**
+	 * the combined pattern of all rules
+	 */
+	private final Pattern pattern;
+	/**
+	 * the group number of every rule in the combined pattern
+	 */
+	private final int[] groups;
+	/**
+	 * the end pattern of every region or null for the rules which aren't regions
+	 */
+	private final Pattern[] ends;
+
+	/**
+	 * Compiles the rules of the syntax
+	 *
+	 * @param syntax the syntax
+	 */
+	public Lexer(SyntaxModel syntax) {
+		this.syntax = syntax;
+		List<Rule> rules = syntax.getRules();
+		groups = new int[rules.size()];
+		ends = new Pattern[rules.size()];
+		StringBuilder combined = new StringBuilder();
+		int group = 1;
+		for (int i = 0; i < rules.size(); i++) {
+			Rule rule = rules.get(i);
+			// every rule is compiled on its own first, so an invalid regex is reported with its rule
+			Pattern rulePattern = Pattern.compile(rule.getRegex());
+			if (i > 0) {
+				combined.append('|');
+			}
+			combined.append("(?<r").append(i).append('>').append(rule.getRegex()).append(')');
+			groups[i] = group;
+			group += 1 + rulePattern.matcher("").groupCount();
+			if (rule.isRegion()) {
+				ends[i] = Pattern.compile(rule.getEndRegex());
+			}
+		}
+		pattern = rules.isEmpty() ? null : Pattern.compile(combined.toString());
+	}
+
+	/**
+	 * Returns the syntax
+	 *
+	 * @return the syntax
+	 */
+	public SyntaxModel getSyntax() {
+		return syntax;
+	}
+
+	/**
+	 * Returns the number of rules
+	 *
+	 * @return the number of rules
+	 */
+	public int getRuleCount() {
+		return groups.length;
+	}
+
+	/**
+	 * Tokenizes a line. The tokens are passed in their order to the consumer.
+	 *
+	 * @param line     the line without the line feed
+	 * @param state    the state at the start of the line
+	 * @param consumer the consumer of the tokens
+	 * @return the state at the end of the line
+	 */
+	public int tokenize(CharSequence line, int state, TokenConsumer consumer) {
+		int pos = 0;
+		if (state != DEFAULT_STATE) {
+			int region = state - 1;
+			Matcher end = ends[region].matcher(line);
+			if (!end.find()) {
+				consumer.token(0, line.length(), region);
+				return state;
+			}
+			consumer.token(0, end.end(), region);
+			pos = end.end();
+		}
+		if (pattern == null) {
+			return DEFAULT_STATE;
+		}
+		Matcher matcher = pattern.matcher(line);
+		while (pos < line.length() && matcher.find(pos)) {
+			int start = matcher.start();
+			int rule = matchedRule(matcher);
+			if (matcher.end() == start) {
+				// an empty match doesn't produce a token
+				pos = start + 1;
+				continue;
+			}
+			if (ends[rule] != null) {
+				Matcher end = ends[rule].matcher(line);
+				if (!end.find(matcher.end())) {
+					consumer.token(start, line.length(), rule);
+					return rule + 1;
+				}
+				consumer.token(start, end.end(), rule);
+				pos = end.end();
+			} else {
+				consumer.token(start, matcher.end(), rule);
+				pos = matcher.end();
+			}
+		}
+		return DEFAULT_STATE;
+	}
+
+	/**
+	 * Returns the rule whose group matched
+	 *
+	 * @param matcher the matcher after a successful find
+	 * @return the index of the rule
+	 */
+	private int matchedRule(Matcher matcher) {
+		for (int i = 0; i < groups.length; i++) {
+			if (matcher.start(groups[i]) != -1) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("No rule matched");
+	}
+
+	/**
+	 * Receives the tokens of a line
+	 *
+	 * @author sebi
+	 *
+	 */
+	@FunctionalInterface
+	public interface TokenConsumer {
+		/**
+		 * Receives a token
+		 *
+		 * @param start the start of the token in the line
+		 * @param end   the end of the token (exclusive)
+		 * @param rule  the index of the rule
+		 */
+		void token(int start, int end, int rule);
+	}
+}
@@ -0,0 +1,180 @@
+package ch.sebi.fxedit.model.syntax;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Caches the compiled syntax files of the whole process. A syntax file (in any
+ * format {@link SyntaxModel#load(File)} supports) is parsed and its rules
+ * compiled into a {@link Lexer} only once, all editors which use the same file
+ * share the lexer (and with it the {@link SyntaxModel} and its colors).<br>
+ * An entry is keyed by the path of the file and only used while the file has
+ * the same modification time and size. The directories of the cached files
+ * are watched, so an entry is dropped as soon as its file changes.
+ *
+ * @author sebi
+ *
+ */
+public final class SyntaxCache {
+	/**
+	 * logger
+	 */
+	private static final Logger logger = LogManager.getLogger();
+
+	/**
+	 * the cached syntax files by their absolute path
+	 */
+	private static final Map<Path, Entry> entries = new HashMap<>();
+	/**
+	 * the watched directories
+	 */
+	private static final Set<Path> watchedDirectories = new HashSet<>();
+	/**
+	 * the watcher of the directories or null if it wasn't started yet or isn't
+	 * supported
+	 */
+	private static WatchService watcher = null;
+
+	private SyntaxCache() {
+	}
+
+	/**
+	 * Returns the lexer of a syntax file. The file is only loaded if it isn't
+	 * cached or changed since it was cached.
+	 *
+	 * @param f the syntax file
+	 * @return the lexer, which may be shared with other editors
+	 * @throws IOException if the file couldn't be read
+	 */
+	public static Lexer getLexer(File f) throws IOException {
+		Path path = f.toPath().toAbsolutePath().normalize();
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		long modified = attributes.lastModifiedTime().toMillis();
+		long size = attributes.size();
+		synchronized (SyntaxCache.class) {
+			Entry entry = entries.get(path);
+			if (entry != null && entry.modified == modified && entry.size == size) {
+				return entry.lexer;
+			}
+			long start = System.nanoTime();
+			Lexer lexer = new Lexer(SyntaxModel.load(path.toFile()));
+			logger.debug("Compiled the syntax file \"" + path + "\" in " + (System.nanoTime() - start) / 1000000
+					+ " ms");
+			entries.put(path, new Entry(modified, size, lexer));
+			watch(path.getParent());
+			return lexer;
+		}
+	}
+
+	/**
+	 * Drops all cached syntax files
+	 */
+	public static synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Watches a directory for changes of the cached files in it
+	 *
+	 * @param directory the directory
+	 */
+	private static void watch(Path directory) {
+		if (directory == null || watchedDirectories.contains(directory)) {
+			return;
+		}
+		try {
+			if (watcher == null) {
+				watcher = FileSystems.getDefault().newWatchService();
+				Thread thread = new Thread(SyntaxCache::processEvents, "fxedit-syntax-watcher");
+				thread.setDaemon(true);
+				thread.start();
+			}
+			directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+			watchedDirectories.add(directory);
+		} catch (IOException | UnsupportedOperationException e) {
+			// the modification time is still checked on every access
+			logger.debug("Couldn't watch the syntax directory \"" + directory + "\"", e);
+		}
+	}
+
+	/**
+	 * Drops the entries of changed files until the watcher is closed. Runs on
+	 * the watcher thread.
+	 */
+	private static void processEvents() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watcher.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			Path directory = (Path) key.watchable();
+			synchronized (SyntaxCache.class) {
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						// the changed files are unknown
+						entries.keySet().removeIf(p -> directory.equals(p.getParent()));
+					} else if (entries.remove(directory.resolve((Path) event.context())) != null) {
+						logger.debug("The syntax file \"" + directory.resolve((Path) event.context())
+								+ "\" changed, it is compiled again when it is used the next time");
+					}
+				}
+				if (!key.reset()) {
+					watchedDirectories.remove(directory);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A compiled syntax file
+	 *
+	 * @author sebi
+	 *
+	 */
+	private static final class Entry {
+		/**
+		 * the modification time of the file in milliseconds
+		 */
+		private final long modified;
+		/**
+		 * the size of the file
+		 */
+		private final long size;
+		/**
+		 * the lexer
+		 */
+		private final Lexer lexer;
+
+		/**
+		 * constructor
+		 *
+		 * @param modified the modification time of the file in milliseconds
+		 * @param size     the size of the file
+		 * @param lexer    the lexer
+		 */
+		private Entry(long modified, long size, Lexer lexer) {
+			this.modified = modified;
+			this.size = size;
+			this.lexer = lexer;
+		}
+	}
+}
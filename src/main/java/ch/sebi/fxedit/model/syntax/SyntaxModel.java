@@ -4,37 +4,173 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
 import javafx.scene.paint.Color;
 import javafx.scene.paint.Paint;
 
+/**
+ * The rules of a syntax. A rule is a regex with a color. A region rule has a
+ * begin and an end regex and may span multiple lines, for example a block
+ * comment.<br>
+ * A syntax file is a properties file with a regex as key and a color as value.
+ * Regions are declared with the three keys "region.&lt;name&gt;.begin",
+ * "region.&lt;name&gt;.end" and "region.&lt;name&gt;.color". If multiple rules
+ * match at the same position, the rule which was declared first wins.<br>
+ * Larger syntaxes can be written as a grammar file with scopes (see
+ * {@link GrammarFile}) and compiled into a binary file, which loads faster (see
+ * {@link CompiledGrammar}). {@link #load(File)} loads all three formats.
+ *
+ * @author sebi
+ *
+ */
 public class SyntaxModel {
-	private Map<String, Paint> colors = new HashMap<>();
-	
+	/**
+	 * the prefix of the keys of a region in a syntax file
+	 */
+	private static final String REGION_PREFIX = "region.";
+
+	/**
+	 * the rules in the order they were added
+	 */
+	private List<Rule> rules = new ArrayList<>();
+
 	public SyntaxModel() {
-		
+
 	}
-	
+
+	/**
+	 * Adds a rule
+	 *
+	 * @param regex the regex
+	 * @param paint the color of the matched text
+	 */
 	public void addRule(String regex, Paint paint) {
-		colors.put(regex, paint);
+		addRule(null, regex, paint);
+	}
+
+	/**
+	 * Adds a rule with a scope
+	 *
+	 * @param scope the scope of the matched text or null
+	 * @param regex the regex
+	 * @param paint the color of the matched text
+	 */
+	public void addRule(String scope, String regex, Paint paint) {
+		rules.add(new Rule(scope, regex, null, paint));
+	}
+
+	/**
+	 * Adds a region rule, which may span multiple lines
+	 *
+	 * @param begin the regex which starts the region
+	 * @param end   the regex which ends the region
+	 * @param paint the color of the region
+	 */
+	public void addRegion(String begin, String end, Paint paint) {
+		addRegion(null, begin, end, paint);
+	}
+
+	/**
+	 * Adds a region rule with a scope, which may span multiple lines
+	 *
+	 * @param scope the scope of the region or null
+	 * @param begin the regex which starts the region
+	 * @param end   the regex which ends the region
+	 * @param paint the color of the region
+	 */
+	public void addRegion(String scope, String begin, String end, Paint paint) {
+		rules.add(new Rule(scope, begin, end, paint));
 	}
-	
+
+	/**
+	 * Returns the rules in the order they were added
+	 *
+	 * @return the rules
+	 */
+	public List<Rule> getRules() {
+		return Collections.unmodifiableList(rules);
+	}
+
+	/**
+	 * Loads a syntax, grammar or compiled grammar file. The format is chosen by
+	 * the file extension
+	 *
+	 * @param f the file
+	 * @return the syntax model
+	 * @throws IOException if the file couldn't be read
+	 */
+	public static SyntaxModel load(File f) throws IOException {
+		String name = f.getName();
+		if (name.endsWith(CompiledGrammar.EXTENSION)) {
+			return CompiledGrammar.load(f.toPath());
+		}
+		if (name.endsWith(GrammarFile.EXTENSION)) {
+			return GrammarFile.load(f);
+		}
+		return loadSyntaxFile(f);
+	}
+
+	/**
+	 * Loads a syntax file
+	 *
+	 * @param f the file
+	 * @return the syntax model
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
 	public static SyntaxModel loadSyntaxFile(File f) throws FileNotFoundException, IOException {
-		Properties syntax = new Properties();
-		syntax.load(new FileInputStream(f));
-		
+		// Properties is a hash table, the order of the rules is recorded separately
+		Map<String, String> entries = new LinkedHashMap<>();
+		Properties syntax = new Properties() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public synchronized Object put(Object key, Object value) {
+				entries.put((String) key, (String) value);
+				return super.put(key, value);
+			}
+		};
+		try (InputStream in = new FileInputStream(f)) {
+			syntax.load(in);
+		}
+
 		SyntaxModel model = new SyntaxModel();
-		for(Object keyObj : syntax.keySet()) {
-			String key = (String) keyObj;
-			model.addRule(key, getColor(key));
+		for (Map.Entry<String, String> entry : entries.entrySet()) {
+			String key = entry.getKey();
+			if (key.startsWith(REGION_PREFIX)) {
+				if (key.endsWith(".begin")) {
+					String name = key.substring(0, key.length() - ".begin".length());
+					String end = entries.get(name + ".end");
+					String color = entries.get(name + ".color");
+					if (end == null || color == null) {
+						throw new IllegalArgumentException("The region \"" + name + "\" in the syntax file \""
+								+ f + "\" needs an end and a color");
+					}
+					model.addRegion(entry.getValue(), end, getColor(color));
+				}
+				continue;
+			}
+			model.addRule(key, getColor(entry.getValue()));
 		}
 		return model;
 	}
-	
+
+	/**
+	 * Parses a color. It is either in the format "#rrggbb" or any other css
+	 * color (for example "orange" or "rgba(0, 0, 255, 0.5)")
+	 *
+	 * @param color the color
+	 * @return the color
+	 */
 	public static Color getColor(String color) {
+		color = color.trim();
 		if(color.startsWith("#")) {
 			if(color.length() != 7) {
 				throw new IllegalArgumentException("couldn't parse color \"" + color + "\"");
@@ -42,8 +178,97 @@ public class SyntaxModel {
 			int r = Integer.parseInt(color.substring(1, 3), 16);
 			int g = Integer.parseInt(color.substring(3, 5), 16);
 			int b = Integer.parseInt(color.substring(5, 7), 16);
-			return new Color((double) r, (double) g, (double) b, 1d);
+			return Color.rgb(r, g, b);
+		}
+		try {
+			return Color.web(color);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("couldn't parse color \"" + color + "\"", e);
+		}
+	}
+
+	/**
+	 * A rule of a syntax
+	 *
+	 * @author sebi
+	 *
+	 */
+	public static final class Rule {
+		/**
+		 * the scope or null
+		 */
+		private final String scope;
+		/**
+		 * the regex or the begin regex of a region
+		 */
+		private final String regex;
+		/**
+		 * the end regex of a region or null
+		 */
+		private final String endRegex;
+		/**
+		 * the color
+		 */
+		private final Paint paint;
+
+		/**
+		 * constructor
+		 *
+		 * @param scope    the scope or null
+		 * @param regex    the regex or the begin regex of a region
+		 * @param endRegex the end regex of a region or null
+		 * @param paint    the color
+		 */
+		private Rule(String scope, String regex, String endRegex, Paint paint) {
+			this.scope = scope;
+			this.regex = regex;
+			this.endRegex = endRegex;
+			this.paint = paint;
+		}
+
+		/**
+		 * Returns the scope, for example "comment.block"
+		 *
+		 * @return the scope or null if the rule has none
+		 */
+		public String getScope() {
+			return scope;
+		}
+
+		/**
+		 * Returns the regex or the begin regex of a region
+		 *
+		 * @return the regex
+		 */
+		public String getRegex() {
+			return regex;
+		}
+
+		/**
+		 * Returns the end regex of a region
+		 *
+		 * @return the end regex or null if the rule isn't a region
+		 */
+		public String getEndRegex() {
+			return endRegex;
+		}
+
+		/**
+		 * Returns if the rule is a region
+		 *
+		 * @return if it is a region
+		 */
+		public boolean isRegion() {
+			return endRegex != null;
+		}
+
+		/**
+		 * Returns the color
+		 *
+		 * @return the color
+		 */
+		public Paint getPaint() {
+			return paint;
 		}
-		return null;
 	}
 }
@@ -3,7 +3,6 @@ package ch.sebi.fxedit.runtime;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -13,17 +12,26 @@ import com.eclipsesource.v8.JavaVoidCallback;
 import com.eclipsesource.v8.V8;
 import com.eclipsesource.v8.V8Array;
 import com.eclipsesource.v8.V8Object;
+import com.eclipsesource.v8.V8Value;
 import com.eclipsesource.v8.utils.MemoryManager;
 
 import ch.sebi.fxedit.exception.FactoryNotFoundException;
 import ch.sebi.fxedit.exception.FailedObjectCreationException;
+import ch.sebi.fxedit.exception.NoIdFoundException;
 import ch.sebi.fxedit.exception.ScriptNotFoundException;
+import ch.sebi.fxedit.runtime.lib.binding.BindingConstructors;
+import ch.sebi.fxedit.runtime.lib.require.ModulePrefetch;
 import ch.sebi.fxedit.runtime.lib.require.RequireLib;
 import ch.sebi.fxedit.runtime.reflection.JsClassFactoryManager;
 import ch.sebi.fxedit.runtime.reflection.ObjectPool;
 import ch.sebi.fxedit.runtime.reflection.annotation.JsFunction;
 
 public class JsRuntime implements Closeable {
+	/**
+	 * the file which lists the factories of the runtime
+	 */
+	public static final String CLASS_PROPERTIES_FILE = "./classes.properties";
+
 	private final Logger logger = LogManager.getLogger(getClass());
 	private V8 v8;
 
@@ -31,6 +39,11 @@ public class JsRuntime implements Closeable {
 
 	private JsClassFactoryManager factoryManager;
 	private ObjectPool objectPool;
+	/**
+	 * the constructors of the util.binding classes or null if they weren't used
+	 * yet
+	 */
+	private BindingConstructors bindingConstructors;
 
 	public JsRuntime() {
 		v8 = V8.createV8Runtime();
@@ -46,8 +59,9 @@ public class JsRuntime implements Closeable {
 	private void initRequireLib() {
 		requireLib = new RequireLib();
 		V8Array requirePathArray = new V8Array(getV8());
-		requirePathArray.push(".");
-		requirePathArray.push("./jsruntime");
+		for (String path : RequireLib.DEFAULT_REQUIRE_PATHS) {
+			requirePathArray.push(path);
+		}
 		requireLib.init(this, requirePathArray);
 
 		// v8.registerJavaMethod(requireLib, "jsRequire", "require", new Class[]
@@ -109,22 +123,49 @@ public class JsRuntime implements Closeable {
 			if (parameters.length() < 2) {
 				throw new IllegalArgumentException("_initObject(id, obj[,args...]) expectes at least 2 parameters");
 			}
+			String id = parameters.getString(0);
+			V8Object jsObj = parameters.getObject(1);
+			V8Array constructorArgs = new V8Array(v8);
 			try {
-				String id = parameters.getString(0);
-				V8Object jsObj = parameters.getObject(1);
-
-				V8Array constructorArgs = new V8Array(v8);
 				for (int i = 2; i < parameters.length(); i++) {
-					constructorArgs.push(parameters.get(i));
+					Object arg = parameters.get(i);
+					constructorArgs.push(arg);
+					if (arg instanceof V8Value) {
+						((V8Value) arg).release();
+					}
 				}
-
-				factoryManager.initObject(id, jsObj.twin(), constructorArgs);
+				// the factory twins the handles it keeps
+				factoryManager.initObject(id, jsObj, constructorArgs);
 			} catch (FactoryNotFoundException e) {
 				throw new RuntimeException(e);
 			} finally {
+				constructorArgs.release();
+				jsObj.release();
 			}
 		}, "_initObj");
-		File classPropertiesFile = new File("./classes.properties");
+		v8.registerJavaMethod((JavaVoidCallback) (receiver, parameters) -> {
+			if (parameters.length() != 1) {
+				throw new IllegalArgumentException("_disposeObj(obj) expectes 1 parameter");
+			}
+			Object obj = parameters.get(0);
+			if (!(obj instanceof V8Object)) {
+				if (obj instanceof V8Value) {
+					((V8Value) obj).release();
+				}
+				return;
+			}
+			V8Object jsObj = (V8Object) obj;
+			try {
+				if (!jsObj.isUndefined() && jsObj.contains("_id")) {
+					objectPool.removeObject(ObjectPool.getId(jsObj));
+				}
+			} catch (NoIdFoundException e) {
+				throw new RuntimeException(e);
+			} finally {
+				jsObj.release();
+			}
+		}, "_disposeObj");
+		File classPropertiesFile = new File(CLASS_PROPERTIES_FILE);
 		try {
 			objectPool.processClassProperties(classPropertiesFile);
 		} catch (IOException e) {
@@ -154,7 +195,7 @@ public class JsRuntime implements Closeable {
 	 * @throws IOException
 	 */
 	public Object executeFile(File f) throws IOException {
-		String script = new String(Files.readAllBytes(f.toPath()));
+		String script = ModulePrefetch.read(f);
 		return v8.executeScript(script, f.getPath(), 0);
 	}
 
@@ -200,6 +241,19 @@ public class JsRuntime implements Closeable {
 		return getObjectPool().createObject(clazz, args);
 	}
 
+	/**
+	 * Returns the constructors of the util.binding classes. They are looked up
+	 * when they are used for the first time
+	 * 
+	 * @return the binding constructors
+	 */
+	public BindingConstructors getBindingConstructors() {
+		if (bindingConstructors == null) {
+			bindingConstructors = new BindingConstructors(v8);
+		}
+		return bindingConstructors;
+	}
+
 	/**
 	 * Returns the require lib object
 	 * 
@@ -212,5 +266,9 @@ public class JsRuntime implements Closeable {
 	@Override
 	public void close() throws IOException {
 		getObjectPool().close();
+		if (bindingConstructors != null) {
+			bindingConstructors.release();
+		}
+		requireLib.close();
 	}
 }
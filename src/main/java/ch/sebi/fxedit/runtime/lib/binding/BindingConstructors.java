@@ -0,0 +1,107 @@
+package ch.sebi.fxedit.runtime.lib.binding;
+
+import com.eclipsesource.v8.V8;
+import com.eclipsesource.v8.V8Array;
+import com.eclipsesource.v8.V8Function;
+import com.eclipsesource.v8.V8Object;
+
+/**
+ * The constructors of the Binding, ArrayBinding and Change classes of the
+ * util.binding module. They are looked up once per runtime, so creating a
+ * binding or a change only calls a function and doesn't parse any js or
+ * require the module again.
+ *
+ * @author sebi
+ *
+ */
+public class BindingConstructors {
+	/**
+	 * the script which returns the functions which create the objects
+	 */
+	private static final String CONSTRUCTORS_SCRIPT = "(function(binding) { return {"
+			+ "  binding: () => new binding.Binding(),"
+			+ "  arrayBinding: () => new binding.ArrayBinding(),"
+			+ "  change: (type, from, to) => new binding.Change(type, from, to)"
+			+ "}; })(require('util.binding'));";
+
+	/**
+	 * the v8 runtime
+	 */
+	private final V8 v8;
+	/**
+	 * creates a Binding
+	 */
+	private final V8Function binding;
+	/**
+	 * creates an ArrayBinding
+	 */
+	private final V8Function arrayBinding;
+	/**
+	 * creates a Change
+	 */
+	private final V8Function change;
+
+	/**
+	 * constructor
+	 *
+	 * @param v8 the v8 runtime
+	 */
+	public BindingConstructors(V8 v8) {
+		this.v8 = v8;
+		V8Object constructors = v8.executeObjectScript(CONSTRUCTORS_SCRIPT, "bindingConstructors", 0);
+		try {
+			binding = (V8Function) constructors.getObject("binding");
+			arrayBinding = (V8Function) constructors.getObject("arrayBinding");
+			change = (V8Function) constructors.getObject("change");
+		} finally {
+			constructors.release();
+		}
+	}
+
+	/**
+	 * Creates a new Binding
+	 *
+	 * @return the binding, which has to be released by the caller
+	 */
+	public V8Object newBinding() {
+		return (V8Object) binding.call(null, null);
+	}
+
+	/**
+	 * Creates a new ArrayBinding
+	 *
+	 * @return the array binding, which has to be released by the caller
+	 */
+	public V8Object newArrayBinding() {
+		return (V8Object) arrayBinding.call(null, null);
+	}
+
+	/**
+	 * Creates a new Change
+	 *
+	 * @param type the type of the change
+	 * @param from the start of the change (inclusive)
+	 * @param to   the end of the change (exclusive)
+	 * @return the change, which has to be released by the caller
+	 */
+	public V8Object newChange(String type, int from, int to) {
+		V8Array args = new V8Array(v8);
+		try {
+			args.push(type);
+			args.push(from);
+			args.push(to);
+			return (V8Object) change.call(null, args);
+		} finally {
+			args.release();
+		}
+	}
+
+	/**
+	 * Releases the constructors
+	 */
+	public void release() {
+		binding.release();
+		arrayBinding.release();
+		change.release();
+	}
+}
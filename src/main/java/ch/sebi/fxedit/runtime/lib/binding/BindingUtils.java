@@ -1,7 +1,7 @@
 package ch.sebi.fxedit.runtime.lib.binding;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -39,6 +39,16 @@ public class BindingUtils {
 	 */
 	private static final Logger logger = LogManager.getLogger(BindingUtils.class);
 
+	/**
+	 * the operation of a change payload which replaces a range of the js array
+	 * (see ArrayBinding._applyJavaChanges in util.binding)
+	 */
+	private static final String SPLICE_OP = "splice";
+	/**
+	 * the operation of a change payload which updates a range of the js array
+	 */
+	private static final String UPDATE_OP = "update";
+
 	/**
 	 * Creates a new js binding and returns it
 	 * 
@@ -46,9 +56,7 @@ public class BindingUtils {
 	 * @return the binding in a v8 object
 	 */
 	public static <T> V8Object createBinding(JsRuntime runtime) {
-		V8 v8 = runtime.getV8();
-		V8Object binding = v8.executeObjectScript("new (require('util.binding').Binding)();");
-		return binding;
+		return runtime.getBindingConstructors().newBinding();
 	}
 
 	/**
@@ -58,9 +66,7 @@ public class BindingUtils {
 	 * @return the binding in a v8 object
 	 */
 	public static <T> V8Object createArrayBinding(JsRuntime runtime) {
-		V8 v8 = runtime.getV8();
-		V8Object binding = v8.executeObjectScript("new (require('util.binding').ArrayBinding)();");
-		return binding;
+		return runtime.getBindingConstructors().newArrayBinding();
 	}
 
 	/**
@@ -70,9 +76,11 @@ public class BindingUtils {
 	 * @param property the javafx property
 	 * @param binding  the js property
 	 * @param clazz    the type of the javafx property
+	 * @return removes the java listener from the property. The js binding isn't
+	 *         released, it still belongs to the caller
 	 * @throws SerializeException
 	 */
-	public static <T> void bindProperty(Property<T> property, final V8Object binding, Class<T> clazz, JsRuntime runtime)
+	public static <T> Runnable bindProperty(Property<T> property, final V8Object binding, Class<T> clazz, JsRuntime runtime)
 			throws SerializeException {
 		if (binding.isUndefined()) {
 			throw new NullPointerException("Binding V8Object is undefined");
@@ -89,7 +97,7 @@ public class BindingUtils {
 
 		// register listener on js side
 		V8Array args = new V8Array(runtime.getV8());
-		args.push(new V8Function(runtime.getV8(), new JavaCallback() {
+		V8Function jsListener = new V8Function(runtime.getV8(), new JavaCallback() {
 
 			@Override
 			public Object invoke(V8Object receiver, V8Array parameters) {
@@ -120,13 +128,17 @@ public class BindingUtils {
 				property.setValue(clazz.cast(newValue));
 				return null;
 			}
-		}));
-		binding.executeFunction("addListener", args);
-		args.release();
-
-		binding.setWeak();
+		});
+		try {
+			args.push(jsListener);
+			binding.executeVoidFunction("addListener", args);
+		} finally {
+			// the js binding references the listener, the handle isn't needed anymore
+			args.release();
+			jsListener.release();
+		}
 
-		property.addListener((ChangeListener<T>) (observable, oldValue, newValue) -> {
+		ChangeListener<T> javaListener = (observable, oldValue, newValue) -> {
 			// prevents recursion loop java listener sets js listener -> js listener sets
 			// java listener -> ...
 			if (recentlyChanged[0]) {
@@ -149,7 +161,9 @@ public class BindingUtils {
 			} finally {
 				args1.release();
 			}
-		});
+		};
+		property.addListener(javaListener);
+		return () -> property.removeListener(javaListener);
 	}
 
 	/**
@@ -161,10 +175,12 @@ public class BindingUtils {
 	 * @param arrayBinding the js Arraybinding
 	 * @param clazz        the type of the observable list
 	 * @param runtime      the js runtime which should be used
+	 * @return removes the java listener from the list. The js array binding isn't
+	 *         released, it still belongs to the caller
 	 * @throws SerializeException
 	 * @throws InvalidTypeException
 	 */
-	public static <T> void bindObservableList(ObservableList<T> list, V8Object arrayBinding, Class<T> clazz,
+	public static <T> Runnable bindObservableList(ObservableList<T> list, V8Object arrayBinding, Class<T> clazz,
 			JsRuntime runtime) {
 		if (arrayBinding.isUndefined())
 			throw new NullPointerException("Binding V8Object is undefined");
@@ -178,7 +194,7 @@ public class BindingUtils {
 		boolean[] recentlyChanged = new boolean[] { false };
 
 		V8Array addListenerArgs = new V8Array(v8);
-		addListenerArgs.push(new V8Function(v8, new JavaCallback() {
+		V8Function jsListener = new V8Function(v8, new JavaCallback() {
 
 			@Override
 			public Object invoke(V8Object receiver, V8Array parameters) {
@@ -236,87 +252,73 @@ public class BindingUtils {
 				//scope.release();
 				return null;
 			}
-		}));
-		arrayBinding.executeVoidFunction("addListener", addListenerArgs);
+		});
+		try {
+			addListenerArgs.push(jsListener);
+			arrayBinding.executeVoidFunction("addListener", addListenerArgs);
+		} finally {
+			// the js array binding references the listener, the handle isn't needed anymore
+			addListenerArgs.release();
+			jsListener.release();
+		}
 
-		list.addListener((ListChangeListener<T>) c -> {
+		ListChangeListener<T> javaListener = c -> {
 			if (recentlyChanged[0]) {
 				recentlyChanged[0] = false;
 				return;
 			}
-			//MemoryManager changeListenerScope = new MemoryManager(v8);
+			// the whole change is sent to js as one payload, so js applies it and fires
+			// the listeners once
+			V8Array ops = new V8Array(v8);
 			try {
 				while (c.next()) {
-					// fetches the array. It is in the while loop, so that it is up to date
-					V8Array _array = arrayBinding.getArray("_value");
-					String type = null;
-					if (c.wasAdded()) {
-						type = "add";
-						// deserializing list
-						// args for js function Array.prototype.splice(start [, deleteCount[,
-						// items...]])
-						V8Array pushArgs = new V8Array(v8);
-						pushArgs.push(c.getFrom()); // start
-						pushArgs.push(0); // deleteCount
-						// items
-						for (T obj : c.getAddedSubList()) {
-							try {
-								pushArgs.push(pool.serialize(clazz, obj));
-							} catch (SerializeException e) {
-								logger.error("Couldn't deserialize object", e);
-								pushArgs.pushNull();
-							}
-						}
-						_array.executeVoidFunction("splice", pushArgs);
-					} else if (c.wasRemoved()) {
-						type = "remove";
-						// deserializing list
-						// args for js function Array.prototype.slice(start [, deleteCount])
-						V8Array pushArgs = new V8Array(v8);
-						pushArgs.push(c.getFrom()); // start
-						pushArgs.push(c.getRemovedSize()); // deleteCount
-						_array.executeVoidFunction("splice", pushArgs);
-					} else if (c.wasPermutated()) {
-						type = "permutation";
+					if (c.wasPermutated()) {
 						throw new UnsupportedOperationException("Permutations are not supported");
-					} else if (c.wasUpdated()) {
-						type = "update";
-						// removes all elements in the update range
-						V8Array spliceArgs = new V8Array(v8);
-						spliceArgs.push(c.getFrom());
-						spliceArgs.push(c.getTo() - c.getFrom());
-						List<? extends T> updateSublist = c.getList().subList(c.getFrom(), c.getTo());
-						for (T obj : updateSublist) {
-							try {
-								spliceArgs.push(pool.serialize(clazz, obj));
-							} catch (SerializeException e) {
-								logger.error("Couldn't deserialize object", e);
-								spliceArgs.pushNull();
-							}
-						}
+					}
+					List<? extends T> items;
+					if (c.wasUpdated()) {
+						items = c.getList().subList(c.getFrom(), c.getTo());
+						ops.push(UPDATE_OP);
+						ops.push(c.getFrom());
+						ops.push(items.size());
 					} else {
-						throw new IllegalStateException("Unkown change: " + c);
+						items = c.wasAdded() ? c.getAddedSubList() : Collections.emptyList();
+						ops.push(SPLICE_OP);
+						ops.push(c.getFrom());
+						ops.push(c.getRemovedSize());
 					}
-					V8Array fireListenersArgs = new V8Array(v8);
-					fireListenersArgs.push(_array);
-					fireListenersArgs.push(arrayBinding.get("_value")); // fetches the new array after the operations
-					V8Object change = createChange(type, c.getFrom(), c.getTo(), runtime);
-					fireListenersArgs.push(V8ObjectUtils.toV8Array(v8, Arrays.asList(change)));
+					ops.push(items.size());
+					for (T obj : items) {
+						try {
+							ops.push(pool.serialize(clazz, obj));
+						} catch (SerializeException e) {
+							logger.error("Couldn't serialize object", e);
+							ops.pushNull();
+						}
+					}
+				}
+				V8Array applyArgs = new V8Array(v8);
+				try {
+					applyArgs.push(ops);
 					recentlyChanged[0] = true;
-					arrayBinding.executeVoidFunction("_fireListeners", fireListenersArgs);
+					arrayBinding.executeVoidFunction("_applyJavaChanges", applyArgs);
+				} finally {
+					applyArgs.release();
 				}
 			} catch (Exception e) {
+				recentlyChanged[0] = false;
 				// if an error occured, reset the array binding, so it is the same as the java
 				// this should prevent out of sync arrays
 				logger.error("An error occurred; reset ArrayBinding", e);
 				resetArrayBinding(list, arrayBinding, runtime);
 			} finally {
-				// this ensures that the scope is always released
-				//changeListenerScope.release();
+				ops.release();
 			}
-		});
+		};
+		list.addListener(javaListener);
 
 		//scope.release();
+		return () -> list.removeListener(javaListener);
 	}
 
 	/**
@@ -354,27 +356,30 @@ public class BindingUtils {
 
 		V8Object change = createChange("reset", 0, list.size(), runtime);
 		V8Array changes = new V8Array(v8);
-		changes.push(change);
-
-		// set _value variable
-		arrayBinding.add("_value", _arrayNew);
-
-		// call _fireChanges function
 		V8Array fireChangesArgs = new V8Array(runtime.getV8());
-		fireChangesArgs.push(_array);
-		fireChangesArgs.push(_arrayNew);
-		fireChangesArgs.push(changes);
-		arrayBinding.executeFunction("_fireListeners", fireChangesArgs);
+		try {
+			changes.push(change);
 
-		// release created v8 objects
-		//scope.release();
+			// set _value variable
+			arrayBinding.add("_value", _arrayNew);
+
+			// call _fireChanges function
+			fireChangesArgs.push(_array);
+			fireChangesArgs.push(_arrayNew);
+			fireChangesArgs.push(changes);
+			arrayBinding.executeVoidFunction("_fireListeners", fireChangesArgs);
+		} finally {
+			// release created v8 objects
+			fireChangesArgs.release();
+			changes.release();
+			change.release();
+			_array.release();
+			_arrayNew.release();
+		}
 	}
 
 	private static V8Object createChange(String type, int from, int to, JsRuntime runtime) {
-		V8 v8 = runtime.getV8();
-		V8Object change = v8.executeObjectScript(
-				"new (require('util.binding').Change)('" + type + "', " + from + ", " + to + ");", "createChangeScript", 0);
-		return change;
+		return runtime.getBindingConstructors().newChange(type, from, to);
 	}
 
 }
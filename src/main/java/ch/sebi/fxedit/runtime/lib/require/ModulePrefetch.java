@@ -0,0 +1,346 @@
+package ch.sebi.fxedit.runtime.lib.require;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reads the js modules which are needed at startup in parallel, while the v8
+ * isolate and the javafx toolkit are still starting. {@link #start(File, String[])}
+ * reads the modules of the classes.properties, the modules the java side
+ * requires itself and the rc.js file on a worker pool and loads the classes of
+ * the classes.properties. {@link RequireLib} and the runtime take the read
+ * sources with {@link #read(File)} instead of reading the files themselves.<br>
+ * If the bundle file ({@value #BUNDLE_FILE}) exists, all modules in it are
+ * read with one sequential read on the worker pool instead. A module of the
+ * bundle is only used while its file has the same modification time and size
+ * as when the bundle was written. The {@link #main(String[])} method writes the
+ * bundle:
+ *
+ * <pre>
+ * ModulePrefetch [&lt;bundle file&gt;]
+ * </pre>
+ *
+ * @author sebi
+ *
+ */
+public final class ModulePrefetch {
+	/**
+	 * logger
+	 */
+	private static final Logger logger = LogManager.getLogger();
+
+	/**
+	 * the bundle file
+	 */
+	public static final String BUNDLE_FILE = "./jsruntime.bundle";
+	/**
+	 * the rc file
+	 */
+	public static final String RC_FILE = "./rc.js";
+	/**
+	 * the directory with the modules of the runtime, which are written into the
+	 * bundle
+	 */
+	private static final String RUNTIME_DIRECTORY = "./jsruntime";
+	/**
+	 * the modules the java side requires itself
+	 */
+	private static final String[] JAVA_MODULES = { "util.binding", "util.util" };
+	/**
+	 * the key of the classes.properties which doesn't name a module
+	 */
+	private static final String INIT_LIBS_KEY = "initLibs";
+	/**
+	 * the magic number at the start of the bundle ("FXJB")
+	 */
+	private static final int MAGIC = 0x46584a42;
+	/**
+	 * the version of the bundle format
+	 */
+	private static final int VERSION = 1;
+	/**
+	 * the maximal number of worker threads
+	 */
+	private static final int MAX_THREADS = 4;
+
+	/**
+	 * the read and the still read modules by their absolute path
+	 */
+	private static final Map<Path, Future<Source>> sources = new ConcurrentHashMap<>();
+
+	private ModulePrefetch() {
+	}
+
+	/**
+	 * Writes the bundle of the modules in {@value #RUNTIME_DIRECTORY} and the
+	 * rc file
+	 *
+	 * @param args optionally the bundle file, which defaults to
+	 *             {@value #BUNDLE_FILE}
+	 * @throws IOException if a file couldn't be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length > 1) {
+			System.err.println("usage: ModulePrefetch [<bundle file>]");
+			System.exit(1);
+		}
+		List<Path> files = new ArrayList<>();
+		try (Stream<Path> stream = Files.walk(Paths.get(RUNTIME_DIRECTORY))) {
+			files.addAll(stream.filter(p -> p.toString().endsWith(".js")).sorted().collect(Collectors.toList()));
+		}
+		if (Files.exists(Paths.get(RC_FILE))) {
+			files.add(Paths.get(RC_FILE));
+		}
+		Path bundle = Paths.get(args.length == 1 ? args[0] : BUNDLE_FILE);
+		writeBundle(bundle, files);
+		System.out.println("Bundled " + files.size() + " modules into \"" + bundle + "\"");
+	}
+
+	/**
+	 * Starts reading the modules and loading the classes of the
+	 * classes.properties in the background
+	 *
+	 * @param classProperties the classes.properties file
+	 * @param requirePaths    the paths the modules are searched in
+	 */
+	public static void start(File classProperties, String[] requirePaths) {
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(classProperties)) {
+			properties.load(in);
+		} catch (IOException e) {
+			logger.debug("Couldn't read \"" + classProperties + "\" for the prefetch", e);
+		}
+		Set<String> modules = new LinkedHashSet<>();
+		for (String module : JAVA_MODULES) {
+			modules.add(module);
+		}
+		modules.addAll(properties.stringPropertyNames());
+		modules.remove(INIT_LIBS_KEY);
+
+		int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "fxedit-prefetch");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Path bundle = Paths.get(BUNDLE_FILE);
+		Future<Map<Path, Source>> bundled;
+		if (Files.exists(bundle)) {
+			bundled = executor.submit(() -> {
+				try {
+					Map<Path, Source> bundledSources = readBundle(bundle);
+					bundledSources.forEach((path, source) -> sources.putIfAbsent(path,
+							CompletableFuture.completedFuture(source)));
+					return bundledSources;
+				} catch (IOException e) {
+					logger.warn("Couldn't read the module bundle \"" + bundle + "\"", e);
+					return Collections.emptyMap();
+				}
+			});
+		} else {
+			bundled = CompletableFuture.completedFuture(Collections.emptyMap());
+		}
+		List<Path> files = new ArrayList<>();
+		files.add(Paths.get(RC_FILE));
+		for (String module : modules) {
+			for (String requirePath : requirePaths) {
+				Path file = Paths.get(requirePath, RequireLib.toFilePath(module));
+				if (Files.exists(file)) {
+					files.add(file);
+					break;
+				}
+			}
+		}
+		for (Path file : files) {
+			Path path = file.toAbsolutePath().normalize();
+			// the bundle is read first, so the task only waits while it is read
+			sources.putIfAbsent(path, executor.submit(() -> {
+				Source source = bundled.get().get(path);
+				return source != null ? source : readSource(path);
+			}));
+		}
+		for (Object className : properties.values()) {
+			executor.execute(() -> {
+				try {
+					Class.forName(className.toString(), false, ModulePrefetch.class.getClassLoader());
+				} catch (ClassNotFoundException | LinkageError e) {
+					// the error is reported when the class properties are processed
+				}
+			});
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Returns the content of a module. A prefetched content is used if it is
+	 * still up to date, else the file is read.
+	 *
+	 * @param f the file of the module
+	 * @return the content
+	 * @throws IOException if the file couldn't be read
+	 */
+	public static String read(File f) throws IOException {
+		Path path = f.toPath().toAbsolutePath().normalize();
+		Future<Source> future = sources.remove(path);
+		if (future != null) {
+			try {
+				Source source = future.get();
+				BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				if (source.modified == attributes.lastModifiedTime().toMillis()
+						&& source.size == attributes.size()) {
+					return source.text;
+				}
+			} catch (ExecutionException e) {
+				// the file is read again, so the caller gets the exception
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return new String(Files.readAllBytes(path));
+	}
+
+	/**
+	 * Reads a module file
+	 *
+	 * @param path the file
+	 * @return the module
+	 * @throws IOException if the file couldn't be read
+	 */
+	private static Source readSource(Path path) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		byte[] bytes = Files.readAllBytes(path);
+		return new Source(new String(bytes), attributes.lastModifiedTime().toMillis(), bytes.length);
+	}
+
+	/**
+	 * Reads all modules of the bundle
+	 *
+	 * @param bundle the bundle
+	 * @return the modules by their absolute path
+	 * @throws IOException if the bundle couldn't be read or is invalid
+	 */
+	private static Map<Path, Source> readBundle(Path bundle) throws IOException {
+		Map<Path, Source> bundledSources = new HashMap<>();
+		Path directory = bundle.toAbsolutePath().normalize().getParent();
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(bundle), 1 << 16))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("\"" + bundle + "\" isn't a module bundle");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("The module bundle \"" + bundle + "\" has the unsupported version " + version);
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				Path path = directory.resolve(in.readUTF()).normalize();
+				long modified = in.readLong();
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				bundledSources.put(path, new Source(new String(bytes), modified, bytes.length));
+			}
+		}
+		return bundledSources;
+	}
+
+	/**
+	 * Writes a bundle. It is written into a temporary file first, which then
+	 * replaces the bundle.
+	 *
+	 * @param bundle the bundle
+	 * @param files  the module files
+	 * @throws IOException if a file couldn't be read or written
+	 */
+	private static void writeBundle(Path bundle, List<Path> files) throws IOException {
+		Path directory = bundle.toAbsolutePath().normalize().getParent();
+		Path temp = Files.createTempFile(directory, "jsruntime", ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(files.size());
+				for (Path file : files) {
+					Path path = file.toAbsolutePath().normalize();
+					BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+					byte[] bytes = Files.readAllBytes(path);
+					out.writeUTF(directory.relativize(path).toString().replace(File.separatorChar, '/'));
+					out.writeLong(attributes.lastModifiedTime().toMillis());
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+			}
+			try {
+				Files.move(temp, bundle, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, bundle, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * The content of a module file
+	 *
+	 * @author sebi
+	 *
+	 */
+	private static final class Source {
+		/**
+		 * the content
+		 */
+		private final String text;
+		/**
+		 * the modification time of the file in milliseconds
+		 */
+		private final long modified;
+		/**
+		 * the size of the file
+		 */
+		private final long size;
+
+		/**
+		 * constructor
+		 *
+		 * @param text     the content
+		 * @param modified the modification time of the file in milliseconds
+		 * @param size     the size of the file
+		 */
+		private Source(String text, long modified, long size) {
+			this.text = text;
+			this.modified = modified;
+			this.size = size;
+		}
+	}
+}
@@ -1,13 +1,22 @@
 package ch.sebi.fxedit.runtime.lib.require;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -21,11 +30,21 @@ import ch.sebi.fxedit.exception.ScriptNotFoundException;
 import ch.sebi.fxedit.runtime.JsRuntime;
 
 /**
- * The require library which loads js modules
+ * The require library which loads js modules.<br>
+ * The modules are cached by their module path, so a require of a module which
+ * was already loaded doesn't touch the file system. Module paths which couldn't
+ * be found are cached as well. The directories in which the modules were
+ * searched are watched, and both caches are dropped when a file is created or
+ * deleted in one of them or the require path changes.
  * @author sebi
  *
  */
-public class RequireLib {
+public class RequireLib implements Closeable {
+	/**
+	 * the paths in which modules are searched by default
+	 */
+	public static final String[] DEFAULT_REQUIRE_PATHS = { ".", "./jsruntime" };
+
 	/**
 	 * logger
 	 */
@@ -36,6 +55,34 @@ public class RequireLib {
 	 */
 	private Map<String, V8Object> moduleCache = new HashMap<>();
 
+	/**
+	 * the loaded modules by their module path (as passed to require)
+	 */
+	private Map<String, V8Object> modulesByPath = new HashMap<>();
+	/**
+	 * the module paths which weren't found
+	 */
+	private Set<String> missingModules = new HashSet<>();
+	/**
+	 * the length of the require path when the module paths were cached
+	 */
+	private int cachedRequirePathLength = -1;
+	/**
+	 * if a watched directory changed since the module paths were cached. It is
+	 * set by the watcher thread, the caches are only dropped by the thread of
+	 * the runtime, because the cached handles belong to it
+	 */
+	private volatile boolean resolvedModulesChanged = false;
+	/**
+	 * the watched directories
+	 */
+	private Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+	/**
+	 * the watcher of the directories or null if it wasn't started yet or isn't
+	 * supported
+	 */
+	private WatchService watcher = null;
+
 	/**
 	 * the js runtime
 	 */
@@ -59,14 +106,123 @@ public class RequireLib {
 	/**
 	 * Loads the given path and returns the module
 	 * @param path the path of the module
-	 * @return the loaded module
+	 * @return the loaded module, which is released by the caller
 	 * @throws IOException if the module can't be found or an other io error occured
 	 */
 	public V8Object jsRequire(String path) throws IOException {
-		File f = findFile(path);
+		validateResolvedModules();
+		V8Object cachedModule = modulesByPath.get(path);
+		if(cachedModule != null && !cachedModule.isReleased()) {
+			return cachedModule.twin();
+		}
+		if(missingModules.contains(path)) {
+			throw new ScriptNotFoundException(path, getRequirePath());
+		}
+		File f;
+		try {
+			f = findFile(path);
+		} catch(ScriptNotFoundException e) {
+			missingModules.add(path);
+			throw e;
+		} finally {
+			watchCandidates(path);
+		}
 		V8Object moduleObj = loadFile(f);
+		modulesByPath.put(path, moduleObj.twin());
 		return moduleObj;
 	}
+
+	/**
+	 * Drops the cached module paths if a watched directory or the require path
+	 * changed since they were cached
+	 */
+	private void validateResolvedModules() {
+		int requirePathLength = requirePath.length();
+		if(!resolvedModulesChanged && requirePathLength == cachedRequirePathLength) {
+			return;
+		}
+		resolvedModulesChanged = false;
+		cachedRequirePathLength = requirePathLength;
+		modulesByPath.values().forEach(V8Object::release);
+		modulesByPath.clear();
+		missingModules.clear();
+	}
+
+	/**
+	 * Watches the directories in which a module is searched. For every require
+	 * path the nearest existing directory of the module file is watched, so a
+	 * module which is created later or shadows the found one is noticed.
+	 * @param jsPath the module path
+	 */
+	private void watchCandidates(String jsPath) {
+		String filePath = toFilePath(jsPath);
+		for(String dirPath : getRequirePath()) {
+			File dir = new File(dirPath).getAbsoluteFile();
+			File candidate = new File(dir, filePath).getParentFile();
+			while(candidate != null && !candidate.isDirectory()) {
+				candidate = candidate.getParentFile();
+			}
+			if(candidate != null) {
+				watch(candidate.toPath().normalize());
+			}
+		}
+	}
+
+	/**
+	 * Watches a directory for created and deleted files
+	 * @param directory the directory
+	 */
+	private void watch(Path directory) {
+		if(watchedDirectories.contains(directory)) {
+			return;
+		}
+		try {
+			if(watcher == null) {
+				watcher = FileSystems.getDefault().newWatchService();
+				Thread thread = new Thread(this::processEvents, "fxedit-require-watcher");
+				thread.setDaemon(true);
+				thread.start();
+			}
+			directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+			watchedDirectories.add(directory);
+		} catch(IOException | UnsupportedOperationException e) {
+			// without a watcher a created module is only found after the require path changed
+			logger.debug("Couldn't watch the module directory \"" + directory + "\"", e);
+		}
+	}
+
+	/**
+	 * Marks the cached module paths as changed for every event until the
+	 * watcher is closed. Runs on the watcher thread.
+	 */
+	private void processEvents() {
+		while(true) {
+			WatchKey key;
+			try {
+				key = watcher.take();
+			} catch(InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			key.pollEvents();
+			resolvedModulesChanged = true;
+			if(!key.reset()) {
+				watchedDirectories.remove((Path) key.watchable());
+			}
+		}
+	}
+
+	/**
+	 * Converts a module path to the relative path of its file
+	 * @param jsPath the module path
+	 * @return the relative file path
+	 */
+	static String toFilePath(String jsPath) {
+		//because we replace '.' to '/' we have to remove the ".js" to later add it again
+		if(jsPath.endsWith(".js")) {
+			jsPath = jsPath.substring(0, jsPath.length()-3);
+		}
+		return jsPath.replace('.', '/') + ".js";
+	}
 	
 	/**
 	 * Finds the file in the {@link #getRequirePath()}
@@ -77,11 +233,7 @@ public class RequireLib {
 	protected File findFile(String jsPath) throws ScriptNotFoundException {
 		String oldJsPath = jsPath;
 		String[] paths = getRequirePath();
-		//because we replace '.' to '/' we have to remove the ".js" to later add it again
-		if(jsPath.endsWith(".js")) {
-			jsPath = jsPath.substring(0, jsPath.length()-3);
-		}
-		String filePath = jsPath.replace('.', '/') + ".js";
+		String filePath = toFilePath(jsPath);
 		for(String dirPath : paths) {
 			File dir = new File(dirPath);
 			if(!dir.exists()) {
@@ -105,7 +257,7 @@ public class RequireLib {
 	/**
 	 * Loads the given module file and returns the loaded module
 	 * @param f the file of the module
-	 * @return the loaded module
+	 * @return the loaded module, which is released by the caller
 	 * @throws IOException
 	 */
 	protected V8Object loadFile(File f) throws IOException {
@@ -115,12 +267,13 @@ public class RequireLib {
 			//checks if another part of the code already released the v8 object
 			if(!cachedModule.isReleased()) {
 				logger.debug("Loaded module \"" + f.getPath() + "\" from cache");
-				return cachedModule;
+				// j2v8 releases the value returned to js, so the cached handle is never returned
+				return cachedModule.twin();
 			} else {
 				logger.warn("Modle \"" + f.getPath() + "\" was already released");
 			}
 		}
-		String scriptBody = new String(Files.readAllBytes(f.toPath()));
+		String scriptBody = ModulePrefetch.read(f);
 		String script = "(function() {\n" + scriptBody + "\n})()";
 		V8 v8 = runtime.getV8();
 		V8Object module;
@@ -157,6 +310,16 @@ public class RequireLib {
 	public void addRequirePath(String path) {
 		requirePath.push(path);
 	}
-		
+
+	@Override
+	public void close() throws IOException {
+		if(watcher != null) {
+			watcher.close();
+		}
+		modulesByPath.values().forEach(V8Object::release);
+		modulesByPath.clear();
+		moduleCache.values().forEach(V8Object::release);
+		moduleCache.clear();
+	}
 
 }
@@ -1,10 +1,15 @@
 package ch.sebi.fxedit.runtime.reflection;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -29,7 +34,6 @@ import ch.sebi.fxedit.runtime.reflection.annotation.JsFunction;
 import ch.sebi.fxedit.runtime.reflection.annotation.JsId;
 import ch.sebi.fxedit.runtime.reflection.annotation.JsObject;
 import ch.sebi.fxedit.runtime.reflection.annotation.JsVar;
-import ch.sebi.fxedit.utils.Annotations;
 import ch.sebi.fxedit.utils.Annotations.AnnotationMatch;
 import javafx.beans.property.Property;
 import javafx.collections.ObservableList;
@@ -44,6 +48,14 @@ public class JsAnnotationClassFactory implements JsClassFactory {
 	private List<AnnotationMatch<JsBinding>> bindingAnnotations;
 	private List<AnnotationMatch<JsVar>> varAnnotations;
 	private List<AnnotationMatch<JsFunction>> functionAnnotations;
+	/**
+	 * the invokers of the functions by their js name
+	 */
+	private Map<String, JsMethodInvoker> functions = new LinkedHashMap<>();
+	/**
+	 * sets the {@link JsId} field of an object (type (Object, long)void)
+	 */
+	private MethodHandle idSetter;
 	private ObjectPool pool;
 	private String modulePath;
 
@@ -52,22 +64,33 @@ public class JsAnnotationClassFactory implements JsClassFactory {
 		this.clazz = clazz;
 		this.modulePath = modulePath;
 		this.pool = pool;
-		this.jsObject = Annotations.findAnnotation(clazz, JsObject.class)
-				.orElseThrow(() -> new IllegalArgumentException(
-						"No JsObject annotation found on class \"" + clazz.getName() + "\""));
+		// the members are looked up once per class (see JsObjectMembers)
+		JsObjectMembers members = JsObjectMembers.of(clazz);
+		this.jsObject = members.getJsObject();
+		if (jsObject == null) {
+			throw new IllegalArgumentException("No JsObject annotation found on class \"" + clazz.getName() + "\"");
+		}
 
-		this.jsId = Annotations.findAnnotation(clazz, JsId.class).orElseThrow(
-				() -> new IllegalArgumentException("No JsId annotation found on class \"" + clazz.getName() + "\""));
+		this.jsId = members.getJsId();
+		if (jsId == null) {
+			throw new IllegalArgumentException("No JsId annotation found on class \"" + clazz.getName() + "\"");
+		}
 
-		this.jsConstructor = Annotations.findAnnotation(clazz, JsConstructor.class).orElse(null);
-		this.functionAnnotations = Annotations.findAnnotationsInHierarchy(clazz, JsFunction.class);
-		this.bindingAnnotations = Annotations.findAnnotationsInHierarchy(clazz, JsBinding.class);
-		this.varAnnotations = Annotations.findAnnotationsInHierarchy(clazz, JsVar.class);
-	}
+		// it is save to cast, because JsId can only occur on fields (see @Target)
+		Field jsIdField = (Field) jsId.getFoundOn();
+		try {
+			this.idSetter = MethodHandles.lookup().unreflectSetter(jsIdField)
+					.asType(MethodType.methodType(void.class, Object.class, long.class));
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("Cannot access the JsId field \"" + jsIdField + "\"", e);
+		}
 
-	@Override
-	public void initClass(JsRuntime runtime, V8Object object) {
-		V8 v8 = runtime.getV8();
+		this.jsConstructor = members.getJsConstructor();
+		this.functionAnnotations = members.getFunctions();
+		this.bindingAnnotations = members.getBindings();
+		this.varAnnotations = members.getVars();
+
+		// the invokers are created once, so a call doesn't have to inspect the method again
 		for (AnnotationMatch<JsFunction> fun : functionAnnotations) {
 			JsFunction annotation = fun.getAnnotation();
 			// it is save to cast, because JsFunction can only occure on methods (see
@@ -79,36 +102,29 @@ public class JsAnnotationClassFactory implements JsClassFactory {
 				name = method.getName();
 			}
 			try {
-				registerFunction(object, name, method, annotation.raw());
+				functions.put(name, new JsMethodInvoker(method, annotation.raw(), pool));
 			} catch (InvalidTypeException e) {
 				logger.error("Could not register function", e);
 			}
 		}
 	}
 
+	@Override
+	public void initClass(JsRuntime runtime, V8Object object) {
+		for (Map.Entry<String, JsMethodInvoker> function : functions.entrySet()) {
+			registerFunction(object, function.getKey(), function.getValue());
+		}
+	}
+
 	/**
 	 * Registers a js function in the given object with the given name for the given
-	 * method
+	 * invoker
 	 * 
-	 * @param object the js object on which the function is registered
-	 * @param name   the name of the function
-	 * @param method the java method which should be called. It doesn't matter if it
-	 *               is private or not.
-	 * @param raw    if the the java method should be called with the V8Object
-	 *               receiver and the V8Array parameters directly.
-	 * @throws InvalidTypeException
+	 * @param object  the js object on which the function is registered
+	 * @param name    the name of the function
+	 * @param invoker the invoker of the java method which should be called
 	 */
-	private void registerFunction(V8Object object, String name, Method method, boolean raw)
-			throws InvalidTypeException {
-
-		Class<?>[] types = method.getParameterTypes();
-		if (raw) {
-			if (types.length != 2 || !V8Object.class.isAssignableFrom(types[0])
-					|| !V8Array.class.isAssignableFrom(types[1])) {
-				throw new InvalidTypeException("Cannot call the method \"" + method.toGenericString() + "\" because "
-						+ "the signature doesn't match (V8Object receiver, V8Array parameters)");
-			}
-		}
+	private void registerFunction(V8Object object, String name, JsMethodInvoker invoker) {
 		object.registerJavaMethod((JavaCallback) (receiver, parameters) -> {
 			try {
 				long id = ObjectPool.getId(receiver);
@@ -116,47 +132,11 @@ public class JsAnnotationClassFactory implements JsClassFactory {
 				if (obj == null) {
 					throw new NullPointerException("No java object with the id \"" + id + "\" was found");
 				}
-
-				// checks if the object returned from the pool has the right type
-				Class<?> clazz = method.getDeclaringClass();
-				if (!clazz.isAssignableFrom(obj.getClass())) {
-					throw new IllegalStateException(
-							"The class \"" + obj.getClass().getName() + "\" the object with the id \"" + id
-									+ "\" is not assignable from the class \"" + clazz.getName() + "\"");
-				}
-
-				if (raw) {
-					method.setAccessible(true);
-					return method.invoke(obj, receiver, parameters);
-				}
-
-				// checks parameter length
-				if (parameters.length() > method.getParameterCount()) {
-					throw new InvalidTypeException("The js function called with " + parameters.length()
-							+ " parameters, " + "but the java method \"" + method.getName() + "\"only supports "
-							+ method.getParameterCount());
-				}
-
-				// deserializes parameters
-				Object[] args = new Object[method.getParameterCount()];
-				for (int i = 0; i < parameters.length(); i++) {
-					Object jsArg = parameters.get(i);
-					args[i] = pool.deserialize(types[i], jsArg);
-				}
-
-				// calls the method
-				method.setAccessible(true);
-				Object returnValue = pool.serialize((Class) method.getReturnType(), method.invoke(obj, args));
-				if(returnValue instanceof V8Value) {
-					return ((V8Value) returnValue).twin();
-				}
-				return returnValue;
-			} catch (RuntimeException e) {
+				return invoker.invoke(obj, receiver, parameters);
+			} catch (RuntimeException | Error e) {
 				throw e; // runtime exception don't have to be wrapped by an other runtime exception
-			} catch (Exception e) {
+			} catch (Throwable e) {
 				throw new RuntimeException(e);
-			} finally {
-				method.setAccessible(true);
 			}
 		}, name);
 	}
@@ -173,17 +153,13 @@ public class JsAnnotationClassFactory implements JsClassFactory {
 		}
 		try {
 			Object obj = instantiateObject(args, runtime);
-			// it is save to cast, because JsId can only occur on fields (see @Target)
-			Field jsIdField = (Field) jsId.getFoundOn();
 			long id = pool.requestId();
-			jsIdField.setAccessible(true);
-			jsIdField.set(obj, id);
-			jsIdField.setAccessible(false);
+			setId(obj, id);
 			pool.putObject(id, object.twin(), obj, this);
 
 			object.add("_id", id);
 
-			initBindings(runtime, object, obj);
+			initBindings(runtime, object, obj, id);
 			initVar(runtime, object, obj);
 
 		} catch (InstantiationException | IllegalAccessException | SerializeException | IllegalArgumentException
@@ -193,16 +169,32 @@ public class JsAnnotationClassFactory implements JsClassFactory {
 		}
 	}
 
+	/**
+	 * Sets the {@link JsId} field of an object
+	 * 
+	 * @param obj the object
+	 * @param id  the id
+	 */
+	private void setId(Object obj, long id) {
+		try {
+			idSetter.invokeExact(obj, id);
+		} catch (Throwable e) {
+			throw new IllegalStateException("Cannot set the id of an object of the type \"" + clazz.getName() + "\"",
+					e);
+		}
+	}
+
 	/**
 	 * initializes the bindings of the object
 	 * @param runtime the js runtime 
 	 * @param object the v8 object to which the bindings should be added
 	 * @param obj the java object which should be used
+	 * @param id the id of the object in the pool
 	 * @throws IllegalArgumentException 
 	 * @throws IllegalAccessException
 	 * @throws SerializeException
 	 */
-	private void initBindings(JsRuntime runtime, V8Object object, Object obj)
+	private void initBindings(JsRuntime runtime, V8Object object, Object obj, long id)
 			throws IllegalArgumentException, IllegalAccessException, SerializeException {
 		for (AnnotationMatch<JsBinding> binding : bindingAnnotations) {
 			JsBinding annotation = binding.getAnnotation();
@@ -216,19 +208,23 @@ public class JsAnnotationClassFactory implements JsClassFactory {
 			// no generics because BindingLib.bindProperty expects an impossible generic
 			Class javaPropGenericType = annotation.type();
 
-			field.setAccessible(true);
+			// the field is accessible, see JsObjectMembers
 			Object fieldObj = field.get(obj);
-			field.setAccessible(false);
 			Class<?> fieldType = field.getType();
 			// checks the type of the field
+			// the handle of the js binding and the java listener are kept until the object
+			// is removed from the pool
 			if (ObservableList.class.isAssignableFrom(fieldType)) {
 				V8Object jsArrayBindingObj = BindingUtils.createArrayBinding(runtime);
-				BindingUtils.bindObservableList((ObservableList<?>) fieldObj, jsArrayBindingObj, javaPropGenericType,
-						runtime);
+				Runnable unbind = BindingUtils.bindObservableList((ObservableList<?>) fieldObj, jsArrayBindingObj,
+						javaPropGenericType, runtime);
+				pool.addUnbinder(id, () -> unbind(unbind, jsArrayBindingObj));
 				object.add(name, jsArrayBindingObj);
 			} else if (Property.class.isAssignableFrom(fieldType)) {
 				V8Object jsBindingObj = BindingUtils.createBinding(runtime);
-				BindingUtils.bindProperty((Property<?>) fieldObj, jsBindingObj, javaPropGenericType, runtime);
+				Runnable unbind = BindingUtils.bindProperty((Property<?>) fieldObj, jsBindingObj, javaPropGenericType,
+						runtime);
+				pool.addUnbinder(id, () -> unbind(unbind, jsBindingObj));
 				object.add(name, jsBindingObj);
 			} else {
 				throw new IllegalStateException(
@@ -239,6 +235,21 @@ public class JsAnnotationClassFactory implements JsClassFactory {
 		}
 	}
 
+	/**
+	 * Removes the java listener of a binding and releases the handle of the js
+	 * binding
+	 * 
+	 * @param unbind    removes the java listener
+	 * @param jsBinding the js binding
+	 */
+	private static void unbind(Runnable unbind, V8Object jsBinding) {
+		try {
+			unbind.run();
+		} finally {
+			jsBinding.release();
+		}
+	}
+
 	/**
 	 * initializes the variables of an object
 	 * @param runtime the js runtime
@@ -260,9 +271,8 @@ public class JsAnnotationClassFactory implements JsClassFactory {
 				name = field.getName();
 			}
 
-			field.setAccessible(true);
+			// the field is accessible, see JsObjectMembers
 			Object fieldObj = field.get(obj);
-			field.setAccessible(false);
 			Class fieldType = field.getType();
 
 			Object jsObj = pool.serialize(fieldType, fieldObj);
@@ -315,10 +325,8 @@ public class JsAnnotationClassFactory implements JsClassFactory {
 				javaArgs[i] = pool.deserialize(argClasses[i], jsObj);
 			}
 
-			constructor.setAccessible(true);
-			Object obj = constructor.newInstance(javaArgs);
-			constructor.setAccessible(false);
-			return obj;
+			// the constructor is accessible, see JsObjectMembers
+			return constructor.newInstance(javaArgs);
 
 		} else {
 			try {
@@ -0,0 +1,212 @@
+package ch.sebi.fxedit.runtime.reflection;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+import com.eclipsesource.v8.V8Array;
+import com.eclipsesource.v8.V8Object;
+import com.eclipsesource.v8.V8Value;
+
+import ch.sebi.fxedit.exception.InvalidTypeException;
+
+/**
+ * Calls a {@link ch.sebi.fxedit.runtime.reflection.annotation.JsFunction} method
+ * from js. Everything which only depends on the method is done once when the
+ * invoker is created: the method is made accessible and unreflected into a
+ * {@link MethodHandle}, the converters of the parameters and the return value
+ * are chosen by their types and bound into the handle. A call only converts
+ * the arguments and invokes the handle.
+ *
+ * @author sebi
+ *
+ */
+final class JsMethodInvoker {
+	/**
+	 * the type of the invoker handle: (receiver, js arguments) -&gt; js value
+	 */
+	private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class,
+			Object[].class);
+	/**
+	 * the type of the invoker handle of raw methods: (receiver, js receiver, js
+	 * arguments) -&gt; return value
+	 */
+	private static final MethodType RAW_INVOKER_TYPE = MethodType.methodType(Object.class, Object.class,
+			V8Object.class, V8Array.class);
+	/**
+	 * {@link Converter#convert(Object)}
+	 */
+	private static final MethodHandle CONVERT;
+	/**
+	 * {@link #toJs(Object)}
+	 */
+	private static final MethodHandle TO_JS;
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			CONVERT = lookup.findVirtual(Converter.class, "convert",
+					MethodType.methodType(Object.class, Object.class));
+			TO_JS = lookup.findVirtual(JsMethodInvoker.class, "toJs",
+					MethodType.methodType(Object.class, Object.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * the method
+	 */
+	private final Method method;
+	/**
+	 * the class the receiver has to be an instance of
+	 */
+	private final Class<?> declaringClass;
+	/**
+	 * the number of parameters of the method
+	 */
+	private final int parameterCount;
+	/**
+	 * if the method is called with the js receiver and the js arguments directly
+	 */
+	private final boolean raw;
+	/**
+	 * the pool which converts objects
+	 */
+	private final ObjectPool pool;
+	/**
+	 * the handle which converts the arguments, calls the method and converts
+	 * the return value (see {@link #INVOKER_TYPE} and {@link #RAW_INVOKER_TYPE})
+	 */
+	private final MethodHandle invoker;
+
+	/**
+	 * Creates the invoker of a method
+	 *
+	 * @param method the method. It doesn't matter if it is private or not
+	 * @param raw    if the method is called with the V8Object receiver and the
+	 *               V8Array parameters directly
+	 * @param pool   the pool which converts objects
+	 * @throws InvalidTypeException if the method of a raw function has the wrong
+	 *                              signature
+	 */
+	JsMethodInvoker(Method method, boolean raw, ObjectPool pool) throws InvalidTypeException {
+		this.method = method;
+		this.declaringClass = method.getDeclaringClass();
+		this.parameterCount = method.getParameterCount();
+		this.raw = raw;
+		this.pool = pool;
+		Class<?>[] types = method.getParameterTypes();
+		if (raw && (types.length != 2 || !V8Object.class.isAssignableFrom(types[0])
+				|| !V8Array.class.isAssignableFrom(types[1]))) {
+			throw new InvalidTypeException("Cannot call the method \"" + method.toGenericString() + "\" because "
+					+ "the signature doesn't match (V8Object receiver, V8Array parameters)");
+		}
+		MethodHandle handle;
+		try {
+			method.setAccessible(true);
+			handle = MethodHandles.lookup().unreflect(method);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Cannot access the method \"" + method.toGenericString() + "\"", e);
+		}
+		if (raw) {
+			invoker = handle.asType(RAW_INVOKER_TYPE);
+			return;
+		}
+		MethodHandle[] filters = new MethodHandle[types.length];
+		for (int i = 0; i < types.length; i++) {
+			filters[i] = CONVERT.bindTo(converter(types[i]))
+					.asType(MethodType.methodType(types[i], Object.class));
+		}
+		handle = MethodHandles.filterArguments(handle, 1, filters);
+		if (method.getReturnType() != void.class) {
+			handle = MethodHandles.filterReturnValue(handle,
+					TO_JS.bindTo(this).asType(MethodType.methodType(Object.class, method.getReturnType())));
+		}
+		invoker = handle.asSpreader(Object[].class, types.length).asType(INVOKER_TYPE);
+	}
+
+	/**
+	 * Calls the method
+	 *
+	 * @param obj        the java object the method is called on
+	 * @param receiver   the js object the function was called on
+	 * @param parameters the js arguments
+	 * @return the return value converted for js
+	 * @throws Throwable the exceptions of the conversions and the method
+	 */
+	Object invoke(Object obj, V8Object receiver, V8Array parameters) throws Throwable {
+		if (obj == null) {
+			throw new IllegalStateException("The receiver of \"" + method.getName() + "\" isn't in the object pool");
+		}
+		// checks if the object returned from the pool has the right type
+		if (!declaringClass.isInstance(obj)) {
+			throw new IllegalStateException("The class \"" + obj.getClass().getName()
+					+ "\" of the receiver is not assignable to the class \"" + declaringClass.getName() + "\"");
+		}
+		if (raw) {
+			return (Object) invoker.invokeExact(obj, receiver, parameters);
+		}
+		int length = parameters.length();
+		if (length > parameterCount) {
+			throw new InvalidTypeException("The js function called with " + length + " parameters, "
+					+ "but the java method \"" + method.getName() + "\" only supports " + parameterCount);
+		}
+		Object[] args = new Object[parameterCount];
+		for (int i = 0; i < length; i++) {
+			args[i] = parameters.get(i);
+		}
+		return (Object) invoker.invokeExact(obj, args);
+	}
+
+	/**
+	 * Converts a return value for js. Returned js values are twinned, because
+	 * j2v8 releases the value which is returned to js
+	 *
+	 * @param value the return value
+	 * @return the js value
+	 * @throws Exception if the value couldn't be serialized
+	 */
+	@SuppressWarnings({ "unused", "unchecked", "rawtypes" })
+	private Object toJs(Object value) throws Exception {
+		Object jsValue = pool.serialize((Class) method.getReturnType(), value);
+		if (jsValue instanceof V8Value) {
+			return ((V8Value) jsValue).twin();
+		}
+		return jsValue;
+	}
+
+	/**
+	 * Returns the converter of the js arguments for a parameter type
+	 *
+	 * @param type the parameter type
+	 * @return the converter
+	 */
+	private Converter converter(Class<?> type) {
+		Class<?> boxed = MethodType.methodType(type).wrap().returnType();
+		if (boxed == Integer.class || boxed == Double.class || boxed == Boolean.class || boxed == String.class
+				|| boxed == Number.class) {
+			// the values j2v8 passes for these types don't need a conversion
+			return value -> boxed.isInstance(value) ? value : pool.deserialize(type, value);
+		}
+		return value -> pool.deserialize(type, value);
+	}
+
+	/**
+	 * Converts a js argument to the type of a parameter
+	 *
+	 * @author sebi
+	 *
+	 */
+	@FunctionalInterface
+	private interface Converter {
+		/**
+		 * Converts a js argument
+		 *
+		 * @param value the js argument
+		 * @return the java value
+		 * @throws Exception if the argument couldn't be converted
+		 */
+		Object convert(Object value) throws Exception;
+	}
+}
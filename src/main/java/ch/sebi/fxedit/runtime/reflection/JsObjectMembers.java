@@ -0,0 +1,191 @@
+package ch.sebi.fxedit.runtime.reflection;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import ch.sebi.fxedit.runtime.reflection.annotation.JsBinding;
+import ch.sebi.fxedit.runtime.reflection.annotation.JsConstructor;
+import ch.sebi.fxedit.runtime.reflection.annotation.JsFunction;
+import ch.sebi.fxedit.runtime.reflection.annotation.JsId;
+import ch.sebi.fxedit.runtime.reflection.annotation.JsObject;
+import ch.sebi.fxedit.runtime.reflection.annotation.JsVar;
+import ch.sebi.fxedit.utils.Annotations;
+import ch.sebi.fxedit.utils.Annotations.AnnotationMatch;
+
+/**
+ * The annotated members of a {@link JsObject} class, which the
+ * {@link JsAnnotationClassFactory} uses. The members of a class are looked up
+ * once per class with reflection and shared by all runtimes.
+ * {@link #resolveAll(Collection)} searches several classes in parallel.<br>
+ * The fields and the constructor are made accessible once, so the factories
+ * don't change the accessibility of the shared members.
+ *
+ * @author sebi
+ *
+ */
+final class JsObjectMembers {
+	/**
+	 * the members of every class
+	 */
+	private static final ClassValue<JsObjectMembers> MEMBERS = new ClassValue<JsObjectMembers>() {
+		@Override
+		protected JsObjectMembers computeValue(Class<?> type) {
+			return scan(type);
+		}
+	};
+
+	/**
+	 * the {@link JsObject} annotation of the class or null
+	 */
+	private AnnotationMatch<JsObject> jsObject;
+	/**
+	 * the {@link JsId} field of the class or null
+	 */
+	private AnnotationMatch<JsId> jsId;
+	/**
+	 * the {@link JsConstructor} of the class or null
+	 */
+	private AnnotationMatch<JsConstructor> jsConstructor;
+	/**
+	 * the {@link JsFunction} methods of the class hierarchy
+	 */
+	private List<AnnotationMatch<JsFunction>> functions = new ArrayList<>();
+	/**
+	 * the {@link JsBinding} fields of the class hierarchy
+	 */
+	private List<AnnotationMatch<JsBinding>> bindings = new ArrayList<>();
+	/**
+	 * the {@link JsVar} fields of the class hierarchy
+	 */
+	private List<AnnotationMatch<JsVar>> vars = new ArrayList<>();
+
+	/**
+	 * constructor
+	 *
+	 * @param type the class
+	 */
+	private JsObjectMembers(Class<?> type) {
+		JsObject annotation = type.getAnnotation(JsObject.class);
+		if (annotation != null) {
+			jsObject = new AnnotationMatch<>(type, annotation);
+		}
+	}
+
+	/**
+	 * Returns the members of a class
+	 *
+	 * @param type the class
+	 * @return the members
+	 */
+	static JsObjectMembers of(Class<?> type) {
+		return MEMBERS.get(type);
+	}
+
+	/**
+	 * Looks up the members of several classes in parallel
+	 *
+	 * @param types the classes
+	 */
+	static void resolveAll(Collection<Class<?>> types) {
+		types.parallelStream().forEach(MEMBERS::get);
+	}
+
+	/**
+	 * Searches the members of a class with reflection
+	 *
+	 * @param type the class
+	 * @return the members
+	 */
+	private static JsObjectMembers scan(Class<?> type) {
+		JsObjectMembers members = new JsObjectMembers(type);
+		members.jsId = Annotations.findAnnotation(type, JsId.class).orElse(null);
+		members.jsConstructor = Annotations.findAnnotation(type, JsConstructor.class).orElse(null);
+		members.functions = Annotations.findAnnotationsInHierarchy(type, JsFunction.class);
+		members.bindings = Annotations.findAnnotationsInHierarchy(type, JsBinding.class);
+		members.vars = Annotations.findAnnotationsInHierarchy(type, JsVar.class);
+		return members.makeAccessible();
+	}
+
+	/**
+	 * Makes the fields and the constructor accessible and the lists
+	 * unmodifiable
+	 *
+	 * @return this
+	 */
+	private JsObjectMembers makeAccessible() {
+		if (jsId != null) {
+			((Field) jsId.getFoundOn()).setAccessible(true);
+		}
+		if (jsConstructor != null) {
+			((AccessibleObject) jsConstructor.getFoundOn()).setAccessible(true);
+		}
+		for (AnnotationMatch<JsBinding> binding : bindings) {
+			((Field) binding.getFoundOn()).setAccessible(true);
+		}
+		for (AnnotationMatch<JsVar> var : vars) {
+			((Field) var.getFoundOn()).setAccessible(true);
+		}
+		functions = Collections.unmodifiableList(functions);
+		bindings = Collections.unmodifiableList(bindings);
+		vars = Collections.unmodifiableList(vars);
+		return this;
+	}
+
+	/**
+	 * Returns the {@link JsObject} annotation of the class
+	 *
+	 * @return the match or null if the class has no such annotation
+	 */
+	AnnotationMatch<JsObject> getJsObject() {
+		return jsObject;
+	}
+
+	/**
+	 * Returns the {@link JsId} field of the class
+	 *
+	 * @return the match or null if the class has no such field
+	 */
+	AnnotationMatch<JsId> getJsId() {
+		return jsId;
+	}
+
+	/**
+	 * Returns the {@link JsConstructor} of the class
+	 *
+	 * @return the match or null if the class has no such constructor
+	 */
+	AnnotationMatch<JsConstructor> getJsConstructor() {
+		return jsConstructor;
+	}
+
+	/**
+	 * Returns the {@link JsFunction} methods of the class hierarchy
+	 *
+	 * @return the matches
+	 */
+	List<AnnotationMatch<JsFunction>> getFunctions() {
+		return functions;
+	}
+
+	/**
+	 * Returns the {@link JsBinding} fields of the class hierarchy
+	 *
+	 * @return the matches
+	 */
+	List<AnnotationMatch<JsBinding>> getBindings() {
+		return bindings;
+	}
+
+	/**
+	 * Returns the {@link JsVar} fields of the class hierarchy
+	 *
+	 * @return the matches
+	 */
+	List<AnnotationMatch<JsVar>> getVars() {
+		return vars;
+	}
+}
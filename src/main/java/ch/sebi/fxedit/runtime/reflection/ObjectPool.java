@@ -4,10 +4,16 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +40,7 @@ import ch.sebi.fxedit.runtime.reflection.annotation.JsId;
 import ch.sebi.fxedit.runtime.reflection.annotation.JsObject;
 import ch.sebi.fxedit.utils.Annotations;
 import ch.sebi.fxedit.utils.Annotations.AnnotationMatch;
+import ch.sebi.fxedit.utils.LongObjectMap;
 
 /**
  * manages js and java objects
@@ -42,6 +49,49 @@ import ch.sebi.fxedit.utils.Annotations.AnnotationMatch;
  *
  */
 public class ObjectPool implements Closeable {
+	/**
+	 * the wrapper classes of the primitive types. Primitives arrive boxed from
+	 * j2v8, so a parameter of type int accepts an {@link Integer}
+	 */
+	private static final Map<Class<?>, Class<?>> PRIMITIVE_WRAPPERS;
+	static {
+		Map<Class<?>, Class<?>> wrappers = new HashMap<>();
+		wrappers.put(boolean.class, Boolean.class);
+		wrappers.put(byte.class, Byte.class);
+		wrappers.put(char.class, Character.class);
+		wrappers.put(short.class, Short.class);
+		wrappers.put(int.class, Integer.class);
+		wrappers.put(long.class, Long.class);
+		wrappers.put(float.class, Float.class);
+		wrappers.put(double.class, Double.class);
+		wrappers.put(void.class, Void.class);
+		PRIMITIVE_WRAPPERS = Collections.unmodifiableMap(wrappers);
+	}
+
+	/**
+	 * the getter of the {@link JsId} field of every class (type (Object)long) or
+	 * null if the class has no such field. The fields are looked up once per
+	 * class instead of on every serialization
+	 */
+	private static final ClassValue<MethodHandle> ID_GETTERS = new ClassValue<MethodHandle>() {
+		@Override
+		protected MethodHandle computeValue(Class<?> type) {
+			List<AnnotationMatch<JsId>> jsIds = Annotations.findAnnotations(type, JsId.class);
+			if (jsIds.isEmpty()) {
+				return null;
+			}
+			// save to cast, because @JsId can only occur on fields
+			Field field = (Field) jsIds.get(0).getFoundOn();
+			try {
+				field.setAccessible(true);
+				return MethodHandles.lookup().unreflectGetter(field)
+						.asType(MethodType.methodType(long.class, Object.class));
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException("Cannot access the id field \"" + field + "\"", e);
+			}
+		}
+	};
+
 	/**
 	 * logger
 	 */
@@ -58,9 +108,10 @@ public class ObjectPool implements Closeable {
 	private AtomicLong nextId = new AtomicLong();
 
 	/**
-	 * the object entries with their ids
+	 * the object entries with their ids. An entry stays in the pool until it is
+	 * removed with {@link #removeObject(long)} or the pool is closed
 	 */
-	private Map<Long, ObjectPoolEntry> objectPool = new HashMap<>();
+	private LongObjectMap<ObjectPoolEntry> objectPool = new LongObjectMap<>();
 
 	/**
 	 * the registered Classes which use the {@link JsAnnotationClassFactory}. This
@@ -73,12 +124,11 @@ public class ObjectPool implements Closeable {
 	}
 
 	public void registerClass(String modulePath, Class<?> objClass) {
-		List<AnnotationMatch<JsObject>> objects = Annotations.findAnnotations(objClass, JsObject.class);
-		if (objects.size() == 0) {
+		AnnotationMatch<JsObject> object = JsObjectMembers.of(objClass).getJsObject();
+		if (object == null) {
 			throw new IllegalArgumentException(
 					"The class \"" + objClass.getName() + "\" to have a @JsObject annotation");
 		}
-		AnnotationMatch<JsObject> object = objects.get(0);
 		Class<?> foundOn = (Class<?>) object.getFoundOn();
 		scanClass(modulePath, foundOn);
 	}
@@ -127,14 +177,74 @@ public class ObjectPool implements Closeable {
 		objectPool.put(id, entry);
 	}
 
+	/**
+	 * Adds a function which unbinds a binding of an object. It is called when
+	 * the object is removed from the pool or the pool is closed.
+	 * 
+	 * @param id       the id of the object
+	 * @param unbinder removes the java listener and releases the js binding
+	 */
+	protected void addUnbinder(long id, Runnable unbinder) {
+		ObjectPoolEntry entry = objectPool.get(id);
+		if (entry == null) {
+			throw new IllegalStateException("There is no object with the id \"" + id + "\"");
+		}
+		entry.getUnbinders().add(unbinder);
+	}
+
+	/**
+	 * Removes an object from the pool. The pool releases its handle to the js
+	 * object and unbinds the bindings of the object, so v8 can collect the js
+	 * object when js doesn't reference it anymore, and forgets the java object.
+	 * If the java object is {@link Closeable}, it is closed.<br>
+	 * The java and the js object cannot be converted into each other after they
+	 * were removed.
+	 * 
+	 * @param id the id of the object
+	 * @return the removed java object or null if there was no object with the id
+	 */
+	public Object removeObject(long id) {
+		ObjectPoolEntry entry = objectPool.remove(id);
+		if (entry == null) {
+			return null;
+		}
+		try {
+			disposeEntry(entry);
+		} catch (IOException e) {
+			logger.warn("Couldn't close the object \"" + id + "\" which was removed from the pool", e);
+		}
+		return entry.getJavaObj();
+	}
+
+	/**
+	 * Returns the number of objects in the pool
+	 * 
+	 * @return the number of objects
+	 */
+	public int size() {
+		return objectPool.size();
+	}
+
+	/**
+	 * Returns the java object with the given id
+	 * 
+	 * @param id the id
+	 * @return the java object or null if there is no object with this id
+	 */
 	public Object getJavaObj(long id) {
-		return objectPool.get(id).getJavaObj();
+		ObjectPoolEntry entry = objectPool.get(id);
+		return entry == null ? null : entry.getJavaObj();
 	}
 
+	/**
+	 * Returns the js object with the given id
+	 * 
+	 * @param id the id
+	 * @return the js object or null if there is no object with this id
+	 */
 	public V8Object getJsObj(long id) {
-		if (!objectPool.containsKey(id))
-			return null;
-		return objectPool.get(id).getJsObj();
+		ObjectPoolEntry entry = objectPool.get(id);
+		return entry == null ? null : entry.getJsObj();
 	}
 
 	public V8Object getJsObj(Object obj) throws NoIdFoundException {
@@ -142,9 +252,8 @@ public class ObjectPool implements Closeable {
 	}
 
 	public JsAnnotationClassFactory getFactory(long id) {
-		if (!objectPool.containsKey(id))
-			return null;
-		return objectPool.get(id).getFactory();
+		ObjectPoolEntry entry = objectPool.get(id);
+		return entry == null ? null : entry.getFactory();
 	}
 
 	/**
@@ -184,6 +293,7 @@ public class ObjectPool implements Closeable {
 	public void processClassProperties(Properties properties) {
 		HashMap<String, Object> map = new HashMap(properties);
 		String initLibsStr = (String) map.remove("initLibs");
+		resolveMembers(map.values());
 		for (String key : map.keySet()) {
 			Object value = map.get(key);
 			if (!(value instanceof String)) {
@@ -210,6 +320,29 @@ public class ObjectPool implements Closeable {
 		}
 	}
 
+	/**
+	 * Looks up the members of the {@link JsObject} classes in parallel, so the
+	 * factories which are created one after another find them already resolved
+	 * (see {@link JsObjectMembers})
+	 * 
+	 * @param classPaths the paths to the classes
+	 */
+	private void resolveMembers(Collection<Object> classPaths) {
+		ClassLoader loader = getClass().getClassLoader();
+		List<Class<?>> classes = new ArrayList<>();
+		for (Object classPath : classPaths) {
+			try {
+				Class<?> objClass = Class.forName(String.valueOf(classPath), false, loader);
+				if (objClass.isAnnotationPresent(JsObject.class)) {
+					classes.add(objClass);
+				}
+			} catch (ClassNotFoundException | LinkageError e) {
+				// the error is reported when the class is loaded
+			}
+		}
+		JsObjectMembers.resolveAll(classes);
+	}
+
 	/**
 	 * Loads the given class under the given factory id. If there is a
 	 * {@link JsObject} annotation present on the given class, then it is loaded via
@@ -233,7 +366,7 @@ public class ObjectPool implements Closeable {
 
 		ClassLoader loader = getClass().getClassLoader();
 		Class<?> factoryClass = loader.loadClass(factoryClassPath);
-		if (Annotations.findAnnotations(factoryClass, JsObject.class).size() > 0) {
+		if (factoryClass.isAnnotationPresent(JsObject.class)) {
 			registerClass(factoryId, factoryClass);
 		} else if (JsClassFactory.class.isAssignableFrom(factoryClass)) {
 			Constructor<?> constructor = factoryClass.getDeclaredConstructor();
@@ -293,6 +426,10 @@ public class ObjectPool implements Closeable {
 			try {
 				long id = getId(obj);
 				V8Object jsObj = getJsObj(id);
+				if (jsObj == null) {
+					throw new SerializeException("Couldn't serialize object, because it was removed from the pool (clazz: \""
+							+ clazz.getName() + "\")");
+				}
 				if (jsObj.isReleased()) {
 					throw new SerializeException(
 							"Couldn't serialize object, because V8Value was already released (clazz: \""
@@ -322,7 +459,7 @@ public class ObjectPool implements Closeable {
 	public <T> T deserialize(Class<T> clazz, Object obj) throws SerializeException, InvalidTypeException {
 		if (obj instanceof Double || obj instanceof Integer || obj instanceof Float || obj instanceof Number
 				|| obj instanceof Boolean || obj instanceof String) {
-			if (!clazz.isInstance(obj)) {
+			if (!clazz.isInstance(obj) && !(clazz.isPrimitive() && PRIMITIVE_WRAPPERS.get(clazz).isInstance(obj))) {
 				throw new InvalidTypeException(
 						"Cannot deserialize \"" + obj.getClass().getName() + "\" to \"" + clazz.getName() + "\"");
 			}
@@ -350,13 +487,37 @@ public class ObjectPool implements Closeable {
 	@Override
 	public void close() throws IOException {
 		for (ObjectPoolEntry entry : objectPool.values()) {
+			disposeEntry(entry);
+		}
+		objectPool.clear();
+	}
+
+	/**
+	 * Unbinds the bindings of an entry, closes the java object if it is
+	 * {@link Closeable} and releases the handle to the js object
+	 * 
+	 * @param entry the entry
+	 * @throws IOException if the java object couldn't be closed
+	 */
+	private void disposeEntry(ObjectPoolEntry entry) throws IOException {
+		for (Runnable unbinder : entry.getUnbinders()) {
+			try {
+				unbinder.run();
+			} catch (RuntimeException e) {
+				logger.warn("Couldn't unbind a binding of the object \"" + entry.getId() + "\"", e);
+			}
+		}
+		entry.getUnbinders().clear();
+		try {
 			Object javaObj = entry.getJavaObj();
 			if (javaObj instanceof Closeable) {
 				((Closeable) javaObj).close();
 			}
-			entry.getJsObj().release();
+		} finally {
+			if (!entry.getJsObj().isReleased()) {
+				entry.getJsObj().release();
+			}
 		}
-
 	}
 
 	private static class ObjectPoolEntry {
@@ -364,6 +525,10 @@ public class ObjectPool implements Closeable {
 		private V8Object jsObj;
 		private Object javaObj;
 		private JsAnnotationClassFactory factory;
+		/**
+		 * unbind the bindings of the object
+		 */
+		private List<Runnable> unbinders = new ArrayList<>();
 
 		/**
 		 * constructor
@@ -395,6 +560,15 @@ public class ObjectPool implements Closeable {
 		public JsAnnotationClassFactory getFactory() {
 			return factory;
 		}
+
+		/**
+		 * Returns the functions which unbind the bindings of the object
+		 * 
+		 * @return the unbinders
+		 */
+		public List<Runnable> getUnbinders() {
+			return unbinders;
+		}
 	}
 
 	/**
@@ -422,22 +596,14 @@ public class ObjectPool implements Closeable {
 	public static long getId(Object obj) throws NoIdFoundException {
 		if (obj == null)
 			throw new NullPointerException("Given obj is null");
-		List<AnnotationMatch<JsId>> jsIds = Annotations.findAnnotations(obj.getClass(), JsId.class);
-		if (jsIds.size() == 0) {
+		MethodHandle getter = ID_GETTERS.get(obj.getClass());
+		if (getter == null) {
 			throw new NoIdFoundException("No JsId annotation found on class \"" + obj.getClass().getName());
 		}
-		AnnotationMatch<JsId> match = jsIds.get(0);
-		// save to cast, because @JsId can only occur on fields
-		Field field = (Field) match.getFoundOn();
-		field.setAccessible(true);
-		long id;
 		try {
-			id = field.getLong(obj);
-			return id;
-		} catch (IllegalArgumentException | IllegalAccessException e) {
+			return (long) getter.invokeExact(obj);
+		} catch (Throwable e) {
 			throw new IllegalStateException("Cannot retrieve id because of: ", e);
-		} finally {
-			field.setAccessible(false);
 		}
 	}
 }
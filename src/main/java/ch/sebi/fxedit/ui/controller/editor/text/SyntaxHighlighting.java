@@ -0,0 +1,388 @@
+package ch.sebi.fxedit.ui.controller.editor.text;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.model.StyleSpansBuilder;
+
+import ch.sebi.fxedit.model.source.TextBufferSource;
+import ch.sebi.fxedit.model.syntax.BackgroundHighlighter;
+import ch.sebi.fxedit.model.syntax.BackgroundHighlighter.HighlightResult;
+import ch.sebi.fxedit.model.syntax.Lexer;
+import ch.sebi.fxedit.model.syntax.SyntaxCache;
+import ch.sebi.fxedit.model.syntax.SyntaxModel;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.beans.value.ObservableValue;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+
+/**
+ * Highlights the text of a {@link CodeArea} with the rules of a syntax file.
+ * The syntax file is compiled once per process (see {@link SyntaxCache}).
+ * Every rule gets a style class, whose color is set by a generated stylesheet.
+ * The stylesheet is shared by all editors with the same syntax. The text is
+ * tokenized on a background thread against snapshots of the source (see
+ * {@link BackgroundHighlighter}). The visible lines are reported to the
+ * highlighter whenever the viewport changes, so they are tokenized first. The
+ * newest result is applied once per frame with one style update per range of
+ * consecutive lines, results of an older version than the source are dropped.
+ * The area only shows a window of the source (see {@link TextSourceBridge}),
+ * so the lines of a result are moved by the first line of the window and
+ * lines outside of it are skipped.
+ *
+ * @author sebi
+ *
+ */
+public class SyntaxHighlighting {
+	/**
+	 * the prefix of the style classes of the rules
+	 */
+	private static final String STYLE_CLASS_PREFIX = "syntax-";
+	/**
+	 * the generated stylesheets of the syntaxes, shared by all editors. The
+	 * files are deleted when the process exits
+	 */
+	private static final Map<SyntaxModel, String> stylesheets = new WeakHashMap<>();
+
+	/**
+	 * logger
+	 */
+	private Logger logger = LogManager.getLogger();
+
+	/**
+	 * the code area
+	 */
+	private final CodeArea area;
+	/**
+	 * the bridge which shows the current source in the area or null
+	 */
+	private TextSourceBridge bridge = null;
+	/**
+	 * the lexer of the current syntax or null
+	 */
+	private Lexer lexer = null;
+	/**
+	 * the current syntax or null
+	 */
+	private SyntaxModel syntax = null;
+	/**
+	 * the current source or null
+	 */
+	private TextBufferSource source = null;
+	/**
+	 * the highlighter of the current source or null
+	 */
+	private BackgroundHighlighter highlighter = null;
+	/**
+	 * the style classes of the rules of the current syntax
+	 */
+	private List<List<String>> styles = null;
+	/**
+	 * the url of the stylesheet of the current syntax or null
+	 */
+	private String stylesheet = null;
+	/**
+	 * the newest result which wasn't applied yet
+	 */
+	private final AtomicReference<HighlightResult> result = new AtomicReference<>();
+	/**
+	 * applies the newest result once per frame
+	 */
+	private final AnimationTimer timer = new AnimationTimer() {
+		@Override
+		public void handle(long now) {
+			applyResult();
+		}
+	};
+
+	/**
+	 * constructor
+	 *
+	 * @param area       the code area
+	 * @param syntaxFile the path of the syntax file. The syntax is changed when
+	 *                   the path changes
+	 */
+	public SyntaxHighlighting(CodeArea area, ObservableValue<String> syntaxFile) {
+		this.area = area;
+		syntaxFile.addListener((o, oldV, newV) -> setSyntaxFile(newV));
+		area.viewportDirtyEvents().subscribe(e -> reportViewport());
+		setSyntaxFile(syntaxFile.getValue());
+	}
+
+	/**
+	 * Highlights the source of the bridge. Results are only applied while the
+	 * bridge is in sync.
+	 *
+	 * @param bridge the bridge or null
+	 */
+	public void setBridge(TextSourceBridge bridge) {
+		if (this.bridge != null) {
+			this.bridge.setOnWindowMoved(null);
+			this.bridge.setOnSynced(null);
+		}
+		this.bridge = bridge;
+		if (bridge != null) {
+			bridge.setOnWindowMoved(this::windowMoved);
+			bridge.setOnSynced(this::synced);
+		}
+		setSource(bridge == null ? null : bridge.getSource());
+	}
+
+	/**
+	 * Highlights the given source
+	 *
+	 * @param source the source or null
+	 */
+	private void setSource(TextBufferSource source) {
+		if (highlighter != null) {
+			highlighter.dispose();
+			highlighter = null;
+		}
+		result.set(null);
+		this.source = source;
+		if (source != null) {
+			highlighter = new BackgroundHighlighter(source, this::resultReady);
+			highlighter.setLexer(lexer);
+			reportViewport();
+		}
+	}
+
+	/**
+	 * Reports the visible lines of the source to the highlighter
+	 */
+	private void reportViewport() {
+		if (highlighter == null || bridge == null || area.getVisibleParagraphs().isEmpty()) {
+			return;
+		}
+		int firstLine = bridge.getFirstLine();
+		int first = area.visibleParToAllParIndex(0);
+		int last = area.visibleParToAllParIndex(area.getVisibleParagraphs().size() - 1);
+		highlighter.setViewport(firstLine + first, firstLine + last + 1);
+	}
+
+	/**
+	 * Applies a result which waited for the bridge to be in sync
+	 */
+	private void synced() {
+		if (result.get() != null) {
+			timer.start();
+		}
+	}
+
+	/**
+	 * Asks for the tokens of the viewport again after the area got other lines
+	 * of the source
+	 */
+	private void windowMoved() {
+		if (highlighter != null) {
+			highlighter.refresh();
+			reportViewport();
+		}
+	}
+
+	/**
+	 * Loads the syntax file from the {@link SyntaxCache} and highlights the
+	 * whole text
+	 *
+	 * @param path the path of the syntax file or null
+	 */
+	private void setSyntaxFile(String path) {
+		if (path == null) {
+			setLexer(null);
+			return;
+		}
+		try {
+			setLexer(SyntaxCache.getLexer(new File(path)));
+		} catch (IOException | RuntimeException e) {
+			logger.error("Couldn't load the syntax file \"" + path + "\"", e);
+			setLexer(null);
+		}
+	}
+
+	/**
+	 * Uses the syntax of the lexer and highlights the whole text
+	 *
+	 * @param lexer the lexer or null to remove the highlighting
+	 */
+	private void setLexer(Lexer lexer) {
+		if (lexer == this.lexer) {
+			return;
+		}
+		this.lexer = lexer;
+		this.syntax = lexer == null ? null : lexer.getSyntax();
+		if (stylesheet != null) {
+			area.getStylesheets().remove(stylesheet);
+			stylesheet = null;
+		}
+		result.set(null);
+		if (syntax == null) {
+			styles = null;
+			area.clearStyle(0, area.getLength());
+		} else {
+			int rules = syntax.getRules().size();
+			styles = new ArrayList<>(rules);
+			for (int i = 0; i < rules; i++) {
+				styles.add(Collections.singletonList(STYLE_CLASS_PREFIX + i));
+			}
+			try {
+				stylesheet = getStylesheet(syntax);
+				area.getStylesheets().add(stylesheet);
+			} catch (IOException e) {
+				logger.error("Couldn't write the stylesheet of the syntax", e);
+			}
+		}
+		if (highlighter != null) {
+			highlighter.setLexer(lexer);
+		}
+	}
+
+	/**
+	 * Returns the stylesheet which sets the colors of the rules of a syntax. The
+	 * stylesheet is generated when it is used the first time.
+	 *
+	 * @param syntax the syntax
+	 * @return the url of the stylesheet
+	 * @throws IOException if the stylesheet couldn't be written
+	 */
+	private static String getStylesheet(SyntaxModel syntax) throws IOException {
+		String url = stylesheets.get(syntax);
+		if (url == null) {
+			List<SyntaxModel.Rule> rules = syntax.getRules();
+			StringBuilder css = new StringBuilder();
+			for (int i = 0; i < rules.size(); i++) {
+				css.append('.').append(STYLE_CLASS_PREFIX).append(i).append(" { -fx-fill: ")
+						.append(toCss(rules.get(i).getPaint())).append("; }\n");
+			}
+			Path file = Files.createTempFile("fxedit-syntax", ".css");
+			file.toFile().deleteOnExit();
+			Files.write(file, css.toString().getBytes(StandardCharsets.UTF_8));
+			url = file.toUri().toString();
+			stylesheets.put(syntax, url);
+		}
+		return url;
+	}
+
+	/**
+	 * Receives a result on the highlighter thread
+	 *
+	 * @param result the result
+	 */
+	private void resultReady(HighlightResult result) {
+		this.result.set(result);
+		Platform.runLater(timer::start);
+	}
+
+	/**
+	 * Applies the newest result if it belongs to the text which is shown
+	 */
+	private void applyResult() {
+		HighlightResult result = this.result.get();
+		if (result == null || source == null || bridge == null || styles == null) {
+			timer.stop();
+			return;
+		}
+		if (!bridge.isInSync()) {
+			// the area doesn't show the current text yet, the bridge starts the timer again when it does
+			timer.stop();
+			return;
+		}
+		try {
+			if (result.getSyntax() != syntax || source.snapshot().getVersion() != result.getVersion()) {
+				// a newer result is on its way
+				this.result.compareAndSet(result, null);
+				return;
+			}
+			this.result.compareAndSet(result, null);
+			applyStyles(result, bridge.getFirstLine());
+			highlighter.applied(result);
+		} catch (Exception e) {
+			logger.error("Couldn't apply the syntax highlighting", e);
+			this.result.compareAndSet(result, null);
+		}
+	}
+
+	/**
+	 * Sets the styles of the lines of the result which are in the area with one
+	 * update per range of consecutive lines
+	 *
+	 * @param result    the result
+	 * @param firstLine the line of the source of the first paragraph
+	 */
+	private void applyStyles(HighlightResult result, int firstLine) {
+		int paragraphs = area.getParagraphs().size();
+		int i = 0;
+		while (i < result.size()) {
+			int from = result.getLine(i) - firstLine;
+			if (!isShown(result, i, from, paragraphs)) {
+				i++;
+				continue;
+			}
+			StyleSpansBuilder<Collection<String>> spans = new StyleSpansBuilder<>();
+			int paragraph = from;
+			int total = 0;
+			do {
+				int[] tokens = result.getTokens(i);
+				int pos = 0;
+				for (int t = 0; t < tokens.length; t += 3) {
+					spans.add(Collections.emptyList(), tokens[t] - pos);
+					spans.add(styles.get(tokens[t + 2]), tokens[t + 1] - tokens[t]);
+					pos = tokens[t + 1];
+				}
+				// the rest of the line and its line feed
+				int length = result.getLineLength(i) + (paragraph + 1 < paragraphs ? 1 : 0);
+				spans.add(Collections.emptyList(), length - pos);
+				total += length;
+				i++;
+				paragraph++;
+			} while (i < result.size() && result.getLine(i) - firstLine == paragraph
+					&& isShown(result, i, paragraph, paragraphs));
+			if (total > 0) {
+				area.setStyleSpans(area.getAbsolutePosition(from, 0), spans.create());
+			}
+		}
+	}
+
+	/**
+	 * Returns if a line of the result is shown completely by a paragraph of the
+	 * area. The first and the last line of the window may be cut.
+	 *
+	 * @param result     the result
+	 * @param i          the index of the line in the result
+	 * @param paragraph  the paragraph of the line
+	 * @param paragraphs the number of paragraphs
+	 * @return if the tokens of the line can be applied to the paragraph
+	 */
+	private boolean isShown(HighlightResult result, int i, int paragraph, int paragraphs) {
+		return paragraph >= 0 && paragraph < paragraphs
+				&& area.getParagraphLength(paragraph) == result.getLineLength(i);
+	}
+
+	/**
+	 * Converts a paint to a css color
+	 *
+	 * @param paint the paint
+	 * @return the css color
+	 */
+	private static String toCss(Paint paint) {
+		if (paint instanceof Color) {
+			Color color = (Color) paint;
+			return "rgba(" + Math.round(color.getRed() * 255) + ", " + Math.round(color.getGreen() * 255) + ", "
+					+ Math.round(color.getBlue() * 255) + ", " + color.getOpacity() + ")";
+		}
+		return paint.toString();
+	}
+}
@@ -5,23 +5,46 @@ import java.util.ResourceBundle;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.LineNumberFactory;
 
 import ch.sebi.fxedit.model.source.TextBufferSource;
 import ch.sebi.fxedit.model.ui.editor.TextEditorModel;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
-import javafx.scene.control.TextArea;
 
+/**
+ * The controller of a text editor. The text is shown in a {@link CodeArea},
+ * which only creates nodes for the visible paragraphs, so scrolling doesn't
+ * depend on the size of the document.
+ * 
+ * @author sebi
+ *
+ */
 public class TextEditorController implements Initializable {
 	/**
 	 * logger
 	 */
 	private Logger logger = LogManager.getLogger();
 
+	/**
+	 * the code area which shows the text
+	 */
 	@FXML
-	private TextArea textarea;
+	private CodeArea codeArea;
 	
 	private TextEditorModel model;
+
+	/**
+	 * the bridge which keeps the code area and the current source in sync or
+	 * null
+	 */
+	private TextSourceBridge bridge = null;
+
+	/**
+	 * the syntax highlighting of the code area
+	 */
+	private SyntaxHighlighting highlighting;
 	
 	public TextEditorController(TextEditorModel model) {
 		this.model = model;
@@ -29,16 +52,31 @@ public class TextEditorController implements Initializable {
 
 	@Override
 	public void initialize(URL location, ResourceBundle resources) {
+		codeArea.setParagraphGraphicFactory(LineNumberFactory.get(codeArea));
+		highlighting = new SyntaxHighlighting(codeArea, model.syntaxFileProperty());
 		model.sourceProperty().addListener((o, oldV, newV) -> setSource(newV));
 	}
 
+	/**
+	 * Shows the text of the given source. Only a window around the visible lines
+	 * is in the code area and the first screen is shown while the source is
+	 * still loading. Afterwards the edits are synchronized in both directions.
+	 * 
+	 * @param newV the source
+	 */
 	private void setSource(TextBufferSource newV) {
-		try {
-			String text = newV.getText();
-			textarea.setText(text);
-		} catch (Exception e) {
-			logger.error("Couldn't load text from the source \"" + newV.getClass().getName() + "\"", e);
+		if (bridge != null) {
+			highlighting.setBridge(null);
+			bridge.dispose();
+			bridge = null;
+		}
+		codeArea.clear();
+		if (newV == null) {
+			return;
 		}
+		logger.debug("Show the source \"" + newV.getClass().getName() + "\"");
+		bridge = new TextSourceBridge(codeArea, newV);
+		highlighting.setBridge(bridge);
 	}
 
 }
@@ -0,0 +1,658 @@
+package ch.sebi.fxedit.ui.controller.editor.text;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.IntFunction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.LineNumberFactory;
+import org.fxmisc.richtext.model.PlainTextChange;
+import org.fxmisc.undo.UndoManagerFactory;
+import org.reactfx.Subscription;
+
+import ch.sebi.fxedit.model.source.TextBufferSource;
+import ch.sebi.fxedit.model.source.TextChangeListener;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.event.Event;
+import javafx.event.EventHandler;
+import javafx.scene.Node;
+import javafx.scene.input.InputEvent;
+
+/**
+ * Keeps a {@link CodeArea} and a {@link TextBufferSource} in sync. The area
+ * only holds a window of the text: the visible lines and
+ * {@value #MARGIN_LINES} lines before and after them. When the viewport gets
+ * close to an edge of the window, the window is moved, so the text is read
+ * from the source with {@link TextBufferSource#getText(int, int)} and never
+ * stored twice. The positions of the area are the positions of the source
+ * minus the start of the window, the line numbers are the lines of the
+ * source.<br>
+ * While the source loads, the window is filled in portions once per frame.
+ * Afterwards every change of the area is forwarded to the source with
+ * {@link TextBufferSource#setText(int, int, String)} and every change of the
+ * source (for example from js or an undo) is replayed in the area if it
+ * touches the window. Both directions only transfer the changed range without
+ * the common prefix and suffix. Changes of the source are collected and
+ * applied once per frame.<br>
+ * The undo history is the one of the source, the area doesn't keep one.
+ *
+ * @author sebi
+ *
+ */
+public class TextSourceBridge {
+	/**
+	 * the maximal number of chars which are added to the code area per frame
+	 * while the source is loading
+	 */
+	private static final int CHARS_PER_PULSE = 1 << 18;
+	/**
+	 * the number of lines before and after the visible lines which are kept in
+	 * the area. The window is moved when less than half of them are left
+	 */
+	private static final int MARGIN_LINES = 1000;
+	/**
+	 * the maximal number of chars in the window. A window with very long lines
+	 * ends inside of a line
+	 */
+	private static final int MAX_WINDOW_CHARS = 1 << 22;
+
+	/**
+	 * logger
+	 */
+	private Logger logger = LogManager.getLogger();
+
+	/**
+	 * the code area
+	 */
+	private final CodeArea area;
+	/**
+	 * the source
+	 */
+	private final TextBufferSource source;
+	/**
+	 * the changes of the source which aren't applied to the area yet
+	 */
+	private final Queue<Change> pending = new ConcurrentLinkedQueue<>();
+	/**
+	 * the listener which collects the changes of the source
+	 */
+	private final TextChangeListener sourceListener = this::sourceChanged;
+	/**
+	 * applies the pending changes, loads the next portion and moves the window
+	 * once per frame
+	 */
+	private final AnimationTimer timer = new AnimationTimer() {
+		@Override
+		public void handle(long now) {
+			pulse();
+		}
+	};
+	/**
+	 * applies the pending changes before the user edits the area
+	 */
+	private final EventHandler<InputEvent> inputFilter = this::flushBeforeInput;
+	/**
+	 * the line numbers of the area, which are counted from the first paragraph
+	 */
+	private final IntFunction<Node> areaLineNumbers;
+	/**
+	 * the line numbers of the source
+	 */
+	private final IntFunction<Node> lineNumbers;
+	/**
+	 * the subscription to the changes of the area
+	 */
+	private Subscription areaChanges;
+	/**
+	 * the subscription to the changes of the viewport
+	 */
+	private Subscription viewportChanges;
+	/**
+	 * called after the window was moved or the text before it changed or null
+	 */
+	private Runnable onWindowMoved = null;
+	/**
+	 * called when the area is in sync with the source again or null
+	 */
+	private Runnable onSynced = null;
+	/**
+	 * the position in the source of the first char of the area
+	 */
+	private int windowStart = 0;
+	/**
+	 * the line of the source of the first paragraph of the area
+	 */
+	private int firstLine = 0;
+	/**
+	 * the line of the source at which the window should end
+	 */
+	private int windowEndLine = 2 * MARGIN_LINES;
+	/**
+	 * if the window ends at the end of the text, so text which is appended to
+	 * the source is shown
+	 */
+	private boolean tail = false;
+	/**
+	 * if the window reached the end it should have with the text which is
+	 * loaded so far
+	 */
+	private boolean filled = false;
+	/**
+	 * if the source is loaded and the window is filled
+	 */
+	private boolean loaded = false;
+	/**
+	 * if a change of the source is applied to the area right now
+	 */
+	private boolean applying = false;
+	/**
+	 * if a change of the area is forwarded to the source right now
+	 */
+	private boolean forwarding = false;
+	/**
+	 * if the bridge was disposed
+	 */
+	private volatile boolean disposed = false;
+
+	/**
+	 * Connects the area with the source. The area is cleared and filled with the
+	 * start of the text of the source. Has to be called on the fx thread.
+	 *
+	 * @param area   the code area
+	 * @param source the source
+	 */
+	public TextSourceBridge(CodeArea area, TextBufferSource source) {
+		this.area = area;
+		this.source = source;
+		this.areaLineNumbers = LineNumberFactory.get(area);
+		this.lineNumbers = paragraph -> areaLineNumbers.apply(firstLine + paragraph);
+		area.setUndoManager(UndoManagerFactory.zeroHistorySingleChangeUM(area.plainTextChanges()));
+		area.clear();
+		area.setEditable(false);
+		area.setParagraphGraphicFactory(lineNumbers);
+		areaChanges = area.plainTextChanges().subscribe(this::areaChanged);
+		viewportChanges = area.viewportDirtyEvents().subscribe(e -> timer.start());
+		area.addEventFilter(InputEvent.ANY, inputFilter);
+		source.addTextChangeListener(sourceListener);
+		timer.start();
+	}
+
+	/**
+	 * Disconnects the area from the source. Has to be called on the fx thread.
+	 */
+	public void dispose() {
+		disposed = true;
+		timer.stop();
+		source.removeTextChangeListener(sourceListener);
+		area.removeEventFilter(InputEvent.ANY, inputFilter);
+		areaChanges.unsubscribe();
+		viewportChanges.unsubscribe();
+		area.setParagraphGraphicFactory(areaLineNumbers);
+		pending.clear();
+	}
+
+	/**
+	 * Returns the source
+	 *
+	 * @return the source
+	 */
+	public TextBufferSource getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns the line of the source which is shown in the first paragraph of
+	 * the area. The paragraph n of the area is the line n + first line of the
+	 * source.
+	 *
+	 * @return the first line
+	 */
+	public int getFirstLine() {
+		return firstLine;
+	}
+
+	/**
+	 * Sets the callback which is called on the fx thread after the window was
+	 * moved or the text before it changed, so the lines of the area belong to
+	 * other lines of the source
+	 *
+	 * @param onWindowMoved the callback or null
+	 */
+	public void setOnWindowMoved(Runnable onWindowMoved) {
+		this.onWindowMoved = onWindowMoved;
+	}
+
+	/**
+	 * Sets the callback which is called on the fx thread when the area shows
+	 * the current text of the source again, after it was loaded or the pending
+	 * changes were applied
+	 *
+	 * @param onSynced the callback or null
+	 */
+	public void setOnSynced(Runnable onSynced) {
+		this.onSynced = onSynced;
+	}
+
+	/**
+	 * Returns if the area shows the current text of the source
+	 *
+	 * @return if the window is loaded and there are no pending changes
+	 */
+	public boolean isInSync() {
+		return loaded && pending.isEmpty();
+	}
+
+	/**
+	 * Applies the pending changes, shows the next portion of a loading source
+	 * and moves the window if the viewport is close to one of its edges
+	 */
+	private void pulse() {
+		try {
+			applyPending();
+			if (!loaded) {
+				boolean done = source.doneLoading();
+				fill();
+				if (done && filled) {
+					loaded = true;
+					area.setEditable(!source.isReadonly());
+				}
+			}
+			if (filled) {
+				moveWindow();
+			}
+			if (loaded && pending.isEmpty()) {
+				timer.stop();
+				synced();
+			}
+		} catch (Exception e) {
+			logger.error("Couldn't show the text of the source \"" + source.getClass().getName() + "\"", e);
+			timer.stop();
+		}
+	}
+
+	/**
+	 * Notifies the callback that the area is in sync
+	 */
+	private void synced() {
+		if (onSynced != null) {
+			onSynced.run();
+		}
+	}
+
+	/**
+	 * Adds the next portion of the text of a loading source to the end of the
+	 * window
+	 *
+	 * @throws Exception
+	 */
+	private void fill() throws Exception {
+		int windowEnd = windowStart + area.getLength();
+		int end = windowEnd(windowStart, windowEndLine);
+		int to = Math.min(end, windowEnd + CHARS_PER_PULSE);
+		if (windowEnd < to) {
+			String text = source.getText(windowEnd, to);
+			applying = true;
+			try {
+				area.appendText(text);
+			} finally {
+				applying = false;
+			}
+			windowEnd = to;
+		}
+		filled = windowEnd >= end;
+		tail = windowEnd == source.length();
+	}
+
+	/**
+	 * Moves the window if the viewport is closer than half of the margin to
+	 * one of its edges. Afterwards the window contains {@value #MARGIN_LINES}
+	 * lines before and after the visible lines.
+	 *
+	 * @throws Exception
+	 */
+	private void moveWindow() throws Exception {
+		if (area.getVisibleParagraphs().isEmpty()) {
+			return;
+		}
+		int top = area.visibleParToAllParIndex(0);
+		int bottom = area.visibleParToAllParIndex(area.getVisibleParagraphs().size() - 1);
+		int paragraphs = area.getParagraphs().size();
+		boolean nearStart = windowStart > 0 && top < MARGIN_LINES / 2;
+		boolean nearEnd = !tail && paragraphs - 1 - bottom < MARGIN_LINES / 2;
+		if (!nearStart && !nearEnd) {
+			return;
+		}
+		int topStart = windowStart + area.getAbsolutePosition(top, 0);
+		int newFirstLine = Math.max(0, firstLine + top - MARGIN_LINES);
+		int newStart = source.lineStart(newFirstLine);
+		if (topStart - newStart > MAX_WINDOW_CHARS / 2) {
+			// the lines before the viewport are very long
+			newStart = topStart - MAX_WINDOW_CHARS / 2;
+			newFirstLine = source.lineOf(newStart);
+		}
+		int newEndLine = firstLine + bottom + MARGIN_LINES;
+		int newEnd = windowEnd(newStart, newEndLine);
+		windowEndLine = newEndLine;
+		if (newStart == windowStart && newEnd == windowStart + area.getLength()) {
+			tail = newEnd == source.length();
+			return;
+		}
+		replaceWindow(newStart, newEnd, newFirstLine, firstLine + top);
+	}
+
+	/**
+	 * Returns the end of a window. The window ends at the start of the given
+	 * line, unless it would have more than {@value #MAX_WINDOW_CHARS} chars or
+	 * the text has less lines. It is never before the start.
+	 *
+	 * @param start   the start of the window
+	 * @param endLine the line at which the window should end
+	 * @return the end of the window
+	 * @throws Exception
+	 */
+	private int windowEnd(int start, int endLine) throws Exception {
+		int length = source.length();
+		int end = endLine < source.lineCount() ? source.lineStart(endLine) : length;
+		return (int) Math.max(start, Math.min(end, Math.min(length, (long) start + MAX_WINDOW_CHARS)));
+	}
+
+	/**
+	 * Shows another range of the text in the area. The part which is in both
+	 * windows stays in the area with its styles, only the rest is read from the
+	 * source. The selection and the top visible line are kept.
+	 *
+	 * @param newStart     the start of the new window
+	 * @param newEnd       the end of the new window
+	 * @param newFirstLine the line of the new start
+	 * @param topLine      the line which should stay at the top of the viewport
+	 * @throws Exception
+	 */
+	private void replaceWindow(int newStart, int newEnd, int newFirstLine, int topLine) throws Exception {
+		int oldStart = windowStart;
+		int oldEnd = windowStart + area.getLength();
+		int anchor = oldStart + area.getAnchor();
+		int caret = oldStart + area.getCaretPosition();
+		applying = true;
+		try {
+			if (newStart < oldEnd && oldStart < newEnd) {
+				// the end first, so the positions at the start stay valid
+				if (newEnd < oldEnd) {
+					area.deleteText(newEnd - oldStart, oldEnd - oldStart);
+				} else if (newEnd > oldEnd) {
+					area.appendText(source.getText(oldEnd, newEnd));
+				}
+				if (newStart > oldStart) {
+					area.deleteText(0, newStart - oldStart);
+				} else if (newStart < oldStart) {
+					area.insertText(0, source.getText(newStart, oldStart));
+				}
+			} else {
+				area.replaceText(source.getText(newStart, newEnd));
+			}
+		} finally {
+			applying = false;
+		}
+		windowStart = newStart;
+		firstLine = newFirstLine;
+		tail = newEnd == source.length();
+		int length = area.getLength();
+		area.selectRange(Math.max(0, Math.min(length, anchor - newStart)),
+				Math.max(0, Math.min(length, caret - newStart)));
+		area.showParagraphAtTop(Math.max(0, Math.min(area.getParagraphs().size() - 1, topLine - firstLine)));
+		windowMoved();
+	}
+
+	/**
+	 * Updates the line numbers and notifies the callback after the lines of the
+	 * area were moved
+	 */
+	private void windowMoved() {
+		// creates the line numbers again
+		area.setParagraphGraphicFactory(null);
+		area.setParagraphGraphicFactory(lineNumbers);
+		if (onWindowMoved != null) {
+			onWindowMoved.run();
+		}
+	}
+
+	/**
+	 * Applies the pending changes of the source to the area
+	 *
+	 * @throws Exception
+	 */
+	private void applyPending() throws Exception {
+		Change change;
+		boolean moved = false;
+		while ((change = pending.poll()) != null) {
+			moved |= apply(change);
+		}
+		if (moved) {
+			firstLine = source.lineOf(windowStart);
+			windowMoved();
+		}
+	}
+
+	/**
+	 * Applies a change of the source to the area. Only the part of the change
+	 * which is in the window is replaced, a change before the window moves it.
+	 *
+	 * @param change the change
+	 * @return if the start of the window moved
+	 */
+	private boolean apply(Change change) {
+		int from = change.from;
+		int end = from + change.removedLength;
+		String inserted = change.insertedText;
+		int windowEnd = windowStart + area.getLength();
+		if (end < windowStart || (end == windowStart && from < windowStart)) {
+			windowStart += inserted.length() - change.removedLength;
+			return true;
+		}
+		if (from > windowEnd || (from == windowEnd && !tail)) {
+			return false;
+		}
+		boolean moved = false;
+		int to = Math.min(end, windowEnd) - windowStart;
+		if (from < windowStart) {
+			// the removed text starts before the window, the inserted text is shown
+			windowStart = from;
+			from = 0;
+			moved = true;
+		} else {
+			from -= windowStart;
+		}
+
+		// only the part which really differs is replaced
+		String removed = area.getText(from, to);
+		int prefix = commonPrefix(removed, inserted);
+		int suffix = commonSuffix(removed, inserted, prefix);
+		if (prefix + suffix == removed.length() && prefix + suffix == inserted.length()) {
+			return moved;
+		}
+		applying = true;
+		try {
+			area.replaceText(from + prefix, to - suffix, inserted.substring(prefix, inserted.length() - suffix));
+		} finally {
+			applying = false;
+		}
+		return moved;
+	}
+
+	/**
+	 * Forwards a change of the area to the source
+	 *
+	 * @param change the change
+	 */
+	private void areaChanged(PlainTextChange change) {
+		if (applying) {
+			return;
+		}
+		String removed = change.getRemoved();
+		String inserted = change.getInserted();
+		int prefix = commonPrefix(removed, inserted);
+		int suffix = commonSuffix(removed, inserted, prefix);
+		if (prefix + suffix == removed.length() && prefix + suffix == inserted.length()) {
+			return;
+		}
+		int from = windowStart + change.getPosition() + prefix;
+		int to = windowStart + change.getPosition() + removed.length() - suffix;
+		forwarding = true;
+		try {
+			source.setText(from, to, inserted.substring(prefix, inserted.length() - suffix));
+		} catch (Exception e) {
+			logger.error("Couldn't forward an edit to the source \"" + source.getClass().getName() + "\"", e);
+		} finally {
+			forwarding = false;
+		}
+		if (!pending.isEmpty()) {
+			// the source was changed by someone else in the meantime, the positions
+			// of the area don't match the source anymore
+			logger.warn("Concurrent edits of the source \"" + source.getClass().getName() + "\", reload its text");
+			try {
+				reload();
+			} catch (Exception e) {
+				logger.error("Couldn't reload the text of the source \"" + source.getClass().getName() + "\"", e);
+			}
+		}
+	}
+
+	/**
+	 * Collects a change of the source. The change is applied in the next frame.
+	 * This may be called from any thread.
+	 *
+	 * @param source        the source
+	 * @param from          the position of the change
+	 * @param removedLength the number of removed chars
+	 * @param insertedText  the inserted text
+	 */
+	private void sourceChanged(TextBufferSource source, int from, int removedLength, String insertedText) {
+		if (forwarding && Platform.isFxApplicationThread()) {
+			// the change came from the area
+			return;
+		}
+		pending.add(new Change(from, removedLength, insertedText));
+		if (Platform.isFxApplicationThread()) {
+			timer.start();
+		} else {
+			Platform.runLater(() -> {
+				if (!disposed) {
+					timer.start();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Applies the pending changes before an input event reaches the area, so
+	 * the edit of the user is done on the current text
+	 *
+	 * @param event the event
+	 */
+	private void flushBeforeInput(Event event) {
+		if (!pending.isEmpty()) {
+			try {
+				applyPending();
+				if (isInSync()) {
+					synced();
+				}
+			} catch (Exception e) {
+				logger.error("Couldn't show the text of the source \"" + source.getClass().getName() + "\"", e);
+			}
+		}
+	}
+
+	/**
+	 * Fills the window again from the start of the line which was at its start
+	 *
+	 * @throws Exception
+	 */
+	private void reload() throws Exception {
+		pending.clear();
+		applying = true;
+		try {
+			area.clear();
+		} finally {
+			applying = false;
+		}
+		area.setEditable(false);
+		firstLine = source.lineOf(Math.min(windowStart, source.length()));
+		windowStart = source.lineStart(firstLine);
+		windowEndLine = firstLine + 2 * MARGIN_LINES;
+		tail = false;
+		filled = false;
+		loaded = false;
+		windowMoved();
+		timer.start();
+	}
+
+	/**
+	 * Returns the length of the common prefix of both strings
+	 *
+	 * @param a the first string
+	 * @param b the second string
+	 * @return the length of the common prefix
+	 */
+	private static int commonPrefix(String a, String b) {
+		int max = Math.min(a.length(), b.length());
+		int i = 0;
+		while (i < max && a.charAt(i) == b.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the length of the common suffix of both strings which doesn't
+	 * overlap the common prefix
+	 *
+	 * @param a      the first string
+	 * @param b      the second string
+	 * @param prefix the length of the common prefix
+	 * @return the length of the common suffix
+	 */
+	private static int commonSuffix(String a, String b, int prefix) {
+		int max = Math.min(a.length(), b.length()) - prefix;
+		int i = 0;
+		while (i < max && a.charAt(a.length() - 1 - i) == b.charAt(b.length() - 1 - i)) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * A change of the source
+	 *
+	 * @author sebi
+	 *
+	 */
+	private static final class Change {
+		/**
+		 * the position of the change
+		 */
+		private final int from;
+		/**
+		 * the number of removed chars
+		 */
+		private final int removedLength;
+		/**
+		 * the inserted text
+		 */
+		private final String insertedText;
+
+		/**
+		 * constructor
+		 *
+		 * @param from          the position of the change
+		 * @param removedLength the number of removed chars
+		 * @param insertedText  the inserted text
+		 */
+		private Change(int from, int removedLength, String insertedText) {
+			this.from = from;
+			this.removedLength = removedLength;
+			this.insertedText = insertedText;
+		}
+	}
+}
@@ -2,6 +2,7 @@ package ch.sebi.fxedit.ui.controller.window;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -9,7 +10,12 @@ import org.apache.logging.log4j.Logger;
 import com.sun.javafx.stage.StageHelper;
 
 import ch.sebi.fxedit.model.FXEditModel;
+import ch.sebi.fxedit.model.source.FileTextBufferSource;
+import ch.sebi.fxedit.model.source.SwapJournal;
+import ch.sebi.fxedit.model.ui.editor.TextEditorModel;
+import ch.sebi.fxedit.model.ui.window.TabModel;
 import ch.sebi.fxedit.model.ui.window.WindowModel;
+import ch.sebi.fxedit.runtime.JsRuntime;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.collections.ListChangeListener;
@@ -17,7 +23,11 @@ import javafx.fxml.FXMLLoader;
 import javafx.fxml.Initializable;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
+import javafx.scene.control.ButtonBar.ButtonData;
+import javafx.scene.control.ButtonType;
 import javafx.scene.control.TabPane;
 import javafx.stage.Stage;
 
@@ -49,6 +59,77 @@ public class FXApplication extends Application  {
 		} catch (Exception e) {
 			logger.error("Cannot execute the rc file", e);
 		}
+
+		offerRecovery(rootModel);
+	}
+
+	/**
+	 * Asks the user if the unsaved changes, which were left behind by a crash,
+	 * should be recovered
+	 * 
+	 * @param rootModel the root model
+	 */
+	private static void offerRecovery(FXEditModel rootModel) {
+		for (Path swapFile : SwapJournal.findJournals()) {
+			try {
+				SwapJournal.Recovery recovery = SwapJournal.read(swapFile);
+				if (recovery == null) {
+					logger.warn("\"" + swapFile + "\" isn't a swap journal");
+					continue;
+				}
+				if (!recovery.hasEdits()) {
+					recovery.delete();
+					continue;
+				}
+				ButtonType recover = new ButtonType("Recover", ButtonData.YES);
+				ButtonType discard = new ButtonType("Discard", ButtonData.NO);
+				Alert alert;
+				if (recovery.isReplayable()) {
+					alert = new Alert(AlertType.CONFIRMATION, "FXEdit wasn't closed properly. There are unsaved changes of \""
+							+ recovery.getFile() + "\". Do you want to recover them?", recover, discard, ButtonType.CANCEL);
+				} else {
+					alert = new Alert(AlertType.WARNING, "FXEdit wasn't closed properly. There are unsaved changes of \""
+							+ recovery.getFile() + "\", but the file was changed since and they can't be recovered.",
+							discard, ButtonType.CANCEL);
+				}
+				alert.setHeaderText("Unsaved changes");
+				ButtonType result = alert.showAndWait().orElse(ButtonType.CANCEL);
+				if (result == recover) {
+					recoverBuffer(rootModel, recovery);
+				} else if (result == discard) {
+					recovery.delete();
+				}
+			} catch (Exception e) {
+				logger.error("Couldn't recover the swap journal \"" + swapFile + "\"", e);
+			}
+		}
+	}
+
+	/**
+	 * Opens the file of the recovery in a new tab and replays the unsaved
+	 * changes. The changes are recorded in a new swap journal and the old one is
+	 * deleted.
+	 * 
+	 * @param rootModel the root model
+	 * @param recovery  the recovery
+	 * @throws Exception
+	 */
+	private static void recoverBuffer(FXEditModel rootModel, SwapJournal.Recovery recovery) throws Exception {
+		JsRuntime runtime = rootModel.getRuntime();
+		FileTextBufferSource source = FileTextBufferSource.createSource(recovery.getFile().toString(), runtime);
+		recovery.replay(source);
+		TextEditorModel editor = runtime.createObject(TextEditorModel.class);
+		editor.setSource(source);
+		TabModel tab = TabModel.createTabModel(runtime);
+		tab.setTitle(recovery.getFile().getFileName() + " (recovered)");
+		tab.setEditor(editor);
+		WindowModel window = rootModel.getCurrentWindow();
+		if (window == null) {
+			window = rootModel.getWindows().get(0);
+		}
+		window.getCenterTabs().getTabs().add(tab);
+		recovery.delete();
+		logger.info("Recovered the unsaved changes of \"" + recovery.getFile() + "\"");
 	}
 	
 	/**
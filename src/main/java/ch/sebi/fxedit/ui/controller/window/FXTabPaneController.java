@@ -69,6 +69,14 @@ public class FXTabPaneController {
 		});
 		tabPane.getSelectionModel().selectedIndexProperty().addListener((ChangeListener<Number>) (observable, oldValue, newValue) -> {
 			int index = newValue.intValue();
+			if (index < 0) {
+				// the last tab was closed, so the current tab can't be used anymore
+				FXEditModel root = FXEditModel.getFXEditModel();
+				if (root.getCurrentTab() != null && !model.getTabs().contains(root.getCurrentTab())) {
+					root.setCurrentTab(null);
+				}
+				return;
+			}
 			Tab tab = tabPane.getTabs().get(index);
 			TabModel tabModel = null;
 			// search tab model for selected tab
@@ -0,0 +1,232 @@
+package ch.sebi.fxedit.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A hash map with primitive long keys. The keys and values are stored in two
+ * arrays with open addressing (linear probing), so a lookup doesn't box the
+ * key and doesn't follow any entry objects. Removed entries are filled by
+ * shifting the following entries back, so there are no tombstones and the
+ * map doesn't degrade when objects are added and removed for a long time.<br>
+ * null values aren't supported, a null value marks an empty slot.
+ *
+ * @author sebi
+ *
+ * @param <V> the type of the values
+ */
+public class LongObjectMap<V> {
+	/**
+	 * the initial capacity
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * the keys
+	 */
+	private long[] keys;
+	/**
+	 * the values, null marks an empty slot
+	 */
+	private Object[] values;
+	/**
+	 * the number of entries
+	 */
+	private int size = 0;
+	/**
+	 * the capacity minus one, the capacity is always a power of two
+	 */
+	private int mask;
+
+	/**
+	 * constructor
+	 */
+	public LongObjectMap() {
+		keys = new long[INITIAL_CAPACITY];
+		values = new Object[INITIAL_CAPACITY];
+		mask = INITIAL_CAPACITY - 1;
+	}
+
+	/**
+	 * Returns the value of a key
+	 *
+	 * @param key the key
+	 * @return the value or null if there is no value for the key
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int slot = find(key);
+		return slot < 0 ? null : (V) values[slot];
+	}
+
+	/**
+	 * Returns if there is a value for a key
+	 *
+	 * @param key the key
+	 * @return if the key is in the map
+	 */
+	public boolean containsKey(long key) {
+		return find(key) >= 0;
+	}
+
+	/**
+	 * Puts a value into the map
+	 *
+	 * @param key   the key
+	 * @param value the value, which cannot be null
+	 * @return the previous value of the key or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if (value == null) {
+			throw new NullPointerException("The value cannot be null");
+		}
+		int slot = slot(key);
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				V old = (V) values[slot];
+				values[slot] = value;
+				return old;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+		// the map is kept at most half full, so the probe sequences stay short
+		if (size * 2 > values.length) {
+			resize(values.length * 2);
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the value of a key
+	 *
+	 * @param key the key
+	 * @return the removed value or null if there was no value for the key
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int slot = find(key);
+		if (slot < 0) {
+			return null;
+		}
+		V old = (V) values[slot];
+		values[slot] = null;
+		size--;
+		// moves the following entries of the probe sequence back into the gap
+		int gap = slot;
+		int next = (gap + 1) & mask;
+		while (values[next] != null) {
+			int home = slot(keys[next]);
+			// the entry can be moved if its home slot isn't between the gap and
+			// its current slot (cyclically)
+			boolean between = gap <= next ? gap < home && home <= next : gap < home || home <= next;
+			if (!between) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				values[next] = null;
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		return old;
+	}
+
+	/**
+	 * Returns the number of entries
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns if the map is empty
+	 *
+	 * @return if the map is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all entries
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/**
+	 * Returns a copy of the values. The map can be changed while the returned
+	 * list is iterated.
+	 *
+	 * @return the values
+	 */
+	@SuppressWarnings("unchecked")
+	public List<V> values() {
+		List<V> list = new ArrayList<>(size);
+		for (Object value : values) {
+			if (value != null) {
+				list.add((V) value);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the slot of a key
+	 *
+	 * @param key the key
+	 * @return the slot or -1 if the key isn't in the map
+	 */
+	private int find(long key) {
+		int slot = slot(key);
+		while (values[slot] != null) {
+			if (keys[slot] == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the home slot of a key. The key is mixed, because the ids of the
+	 * object pool are sequential
+	 *
+	 * @param key the key
+	 * @return the slot where the probe sequence of the key starts
+	 */
+	private int slot(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	/**
+	 * Moves all entries into new arrays
+	 *
+	 * @param capacity the new capacity, a power of two
+	 */
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = slot(oldKeys[i]);
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+}
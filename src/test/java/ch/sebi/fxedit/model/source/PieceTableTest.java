@@ -0,0 +1,203 @@
+package ch.sebi.fxedit.model.source;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class PieceTableTest {
+
+	/**
+	 * Creates a piece table with the given original text
+	 *
+	 * @param text the original text
+	 * @return the piece table
+	 */
+	private PieceTable create(String text) {
+		AppendBuffer original = new AppendBuffer();
+		original.append(text);
+		return new PieceTable(original);
+	}
+
+	/**
+	 * Tests inserts, deletes and replacements at the start, the middle and the
+	 * end of the text
+	 */
+	@Test
+	void testReplace() {
+		PieceTable table = create("hello world");
+		table.replace(5, 5, ",");
+		assertEquals("hello, world", table.getText(0, table.length()));
+		table.replace(0, 5, "goodbye");
+		assertEquals("goodbye, world", table.getText(0, table.length()));
+		table.replace(table.length(), table.length(), "!");
+		assertEquals("goodbye, world!", table.getText(0, table.length()));
+		table.replace(7, 14, "");
+		assertEquals("goodbye!", table.getText(0, table.length()));
+		assertEquals("bye", table.getText(4, 7));
+	}
+
+	/**
+	 * Tests if typing at the end of the last inserted text grows the last piece
+	 * instead of adding a piece per char
+	 */
+	@Test
+	void testTypingDoesNotAddPieces() {
+		PieceTable table = create("abc");
+		table.replace(1, 1, "x");
+		int pieces = table.getPieceCount();
+		for (int i = 0; i < 100; i++) {
+			table.replace(2 + i, 2 + i, "y");
+		}
+		assertEquals(pieces, table.getPieceCount());
+		assertEquals("axyyy", table.getText(0, 5));
+		assertEquals(104, table.length());
+	}
+
+	/**
+	 * Compares random edits with a {@link StringBuilder}
+	 */
+	@Test
+	void testRandomEdits() throws Exception {
+		Random random = new Random(42);
+		StringBuilder expected = new StringBuilder("the quick brown fox\njumps over the lazy dog\n");
+		String alphabet = "abcdefghij\n";
+		PieceTable table = create(expected.toString());
+		for (int i = 0; i < 5000; i++) {
+			int from = random.nextInt(expected.length() + 1);
+			int to = from + random.nextInt(Math.min(10, expected.length() - from) + 1);
+			StringBuilder text = new StringBuilder();
+			int n = random.nextInt(5);
+			for (int j = 0; j < n; j++) {
+				text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			expected.replace(from, to, text.toString());
+			table.replace(from, to, text);
+			assertEquals(expected.length(), table.length());
+		}
+		assertEquals(expected.toString(), table.getText(0, table.length()));
+		int from = expected.length() / 3;
+		assertEquals(expected.substring(from, from * 2), table.getText(from, from * 2));
+		StringWriter writer = new StringWriter();
+		table.writeTo(writer);
+		assertEquals(expected.toString(), writer.toString());
+		assertTrue(table.getPieceCount() > 1);
+		assertLines(expected.toString(), table);
+	}
+
+	/**
+	 * Compares the line index of the piece table with the lines of the text
+	 *
+	 * @param expected the text
+	 * @param table    the piece table
+	 */
+	private void assertLines(String expected, PieceTable table) {
+		int line = 0;
+		for (int i = 0; i <= expected.length(); i++) {
+			assertEquals(line, table.lineOf(i));
+			if (i == 0 || expected.charAt(i - 1) == '\n') {
+				assertEquals(i, table.lineStart(line));
+			}
+			if (i < expected.length() && expected.charAt(i) == '\n') {
+				line++;
+			}
+		}
+		assertEquals(line + 1, table.lineCount());
+	}
+
+	/**
+	 * Tests the line index after edits which add and remove line feeds
+	 */
+	@Test
+	void testLines() {
+		PieceTable table = create("one\ntwo\nthree");
+		assertEquals(3, table.lineCount());
+		assertEquals(4, table.lineStart(1));
+		assertEquals(2, table.lineOf(8));
+		table.replace(3, 4, " ");
+		assertEquals(2, table.lineCount());
+		table.replace(0, 0, "\n\n");
+		assertLines("\n\none two\nthree", table);
+		assertThrows(IndexOutOfBoundsException.class, () -> table.lineStart(4));
+	}
+
+	/**
+	 * Tests if a snapshot keeps its text and version while the table is edited
+	 */
+	@Test
+	void testSnapshot() {
+		PieceTable table = create("one\ntwo");
+		table.replace(3, 3, " and");
+		PieceTable snapshot = table.snapshot();
+		long version = snapshot.getVersion();
+		table.replace(0, 3, "three");
+		table.replace(table.length(), table.length(), "\nfour");
+		assertEquals("one and\ntwo", snapshot.getText());
+		assertEquals("two", snapshot.getLine(1));
+		assertEquals(version, snapshot.getVersion());
+		assertTrue(table.getVersion() > version);
+		assertEquals("three and\ntwo\nfour", table.getText(0, table.length()));
+		assertThrows(UnsupportedOperationException.class, () -> snapshot.replace(0, 0, "x"));
+	}
+
+	/**
+	 * Undoes and redoes random edits and tests if typing is coalesced
+	 */
+	@Test
+	void testUndoRedo() {
+		Random random = new Random(7);
+		PieceTable table = create("undo and redo\n");
+		EditJournal journal = new EditJournal();
+		List<String> states = new ArrayList<>();
+		states.add(table.getText(0, table.length()));
+		for (int i = 0; i < 200; i++) {
+			int from = random.nextInt(table.length() + 1);
+			int to = from + random.nextInt(Math.min(5, table.length() - from) + 1);
+			String text = "edit\n" + i;
+			journal.record(table, table.replace(from, to, text), text);
+			states.add(table.getText(0, table.length()));
+		}
+		for (int i = states.size() - 1; i > 0; i--) {
+			assertEquals(states.get(i), table.getText(0, table.length()));
+			assertNotNull(journal.undo(table));
+		}
+		assertEquals(states.get(0), table.getText(0, table.length()));
+		assertNull(journal.undo(table));
+		for (int i = 1; i < states.size(); i++) {
+			assertNotNull(journal.redo(table));
+			assertEquals(states.get(i), table.getText(0, table.length()));
+		}
+
+		// typing and backspace are undone as a whole
+		int end = table.length();
+		for (char c : "typed".toCharArray()) {
+			String text = String.valueOf(c);
+			journal.record(table, table.replace(table.length(), table.length(), text), text);
+		}
+		for (int i = 0; i < 3; i++) {
+			journal.record(table, table.replace(table.length() - 1, table.length(), ""), "");
+		}
+		assertNotNull(journal.undo(table));
+		assertEquals("typed", table.getText(end, table.length()));
+		assertNotNull(journal.undo(table));
+		assertEquals(states.get(states.size() - 1), table.getText(0, table.length()));
+	}
+
+	/**
+	 * Tests if ranges outside of the text are rejected
+	 */
+	@Test
+	void testInvalidRange() {
+		PieceTable table = create("abc");
+		assertThrows(IndexOutOfBoundsException.class, () -> table.getText(2, 4));
+		assertThrows(IndexOutOfBoundsException.class, () -> table.replace(2, 1, ""));
+	}
+}
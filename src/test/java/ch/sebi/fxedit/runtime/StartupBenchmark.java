@@ -0,0 +1,116 @@
+package ch.sebi.fxedit.runtime;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.eclipsesource.v8.V8;
+
+import ch.sebi.fxedit.runtime.lib.require.ModulePrefetch;
+import ch.sebi.fxedit.runtime.lib.require.RequireLib;
+
+/**
+ * Measures how long it takes until the js runtime is ready. Every launch runs
+ * in a new jvm, the first launch is the cold start and the following launches
+ * are warm starts (the os caches the files and the extracted j2v8 library).
+ * Every launch reports the phases of the first runtime of the process:
+ * <ul>
+ * <li>isolate: starting the {@link ModulePrefetch} and creating the first v8
+ * isolate, which loads and initializes j2v8</li>
+ * <li>runtime: {@link JsRuntime#JsRuntime()}, which loads the factories of the
+ * classes.properties and the init libs</li>
+ * <li>modules: requiring the modules rc.js uses</li>
+ * </ul>
+ * and the runtime and modules phases of a second runtime in the same process.
+ * <br>
+ * Run it with the test classpath in the project directory:
+ *
+ * <pre>
+ * java ch.sebi.fxedit.runtime.StartupBenchmark [launches]
+ * </pre>
+ *
+ * @author sebi
+ *
+ */
+public class StartupBenchmark {
+	/**
+	 * the default number of launches
+	 */
+	private static final int DEFAULT_LAUNCHES = 5;
+	/**
+	 * the argument which makes the process measure one launch
+	 */
+	private static final String LAUNCH_ARGUMENT = "--launch";
+	/**
+	 * the modules rc.js requires
+	 */
+	private static final String REQUIRE_SCRIPT = "require('util.binding'); require('window.window');"
+			+ "require('window.tab'); require('editor.texteditor'); require('source.filesource');"
+			+ "require('util.filechooser'); require('window.root');";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals(LAUNCH_ARGUMENT)) {
+			launch();
+			return;
+		}
+		int launches = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_LAUNCHES;
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		for (int i = 0; i < launches; i++) {
+			List<String> command = new ArrayList<>();
+			command.add(java);
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(StartupBenchmark.class.getName());
+			command.add(LAUNCH_ARGUMENT);
+			Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+			String result = null;
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					// the log output of the runtime is skipped
+					if (line.startsWith(LAUNCH_ARGUMENT)) {
+						result = line.substring(LAUNCH_ARGUMENT.length()).trim();
+					}
+				}
+			}
+			process.waitFor();
+			System.out.println((i == 0 ? "cold" : "warm") + " start: " + result);
+		}
+	}
+
+	/**
+	 * Measures the phases of one launch and prints them on one line
+	 *
+	 * @throws Exception if the runtime couldn't be started
+	 */
+	private static void launch() throws Exception {
+		long start = System.nanoTime();
+		// like FXEditStartup, the modules are read while the isolate is created
+		ModulePrefetch.start(new File(JsRuntime.CLASS_PROPERTIES_FILE), RequireLib.DEFAULT_REQUIRE_PATHS);
+		V8.createV8Runtime().release();
+		long isolate = System.nanoTime() - start;
+		long[] first = measureRuntime();
+		long[] second = measureRuntime();
+		System.out.println(String.format("%s isolate %4d ms, runtime %4d ms, modules %4d ms, total %4d ms"
+				+ " | second runtime %3d ms, modules %3d ms", LAUNCH_ARGUMENT, isolate / 1000000,
+				first[0] / 1000000, first[1] / 1000000, (isolate + first[0] + first[1]) / 1000000,
+				second[0] / 1000000, second[1] / 1000000));
+	}
+
+	/**
+	 * Creates a runtime and requires the modules of rc.js
+	 *
+	 * @return the nanoseconds of the creation and of the requires
+	 * @throws Exception if the runtime couldn't be started
+	 */
+	private static long[] measureRuntime() throws Exception {
+		long start = System.nanoTime();
+		try (JsRuntime runtime = new JsRuntime()) {
+			long created = System.nanoTime();
+			runtime.getV8().executeVoidScript(REQUIRE_SCRIPT);
+			return new long[] { created - start, System.nanoTime() - created };
+		}
+	}
+}
@@ -40,6 +40,8 @@ import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 
 public class BindingPropertyTest {
 	private Logger logger = LogManager.getLogger(getClass());
@@ -225,11 +227,51 @@ public class BindingPropertyTest {
 		assertEquals(0, latch.getCount(), "Not all listeners where called");
 	}
 
+	/**
+	 * Tests if disposing objects with bindings releases the handles of the
+	 * bindings and removes the java listeners
+	 */
+	@Test
+	void testDisposeBinding() {
+		runtime.getObjectPool().registerClass("test.disposable-binding", TestDisposableBinding.class);
+		String script = "_disposeObj(new (require('test.disposable-binding'))());";
+		// the first object compiles and caches the module
+		v8.executeVoidScript(script);
+		int poolSize = runtime.getObjectPool().size();
+		long references = v8.getObjectReferenceCount();
+		for (int i = 0; i < 100; i++) {
+			v8.executeVoidScript(script);
+		}
+		assertEquals(poolSize, runtime.getObjectPool().size(), "The disposed objects are still in the pool");
+		assertEquals(references, v8.getObjectReferenceCount(), "The bindings of the disposed objects leak handles");
+
+		v8.executeVoidScript("testObj = new (require('test.disposable-binding'))();");
+		long id = v8.executeIntegerScript("testObj._id");
+		TestDisposableBinding testObj = (TestDisposableBinding) runtime.getObjectPool().removeObject(id);
+		testObj.text.set("changed");
+		testObj.items.add("added");
+		assertEquals("text", v8.executeStringScript("testObj.text.value"), "The property listener wasn't removed");
+		assertEquals(1, v8.executeIntegerScript("testObj.items._value.length"), "The list listener wasn't removed");
+		v8.executeVoidScript("testObj = undefined;");
+	}
+
 	@AfterEach
 	void teardown() throws IOException {
 		runtime.close();
 	}
 
+	@JsObject
+	private static class TestDisposableBinding {
+		@JsId
+		private long id;
+
+		@JsBinding(type = String.class)
+		private StringProperty text = new SimpleStringProperty("text");
+
+		@JsBinding(type = String.class)
+		private ObservableList<String> items = FXCollections.observableArrayList("item");
+	}
+
 	@JsObject("new (require('test.complex-binding'))()")
 	private static class TestComplexBinding {
 		private Logger logger = LogManager.getLogger();
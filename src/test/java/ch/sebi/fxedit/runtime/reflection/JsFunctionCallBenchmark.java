@@ -0,0 +1,132 @@
+package ch.sebi.fxedit.runtime.reflection;
+
+import java.lang.reflect.Method;
+
+import com.eclipsesource.v8.JavaCallback;
+import com.eclipsesource.v8.V8;
+import com.eclipsesource.v8.V8Object;
+import com.eclipsesource.v8.V8Value;
+
+import ch.sebi.fxedit.runtime.JsRuntime;
+import ch.sebi.fxedit.runtime.reflection.annotation.JsFunction;
+import ch.sebi.fxedit.runtime.reflection.annotation.JsId;
+import ch.sebi.fxedit.runtime.reflection.annotation.JsObject;
+
+/**
+ * Measures the calls per second of js functions which call a {@link JsFunction}
+ * method. The functions registered by the {@link JsAnnotationClassFactory} are
+ * compared with a reflective call, which looks up the method, toggles its
+ * accessibility and deserializes the arguments on every call. This is how the
+ * factory called methods before it used {@link JsMethodInvoker}s.<br>
+ * Run it with the test classpath:
+ *
+ * <pre>
+ * java ch.sebi.fxedit.runtime.reflection.JsFunctionCallBenchmark [calls]
+ * </pre>
+ *
+ * @author sebi
+ *
+ */
+public class JsFunctionCallBenchmark {
+	/**
+	 * the default number of calls per measurement
+	 */
+	private static final int DEFAULT_CALLS = 500_000;
+
+	public static void main(String[] args) throws Exception {
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CALLS;
+		try (JsRuntime runtime = new JsRuntime()) {
+			runtime.getRequireLib().addRequirePath("./jstestruntime");
+			runtime.getObjectPool().registerClass("test.complex-binding", BenchmarkObject.class);
+			V8 v8 = runtime.getV8();
+			v8.executeVoidScript("bench = new (require('test.complex-binding'))();");
+			V8Object bench = v8.getObject("bench");
+			registerReflective(runtime.getObjectPool(), bench, "reflectiveAdd",
+					BenchmarkObject.class.getDeclaredMethod("add", int.class, int.class));
+			registerReflective(runtime.getObjectPool(), bench, "reflectiveSelf",
+					BenchmarkObject.class.getDeclaredMethod("self", BenchmarkObject.class));
+			bench.release();
+
+			for (int round = 0; round < 3; round++) {
+				// the first rounds warm up the jit
+				boolean print = round == 2;
+				measure(v8, "reflective add(int, int)", "bench.reflectiveAdd(i, 1)", calls, print);
+				measure(v8, "invoker    add(int, int)", "bench.add(i, 1)", calls, print);
+				measure(v8, "reflective self(object)", "bench.reflectiveSelf(bench)", calls, print);
+				measure(v8, "invoker    self(object)", "bench.self(bench)", calls, print);
+			}
+		}
+	}
+
+	/**
+	 * Calls a js expression in a loop and prints the calls per second
+	 *
+	 * @param v8    the v8 runtime
+	 * @param name  the name of the measurement
+	 * @param call  the expression, which can use the loop variable i
+	 * @param calls the number of calls
+	 * @param print if the result is printed
+	 */
+	private static void measure(V8 v8, String name, String call, int calls, boolean print) {
+		long start = System.nanoTime();
+		v8.executeVoidScript("for (let i = 0; i < " + calls + "; i++) { " + call + "; }");
+		long nanos = System.nanoTime() - start;
+		if (print) {
+			System.out.println(String.format("%s: %,12.0f calls/s", name, calls * 1e9 / nanos));
+		}
+	}
+
+	/**
+	 * Registers a function which calls the method like the factory did before
+	 * it used invokers
+	 *
+	 * @param pool   the object pool
+	 * @param object the js object
+	 * @param name   the name of the function
+	 * @param method the method
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void registerReflective(ObjectPool pool, V8Object object, String name, Method method) {
+		Class<?>[] types = method.getParameterTypes();
+		object.registerJavaMethod((JavaCallback) (receiver, parameters) -> {
+			try {
+				Object obj = pool.getJavaObj(ObjectPool.getId(receiver));
+				if (!method.getDeclaringClass().isAssignableFrom(obj.getClass())) {
+					throw new IllegalStateException();
+				}
+				Object[] javaArgs = new Object[method.getParameterCount()];
+				for (int i = 0; i < parameters.length(); i++) {
+					javaArgs[i] = pool.deserialize(types[i], parameters.get(i));
+				}
+				method.setAccessible(true);
+				Object returnValue = pool.serialize((Class) method.getReturnType(), method.invoke(obj, javaArgs));
+				if (returnValue instanceof V8Value) {
+					return ((V8Value) returnValue).twin();
+				}
+				return returnValue;
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			} finally {
+				method.setAccessible(true);
+			}
+		}, name);
+	}
+
+	@JsObject("new (require('test.complex-binding'))()")
+	private static class BenchmarkObject {
+		@JsId
+		private long id;
+
+		@JsFunction
+		private int add(int a, int b) {
+			return a + b;
+		}
+
+		@JsFunction
+		private BenchmarkObject self(BenchmarkObject other) {
+			return other;
+		}
+	}
+}
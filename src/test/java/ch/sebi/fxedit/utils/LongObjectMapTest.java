@@ -0,0 +1,63 @@
+package ch.sebi.fxedit.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class LongObjectMapTest {
+
+	/**
+	 * Tests putting, replacing and removing single keys
+	 */
+	@Test
+	void testPutAndRemove() {
+		LongObjectMap<String> map = new LongObjectMap<>();
+		assertNull(map.put(1, "a"));
+		assertNull(map.put(0, "zero"));
+		assertNull(map.put(-5, "negative"));
+		assertEquals("a", map.put(1, "b"));
+		assertEquals(3, map.size());
+		assertEquals("b", map.get(1));
+		assertEquals("zero", map.get(0));
+		assertEquals("negative", map.remove(-5));
+		assertNull(map.remove(-5));
+		assertFalse(map.containsKey(-5));
+		assertTrue(map.containsKey(1));
+		assertEquals(2, map.size());
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertNull(map.get(1));
+	}
+
+	/**
+	 * Compares the map with a {@link HashMap} with random puts and removes, so
+	 * the removals shift entries across the end of the arrays and the map
+	 * grows several times
+	 */
+	@Test
+	void testRandomOperations() {
+		Random random = new Random(19);
+		LongObjectMap<Long> map = new LongObjectMap<>();
+		Map<Long, Long> expected = new HashMap<>();
+		for (int i = 0; i < 200_000; i++) {
+			long key = random.nextInt(5000);
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), map.remove(key));
+			} else {
+				assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		for (long key = 0; key < 5000; key++) {
+			assertEquals(expected.get(key), map.get(key));
+		}
+		assertEquals(expected.size(), map.values().size());
+	}
+}